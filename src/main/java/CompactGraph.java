@@ -0,0 +1,127 @@
+/**
+ * Frozen, array-backed form of the road graph, built by GraphDB once parsing and
+ * cleaning are done. Every vertex gets a dense int index (its position in the sorted
+ * array of OSM ids), coordinates live in parallel primitive arrays, and adjacency is
+ * stored in compressed sparse row (CSR) form: the neighbours of vertex i are
+ * <code>targets[offsets[i]]</code> up to (but excluding) <code>targets[offsets[i + 1]]</code>,
+ * with the length of each edge in the matching slot of <code>weights</code>.
+ * <p>
+ * The arrays are exposed package-private so that search code can walk them directly;
+ * nothing may modify them after construction. OSM ids are translated to indices through
+ * a LongIntMap, once, where a request enters the graph; everything behind that works on
+ * indices only.
+ */
+public class CompactGraph {
+    final long[] ids;
+    final double[] lons;
+    final double[] lats;
+    final int[] offsets;
+    final int[] targets;
+    final double[] weights;
+    private final LongIntMap index;
+
+    /**
+     * Takes ownership of the given arrays. ids must be sorted in ascending order, and the
+     * neighbour list of every vertex must already be in CSR form. Edge weights are computed
+     * from the coordinates.
+     */
+    CompactGraph(long[] ids, double[] lons, double[] lats, int[] offsets, int[] targets) {
+        this(ids, lons, lats, offsets, targets, new double[targets.length]);
+        for (int v = 0; v < ids.length; v += 1) {
+            for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                weights[e] = distance(v, targets[e]);
+            }
+        }
+    }
+
+    /**
+     * Same as above, with precomputed edge weights.
+     */
+    CompactGraph(long[] ids, double[] lons, double[] lats, int[] offsets, int[] targets,
+                 double[] weights) {
+        this.ids = ids;
+        this.lons = lons;
+        this.lats = lats;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.index = new LongIntMap(ids.length, -1);
+        for (int v = 0; v < ids.length; v += 1) {
+            index.put(ids[v], v);
+        }
+    }
+
+    /**
+     * Number of vertices.
+     */
+    int size() {
+        return ids.length;
+    }
+
+    /**
+     * Number of directed edge slots; every road segment is stored once in each direction.
+     */
+    int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Returns a hash of the vertex ids and the adjacency structure, used to check that
+     * data precomputed for a graph (and saved to disk) still belongs to it.
+     */
+    long fingerprint() {
+        long h = 1125899906842597L;
+        for (long id : ids) {
+            h = 31 * h + id;
+        }
+        for (int o : offsets) {
+            h = 31 * h + o;
+        }
+        for (int t : targets) {
+            h = 31 * h + t;
+        }
+        return h;
+    }
+
+    /**
+     * Returns the dense index of the vertex with the given OSM id, or -1 if there is none.
+     */
+    int indexOf(long id) {
+        return index.get(id);
+    }
+
+    /**
+     * OSM id of the vertex at index v.
+     */
+    long id(int v) {
+        return ids[v];
+    }
+
+    double lon(int v) {
+        return lons[v];
+    }
+
+    double lat(int v) {
+        return lats[v];
+    }
+
+    /**
+     * Euclidean distance between the vertices at indices v and w, as in GraphDB.distance.
+     */
+    double distance(int v, int w) {
+        return distance(lons[v], lats[v], lons[w], lats[w]);
+    }
+
+    /**
+     * Euclidean distance between the vertex at index v and an arbitrary point.
+     */
+    double distance(int v, double lon, double lat) {
+        return distance(lons[v], lats[v], lon, lat);
+    }
+
+    static double distance(double lonV, double latV, double lonW, double latW) {
+        double dLon = lonV - lonW;
+        double dLat = latV - latW;
+        return Math.sqrt(dLon * dLon + dLat * dLat);
+    }
+}
@@ -0,0 +1,127 @@
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * This class provides a main method for measuring how long /raster takes to put together
+ * the image of a grid of tiles, against the number of tiles. For square grids of growing
+ * size it compares reading and drawing the tiles one by one on one thread with the
+ * TileCompositor, both with an empty tile cache and with all tiles cached, and prints
+ * the median time of several runs of each. TileCompositorTest checks that the two give
+ * the same pixels.
+ * Usage: <code>CompositeBenchmark [tile directory] [largest grid side]</code>. Without
+ * a tile directory, it makes up random tiles in a temporary one.
+ */
+public class CompositeBenchmark {
+    private static final int DEFAULT_MAX_SIDE = 8;
+    private static final int RUNS = 9;
+    private static final int DEPTH = 7;
+    private static final long CACHE_BYTES = 1L << 30;
+
+    private interface Composite {
+        BufferedImage run(String[][] grid) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int maxSide = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_MAX_SIDE;
+        String dir = args.length > 0 ? args[0] : makeTiles(maxSide);
+        int threads = Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Tiles from " + dir + ", " + threads + " threads, median of "
+                + RUNS + " runs.");
+        System.out.printf("%6s %14s %14s %14s%n", "tiles", "sequential", "parallel",
+                "cached");
+        for (int side = 1; side <= maxSide; side += 1) {
+            String[][] grid = grid(dir, side);
+            double sequential = time(grid, CompositeBenchmark::sequential);
+            double cold = time(grid, g -> {
+                try (TileCompositor c = new TileCompositor(new TileCache(CACHE_BYTES),
+                        MapServer.TILE_SIZE, threads)) {
+                    return c.composite(g);
+                }
+            });
+            try (TileCompositor warm = new TileCompositor(new TileCache(CACHE_BYTES),
+                    MapServer.TILE_SIZE, threads)) {
+                warm.composite(grid);
+                double cached = time(grid, warm::composite);
+                System.out.printf("%6d %11.2f ms %11.2f ms %11.2f ms%n", side * side,
+                        sequential, cold, cached);
+            }
+        }
+    }
+
+    /**
+     * The grid of side by side tiles in the upper left corner of the map at DEPTH.
+     */
+    private static String[][] grid(String dir, int side) {
+        String[][] grid = new String[side][side];
+        for (int r = 0; r < side; r += 1) {
+            for (int c = 0; c < side; c += 1) {
+                grid[r][c] = dir + "/" + TileNames.name(DEPTH, c, r) + ".png";
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Puts the tiles together the way /raster used to, reading and drawing one at a time.
+     */
+    private static BufferedImage sequential(String[][] grid) throws IOException {
+        int size = MapServer.TILE_SIZE;
+        BufferedImage img = new BufferedImage(grid[0].length * size, grid.length * size,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics graphic = img.getGraphics();
+        for (int r = 0; r < grid.length; r += 1) {
+            for (int c = 0; c < grid[0].length; c += 1) {
+                graphic.drawImage(ImageIO.read(new File(grid[r][c])), c * size, r * size,
+                        null);
+            }
+        }
+        return img;
+    }
+
+    private static double time(String[][] grid, Composite composite) throws IOException {
+        double[] millis = new double[RUNS];
+        for (int i = 0; i < RUNS; i += 1) {
+            long begin = System.nanoTime();
+            composite.run(grid);
+            millis[i] = (System.nanoTime() - begin) / 1e6;
+        }
+        Arrays.sort(millis);
+        return millis[RUNS / 2];
+    }
+
+    /**
+     * Writes random tiles, some with a palette and some without, for the largest grid into
+     * a new temporary directory and returns its path.
+     */
+    private static String makeTiles(int maxSide) throws IOException {
+        File dir = Files.createTempDirectory("tiles").toFile();
+        dir.deleteOnExit();
+        Random random = new Random(18);
+        int size = MapServer.TILE_SIZE;
+        for (int r = 0; r < maxSide; r += 1) {
+            for (int c = 0; c < maxSide; c += 1) {
+                int type = (r + c) % 2 == 0 ? BufferedImage.TYPE_3BYTE_BGR
+                        : BufferedImage.TYPE_BYTE_INDEXED;
+                BufferedImage tile = new BufferedImage(size, size, type);
+                int base = random.nextInt(0x1000000);
+                for (int y = 0; y < size; y += 1) {
+                    for (int x = 0; x < size; x += 1) {
+                        int noise = random.nextInt(4) == 0 ? random.nextInt(0x1000000) : 0;
+                        tile.setRGB(x, y, base + x * 0x10101 + y * 0x100 ^ noise);
+                    }
+                }
+                File f = new File(dir, TileNames.name(DEPTH, c, r) + ".png");
+                ImageIO.write(tile, "png", f);
+                f.deleteOnExit();
+            }
+        }
+        return dir.getPath();
+    }
+}
@@ -0,0 +1,533 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedList;
+
+/**
+ * Contraction Hierarchy over a CompactGraph, for answering long shortest path queries
+ * while settling only a few hundred vertices.
+ * <p>
+ * Preprocessing contracts the vertices one at a time, cheapest first by edge difference
+ * plus the number of already contracted neighbours. Contracting v adds a shortcut
+ * between two of its remaining neighbours whenever a bounded witness search cannot find
+ * a path between them that avoids v and is no longer than the one through v. The rank
+ * of a vertex is the order in which it was contracted.
+ * <p>
+ * The result is stored as an "upward" graph in CSR form: the edges of vertex v are the
+ * original edges and shortcuts to neighbours of higher rank. A shortcut remembers the
+ * vertex it bypasses and the two upward edges (out of that vertex) it replaces, so
+ * paths can be unpacked back into original road segments. Since roads are undirected,
+ * the same upward graph serves both the forward and the backward query.
+ */
+public class ContractionHierarchy {
+    private static final int MAGIC = 0x43484831;
+    private static final int VERSION = 1;
+    /**
+     * Witness searches give up after settling this many vertices. Giving up early only
+     * ever adds unnecessary shortcuts, never wrong ones.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 64;
+
+    private final CompactGraph g;
+    private final int[] offsets;
+    private final int[] targets;
+    private final double[] weights;
+    private final int[] middle;
+    private final int[] childA;
+    private final int[] childB;
+
+    private ContractionHierarchy(CompactGraph g, int[] offsets, int[] targets,
+                                 double[] weights, int[] middle, int[] childA, int[] childB) {
+        this.g = g;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middle = middle;
+        this.childA = childA;
+        this.childB = childB;
+    }
+
+    /**
+     * Number of edges in the upward graph, original edges and shortcuts together.
+     */
+    public int edgeCount() {
+        return targets.length;
+    }
+
+    /**
+     * Contracts every vertex of g and returns the resulting hierarchy.
+     */
+    public static ContractionHierarchy build(CompactGraph g) {
+        return new Builder(g).build();
+    }
+
+    /**
+     * Mutable graph that vertices are contracted out of. Every edge, original or
+     * shortcut, has an id into the parallel edge arrays and is listed in the incidence
+     * lists of both of its endpoints. There is at most one edge between two vertices.
+     */
+    private static class Builder {
+        private final CompactGraph g;
+        private final int n;
+        private int[][] incident;
+        private int[] degree;
+
+        private int edges;
+        private int[] from = new int[16];
+        private int[] to = new int[16];
+        private double[] weight = new double[16];
+        private int[] mid = new int[16];
+        private int[] partA = new int[16];
+        private int[] partB = new int[16];
+
+        private final boolean[] contracted;
+        private final int[] contractedNeighbours;
+        private final int[] rank;
+        private final SearchContext witness = new SearchContext();
+
+        /* Scratch space for one contraction: neighbours, their edges, and new shortcuts. */
+        private int[] nbr = new int[16];
+        private int[] nbrEdge = new int[16];
+        private int neighbourCount;
+        private int shortcutCount;
+        private int[] scFrom = new int[16];
+        private int[] scTo = new int[16];
+        private double[] scWeight = new double[16];
+
+        private Builder(CompactGraph g) {
+            this.g = g;
+            n = g.size();
+            incident = new int[n][];
+            degree = new int[n];
+            for (int v = 0; v < n; v += 1) {
+                incident[v] = new int[g.offsets[v + 1] - g.offsets[v] + 2];
+            }
+            contracted = new boolean[n];
+            contractedNeighbours = new int[n];
+            rank = new int[n];
+            for (int v = 0; v < n; v += 1) {
+                for (int e = g.offsets[v]; e < g.offsets[v + 1]; e += 1) {
+                    if (v < g.targets[e]) {
+                        addEdge(v, g.targets[e], g.weights[e], -1, -1, -1);
+                    }
+                }
+            }
+        }
+
+        private int other(int e, int v) {
+            return from[e] == v ? to[e] : from[e];
+        }
+
+        private void addEdge(int u, int w, double wt, int m, int a, int b) {
+            if (edges == from.length) {
+                int cap = edges * 2;
+                from = Arrays.copyOf(from, cap);
+                to = Arrays.copyOf(to, cap);
+                weight = Arrays.copyOf(weight, cap);
+                mid = Arrays.copyOf(mid, cap);
+                partA = Arrays.copyOf(partA, cap);
+                partB = Arrays.copyOf(partB, cap);
+            }
+            from[edges] = u;
+            to[edges] = w;
+            weight[edges] = wt;
+            mid[edges] = m;
+            partA[edges] = a;
+            partB[edges] = b;
+            attach(u, edges);
+            attach(w, edges);
+            edges += 1;
+        }
+
+        private void attach(int v, int e) {
+            if (degree[v] == incident[v].length) {
+                incident[v] = Arrays.copyOf(incident[v], degree[v] * 2 + 2);
+            }
+            incident[v][degree[v]] = e;
+            degree[v] += 1;
+        }
+
+        /**
+         * Adds the shortcut u - w through m, or shortens the existing edge between them.
+         */
+        private void addShortcut(int u, int w, double wt, int m) {
+            int a = findEdge(m, u);
+            int b = findEdge(m, w);
+            int existing = findEdge(u, w);
+            if (existing < 0) {
+                addEdge(u, w, wt, m, a, b);
+            } else if (wt < weight[existing]) {
+                weight[existing] = wt;
+                mid[existing] = m;
+                partA[existing] = a;
+                partB[existing] = b;
+            }
+        }
+
+        private int findEdge(int u, int w) {
+            for (int i = 0; i < degree[u]; i += 1) {
+                int e = incident[u][i];
+                if (other(e, u) == w) {
+                    return e;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Collects the uncontracted neighbours of v and the shortcuts contracting v would
+         * need into the scratch arrays.
+         */
+        private void simulate(int v) {
+            int k = 0;
+            double maxWeight = 0;
+            for (int i = 0; i < degree[v]; i += 1) {
+                int e = incident[v][i];
+                int u = other(e, v);
+                if (contracted[u]) {
+                    continue;
+                }
+                if (k == nbr.length) {
+                    nbr = Arrays.copyOf(nbr, k * 2);
+                    nbrEdge = Arrays.copyOf(nbrEdge, k * 2);
+                }
+                nbr[k] = u;
+                nbrEdge[k] = e;
+                maxWeight = Math.max(maxWeight, weight[e]);
+                k += 1;
+            }
+
+            shortcutCount = 0;
+            for (int i = 0; i < k - 1; i += 1) {
+                int u = nbr[i];
+                double viaV = weight[nbrEdge[i]];
+                witnessSearch(u, v, viaV + maxWeight);
+                for (int j = i + 1; j < k; j += 1) {
+                    int w = nbr[j];
+                    double through = viaV + weight[nbrEdge[j]];
+                    if (!witness.isReached(w) || witness.dist(w) > through) {
+                        addScratchShortcut(u, w, through);
+                    }
+                }
+            }
+            neighbourCount = k;
+        }
+
+        private void addScratchShortcut(int u, int w, double wt) {
+            if (shortcutCount == scFrom.length) {
+                scFrom = Arrays.copyOf(scFrom, shortcutCount * 2);
+                scTo = Arrays.copyOf(scTo, shortcutCount * 2);
+                scWeight = Arrays.copyOf(scWeight, shortcutCount * 2);
+            }
+            scFrom[shortcutCount] = u;
+            scTo[shortcutCount] = w;
+            scWeight[shortcutCount] = wt;
+            shortcutCount += 1;
+        }
+
+        /**
+         * Dijkstra from source over uncontracted vertices other than skip, up to distance
+         * limit or WITNESS_SETTLE_LIMIT settled vertices, whichever comes first.
+         */
+        private void witnessSearch(int source, int skip, double limit) {
+            witness.reset(n);
+            witness.relax(source, -1, 0, 0);
+            while (!witness.heap.isEmpty() && witness.heap.minKey() <= limit
+                    && witness.settledCount() < WITNESS_SETTLE_LIMIT) {
+                int x = witness.settleNext();
+                double dx = witness.dist(x);
+                for (int i = 0; i < degree[x]; i += 1) {
+                    int e = incident[x][i];
+                    int y = other(e, x);
+                    if (y == skip || contracted[y] || witness.isSettled(y)) {
+                        continue;
+                    }
+                    double dy = dx + weight[e];
+                    witness.relax(y, x, dy, dy);
+                }
+            }
+        }
+
+        private double priority(int v) {
+            simulate(v);
+            return shortcutCount - neighbourCount + contractedNeighbours[v];
+        }
+
+        private ContractionHierarchy build() {
+            IndexedMinHeap queue = new IndexedMinHeap(n);
+            for (int v = 0; v < n; v += 1) {
+                queue.push(v, priority(v));
+            }
+            int nextRank = 0;
+            while (!queue.isEmpty()) {
+                int v = queue.pop();
+                /* Priorities go stale as the graph changes; re-check lazily before contracting.
+                 * This also leaves the shortcuts v needs in the scratch arrays. */
+                double p = priority(v);
+                if (!queue.isEmpty() && p > queue.minKey()) {
+                    queue.push(v, p);
+                    continue;
+                }
+                int neighbours = neighbourCount;
+                for (int i = 0; i < shortcutCount; i += 1) {
+                    addShortcut(scFrom[i], scTo[i], scWeight[i], v);
+                }
+                contracted[v] = true;
+                rank[v] = nextRank;
+                nextRank += 1;
+                int[] touched = Arrays.copyOf(nbr, neighbours);
+                for (int u : touched) {
+                    contractedNeighbours[u] += 1;
+                    queue.update(u, priority(u));
+                }
+            }
+            return toUpwardGraph();
+        }
+
+        private ContractionHierarchy toUpwardGraph() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v += 1) {
+                int up = 0;
+                for (int i = 0; i < degree[v]; i += 1) {
+                    if (rank[other(incident[v][i], v)] > rank[v]) {
+                        up += 1;
+                    }
+                }
+                offsets[v + 1] = offsets[v] + up;
+            }
+            int m = offsets[n];
+            int[] position = new int[edges];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middle = new int[m];
+            int[] next = Arrays.copyOf(offsets, n);
+            for (int e = 0; e < edges; e += 1) {
+                int low = rank[from[e]] < rank[to[e]] ? from[e] : to[e];
+                int pos = next[low];
+                next[low] += 1;
+                position[e] = pos;
+                targets[pos] = other(e, low);
+                weights[pos] = weight[e];
+                middle[pos] = mid[e];
+            }
+            int[] childA = new int[m];
+            int[] childB = new int[m];
+            for (int e = 0; e < edges; e += 1) {
+                childA[position[e]] = mid[e] < 0 ? -1 : position[partA[e]];
+                childB[position[e]] = mid[e] < 0 ? -1 : position[partB[e]];
+            }
+            return new ContractionHierarchy(g, offsets, targets, weights, middle,
+                    childA, childB);
+        }
+    }
+
+    /**
+     * Finds the shortest path between the vertices at indices s and t with a
+     * bidirectional upward search, and returns it unpacked into OSM ids, both ends
+     * included. Returns an empty list if there is no path. forward and backward hold the
+     * search state of the two directions.
+     */
+    LinkedList<Long> shortestPath(int s, int t, SearchContext forward,
+                                  SearchContext backward) {
+        int meet = search(s, t, forward, backward);
+        LinkedList<Long> path = new LinkedList<>();
+        if (meet < 0) {
+            return path;
+        }
+        path.add(g.id(s));
+        LinkedList<Integer> up = new LinkedList<>();
+        for (int v = meet; v >= 0; v = forward.parent(v)) {
+            up.addFirst(v);
+        }
+        for (int v = backward.parent(meet); v >= 0; v = backward.parent(v)) {
+            up.addLast(v);
+        }
+        int prev = up.removeFirst();
+        for (int v : up) {
+            unpack(prev, v, findUpEdge(prev, v), path);
+            prev = v;
+        }
+        return path;
+    }
+
+    /**
+     * Runs the bidirectional upward search and returns the vertex where the shortest
+     * path peaks, or -1 if t cannot be reached from s.
+     */
+    int search(int s, int t, SearchContext forward, SearchContext backward) {
+        int n = g.size();
+        forward.reset(n);
+        backward.reset(n);
+        forward.relax(s, -1, 0, 0);
+        backward.relax(t, -1, 0, 0);
+        double best = Double.POSITIVE_INFINITY;
+        int meet = -1;
+        while (true) {
+            double minF = forward.heap.minKey();
+            double minB = backward.heap.minKey();
+            if (Math.min(minF, minB) >= best) {
+                break;
+            }
+            SearchContext ctx = minF <= minB ? forward : backward;
+            SearchContext otherCtx = ctx == forward ? backward : forward;
+            int v = ctx.settleNext();
+            double dv = ctx.dist(v);
+            if (otherCtx.isReached(v) && dv + otherCtx.dist(v) < best) {
+                best = dv + otherCtx.dist(v);
+                meet = v;
+            }
+            for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                int w = targets[e];
+                double dw = dv + weights[e];
+                ctx.relax(w, v, dw, dw);
+            }
+        }
+        return meet;
+    }
+
+    /**
+     * Receives the vertices settled by upwardSearch, with their distances.
+     */
+    interface UpwardVisitor {
+        void visit(int v, double dist);
+    }
+
+    /**
+     * Runs an upward search from s to exhaustion, and passes every vertex it settles to
+     * visitor. The distances are upper bounds on the true ones, but exact at the highest
+     * vertex of any shortest path from s, which is what many-to-many searches (see
+     * DistanceMatrix) rely on.
+     */
+    void upwardSearch(int s, SearchContext ctx, UpwardVisitor visitor) {
+        ctx.reset(g.size());
+        ctx.relax(s, -1, 0, 0);
+        while (!ctx.heap.isEmpty()) {
+            int v = ctx.settleNext();
+            double dv = ctx.dist(v);
+            visitor.visit(v, dv);
+            for (int e = offsets[v]; e < offsets[v + 1]; e += 1) {
+                int w = targets[e];
+                if (!ctx.isSettled(w)) {
+                    double dw = dv + weights[e];
+                    ctx.relax(w, v, dw, dw);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the upward edge between u and w, in whichever direction
+     * it points.
+     */
+    private int findUpEdge(int u, int w) {
+        int best = -1;
+        for (int e = offsets[u]; e < offsets[u + 1]; e += 1) {
+            if (targets[e] == w && (best < 0 || weights[e] < weights[best])) {
+                best = e;
+            }
+        }
+        for (int e = offsets[w]; e < offsets[w + 1]; e += 1) {
+            if (targets[e] == u && (best < 0 || weights[e] < weights[best])) {
+                best = e;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Appends the original vertices of upward edge e, walking it from vertex a to vertex
+     * b, to path. a itself is not appended.
+     */
+    private void unpack(int a, int b, int e, LinkedList<Long> path) {
+        int m = middle[e];
+        if (m < 0) {
+            path.add(g.id(b));
+            return;
+        }
+        int toA = targets[childA[e]] == a ? childA[e] : childB[e];
+        int toB = toA == childA[e] ? childB[e] : childA[e];
+        unpack(a, m, toA, path);
+        unpack(m, b, toB, path);
+    }
+
+    /**
+     * Writes the hierarchy to file, tagged with the fingerprint of its graph.
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(g.fingerprint());
+            out.writeInt(g.size());
+            out.writeInt(targets.length);
+            for (int o : offsets) {
+                out.writeInt(o);
+            }
+            for (int e = 0; e < targets.length; e += 1) {
+                out.writeInt(targets[e]);
+                out.writeDouble(weights[e]);
+                out.writeInt(middle[e]);
+                out.writeInt(childA[e]);
+                out.writeInt(childB[e]);
+            }
+        }
+    }
+
+    /**
+     * Reads a hierarchy written by save() for the graph g. Returns null if the file is
+     * missing, has the wrong format version or was built for a different graph.
+     */
+    public static ContractionHierarchy load(File file, CompactGraph g) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != g.fingerprint() || in.readInt() != g.size()) {
+                return null;
+            }
+            int m = in.readInt();
+            int[] offsets = new int[g.size() + 1];
+            for (int v = 0; v < offsets.length; v += 1) {
+                offsets[v] = in.readInt();
+            }
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            int[] middle = new int[m];
+            int[] childA = new int[m];
+            int[] childB = new int[m];
+            for (int e = 0; e < m; e += 1) {
+                targets[e] = in.readInt();
+                weights[e] = in.readDouble();
+                middle[e] = in.readInt();
+                childA[e] = in.readInt();
+                childB[e] = in.readInt();
+            }
+            return new ContractionHierarchy(g, offsets, targets, weights, middle,
+                    childA, childB);
+        }
+    }
+
+    /**
+     * Offline build step: parses the OSM file given as the first argument, contracts its
+     * road graph and saves the hierarchy next to it, where GraphDB will pick it up.
+     */
+    public static void main(String[] args) throws IOException {
+        String dbPath = args.length > 0 ? args[0] : "berkeley.osm";
+        GraphDB g = new GraphDB(dbPath);
+        long start = System.currentTimeMillis();
+        ContractionHierarchy ch = build(g.compact());
+        System.out.println("Contracted " + g.compact().size() + " vertices into "
+                + ch.edgeCount() + " upward edges in "
+                + (System.currentTimeMillis() - start) + " ms.");
+        ch.save(GraphDB.hierarchyFile(dbPath));
+    }
+}
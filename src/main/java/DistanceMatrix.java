@@ -0,0 +1,195 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Computes tables of network distances between many sources and many targets at once,
+ * for clients that would otherwise route every pair separately. Entry [i][j] of a table
+ * is the length of the shortest path from sources[i] to targets[j], or positive infinity
+ * if there is none; sources and targets are vertex indices of a CompactGraph.
+ * <p>
+ * There are two ways of filling a table, both parallel across sources on a ForkJoinPool:
+ * <ul>
+ * <li>byDijkstra runs one Dijkstra search per source, which stops as soon as it has
+ * settled every target, so a table costs about as much as one search per row rather
+ * than one per entry.</li>
+ * <li>byHierarchy uses the graph's contraction hierarchy: an upward search from every
+ * target leaves its distances in buckets at the vertices it settles, and an upward
+ * search from every source then combines its own distances with the buckets it passes.
+ * Each search settles only a few hundred vertices, so this is much faster once the
+ * hierarchy has been built.</li>
+ * </ul>
+ * Search state is kept per thread and reused, as in Router.
+ */
+public class DistanceMatrix {
+    private static final ThreadLocal<SearchContext> CONTEXTS =
+            ThreadLocal.withInitial(SearchContext::new);
+
+    /**
+     * Fills the table with one early-stopping Dijkstra search per source.
+     */
+    static double[][] byDijkstra(CompactGraph g, int[] sources, int[] targets,
+                                 ForkJoinPool pool) {
+        boolean[] isTarget = new boolean[g.size()];
+        int distinctTargets = 0;
+        for (int t : targets) {
+            if (t >= 0 && !isTarget[t]) {
+                isTarget[t] = true;
+                distinctTargets += 1;
+            }
+        }
+        int remainingTargets = distinctTargets;
+        double[][] table = new double[sources.length][];
+        forEach(pool, sources.length, i -> {
+            double[] row = new double[targets.length];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            table[i] = row;
+            if (sources[i] < 0) {
+                return;
+            }
+            SearchContext ctx = CONTEXTS.get();
+            search(g, sources[i], isTarget, remainingTargets, ctx);
+            for (int j = 0; j < targets.length; j += 1) {
+                if (targets[j] >= 0 && ctx.isSettled(targets[j])) {
+                    row[j] = ctx.dist(targets[j]);
+                }
+            }
+        });
+        return table;
+    }
+
+    /**
+     * Dijkstra from start until remaining vertices marked in isTarget are settled, or
+     * there is nothing left to settle.
+     */
+    private static void search(CompactGraph g, int start, boolean[] isTarget, int remaining,
+                               SearchContext ctx) {
+        ctx.reset(g.size());
+        ctx.relax(start, -1, 0, 0);
+        while (remaining > 0 && !ctx.heap.isEmpty()) {
+            int v = ctx.settleNext();
+            if (isTarget[v]) {
+                remaining -= 1;
+            }
+            double dv = ctx.dist(v);
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e += 1) {
+                int w = g.targets[e];
+                if (!ctx.isSettled(w)) {
+                    double dw = dv + g.weights[e];
+                    ctx.relax(w, v, dw, dw);
+                }
+            }
+        }
+    }
+
+    /**
+     * Fills the table with bucket-based many-to-many searches over the hierarchy ch of g.
+     */
+    static double[][] byHierarchy(CompactGraph g, ContractionHierarchy ch, int[] sources,
+                                  int[] targets, ForkJoinPool pool) {
+        /* The upward search space of every target, as parallel vertex and distance lists. */
+        int[][] spaceVertices = new int[targets.length][];
+        double[][] spaceDists = new double[targets.length][];
+        forEach(pool, targets.length, j -> {
+            if (targets[j] < 0) {
+                spaceVertices[j] = new int[0];
+                spaceDists[j] = new double[0];
+                return;
+            }
+            int[][] vertices = {new int[64]};
+            double[][] dists = {new double[64]};
+            int[] count = {0};
+            ch.upwardSearch(targets[j], CONTEXTS.get(), (v, d) -> {
+                if (count[0] == vertices[0].length) {
+                    vertices[0] = Arrays.copyOf(vertices[0], 2 * count[0]);
+                    dists[0] = Arrays.copyOf(dists[0], 2 * count[0]);
+                }
+                vertices[0][count[0]] = v;
+                dists[0][count[0]] = d;
+                count[0] += 1;
+            });
+            spaceVertices[j] = Arrays.copyOf(vertices[0], count[0]);
+            spaceDists[j] = Arrays.copyOf(dists[0], count[0]);
+        });
+
+        /* Buckets in CSR form: the entries at vertex v are at bucketStart[v] up to
+         * bucketStart[v + 1], each a target column and its distance up to v. */
+        int n = g.size();
+        int[] bucketStart = new int[n + 1];
+        for (int[] space : spaceVertices) {
+            for (int v : space) {
+                bucketStart[v + 1] += 1;
+            }
+        }
+        for (int v = 0; v < n; v += 1) {
+            bucketStart[v + 1] += bucketStart[v];
+        }
+        int[] next = Arrays.copyOf(bucketStart, n);
+        int[] bucketColumn = new int[bucketStart[n]];
+        double[] bucketDist = new double[bucketStart[n]];
+        for (int j = 0; j < targets.length; j += 1) {
+            for (int k = 0; k < spaceVertices[j].length; k += 1) {
+                int slot = next[spaceVertices[j][k]]++;
+                bucketColumn[slot] = j;
+                bucketDist[slot] = spaceDists[j][k];
+            }
+        }
+
+        double[][] table = new double[sources.length][];
+        forEach(pool, sources.length, i -> {
+            double[] row = new double[targets.length];
+            Arrays.fill(row, Double.POSITIVE_INFINITY);
+            table[i] = row;
+            if (sources[i] < 0) {
+                return;
+            }
+            ch.upwardSearch(sources[i], CONTEXTS.get(), (v, d) -> {
+                for (int b = bucketStart[v]; b < bucketStart[v + 1]; b += 1) {
+                    double through = d + bucketDist[b];
+                    if (through < row[bucketColumn[b]]) {
+                        row[bucketColumn[b]] = through;
+                    }
+                }
+            });
+        });
+        return table;
+    }
+
+    /**
+     * Calls action with every index from 0 to count - 1 on pool, and waits for all of
+     * them to finish.
+     */
+    private static void forEach(ForkJoinPool pool, int count, IntConsumer action) {
+        if (count > 0) {
+            pool.invoke(new Range(0, count, action));
+        }
+    }
+
+    /**
+     * Runs an action on a range of indices, splitting it in halves down to single indices.
+     */
+    private static class Range extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        Range(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                action.accept(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new Range(from, middle, action), new Range(middle, to, action));
+        }
+    }
+}
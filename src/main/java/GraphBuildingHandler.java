@@ -33,17 +33,15 @@ public class GraphBuildingHandler extends DefaultHandler {
      * roads, but in practice we walk all over them with such impunity that we forget cars can
      * actually drive on them.
      */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
+    static final Set<String> ALLOWED_HIGHWAY_TYPES = new HashSet<>(Arrays.asList
             ("motorway", "trunk", "primary", "secondary", "tertiary", "unclassified",
                     "residential", "living_street", "motorway_link", "trunk_link", "primary_link",
                     "secondary_link", "tertiary_link"));
     private String activeState = "";
     private final GraphDB g;
-    private HashSet<String> inputPlaces;
 
     public GraphBuildingHandler(GraphDB g) {
         this.g = g;
-        inputPlaces = new HashSet<>();
     }
 
     /**
@@ -131,13 +129,7 @@ public class GraphBuildingHandler extends DefaultHandler {
 
             String name = attributes.getValue("v");
 
-            g.addToPlaces(name, id, lon, lat);
-
-
-            if (!inputPlaces.contains(name)) {
-                g.t.addNode(name, 1, g.t.root);
-                inputPlaces.add(name);
-            }
+            g.addLocation(name, id, lon, lat);
 
         }
     }
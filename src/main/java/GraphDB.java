@@ -26,10 +26,13 @@ public class GraphDB {
      *
      * @param dbPath Path to the XML file to be parsed.
      */
-    Trie t;
-
     HashMap<String, LinkedList<Map<String, Object>>> places = new HashMap<>();
 
+    /**
+     * Autocomplete index over the keys of places, built once all places are known.
+     */
+    PlaceIndex placeIndex;
+
     public void addToPlaces(String name, long id, double lon, double lat) {
 
         HashMap<String, Object> h = new HashMap<>();
@@ -55,130 +58,155 @@ public class GraphDB {
         return places.get(name);
     }
 
+    /**
+     * Loads the graph for the OSM file at dbPath, which is read as OSM PBF if its name ends
+     * in .pbf and as OSM XML otherwise. If a binary snapshot of it that is still up to date
+     * exists (see GraphSnapshot), the graph is mapped in from there; otherwise the file is
+     * parsed and a new snapshot is written for the next start.
+     */
     public GraphDB(String dbPath) {
-        t = new Trie();
-        try {
-            File inputFile = new File(dbPath);
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            GraphBuildingHandler gbh = new GraphBuildingHandler(this);
-            saxParser.parse(inputFile, gbh);
-        } catch (ParserConfigurationException | SAXException | IOException e) {
-            e.printStackTrace();
-        }
-        clean();
+        this(dbPath, BuildMode.TWO_PASS);
     }
 
-    private class TrieNode implements Comparable<TrieNode> {
-        String placeName = "";
-        HashMap<String, TrieNode> children = new HashMap<>();
-        LinkedList<String> legitChildren = new LinkedList();
-
-        private TrieNode(String placeName) {
-            this.placeName = placeName;
-        }
+    /**
+     * How the OSM file is read when the graph has to be built from it.
+     */
+    public enum BuildMode {
+        /**
+         * Read the file once, keeping every node until clean() drops those without edges.
+         */
+        SINGLE_PASS,
+        /**
+         * First collect the ids of the nodes on allowed highways, then read the file again
+         * and only keep those nodes. Most nodes of a real extract are not on roads, so this
+         * keeps far fewer of them in memory at once.
+         */
+        TWO_PASS
+    }
 
-        @Override
-        public int compareTo(TrieNode o) {
-            if (this.placeName.compareTo(o.placeName) > 0) {
-                return 1;
-            } else if (this.placeName.compareTo(o.placeName) < 0) {
-                return -1;
-            } else {
-                return 0;
+    /**
+     * Same as above, reading the OSM file as mode says if there is no usable snapshot. The
+     * SAX fallback for unusual XML always reads in a single pass.
+     */
+    public GraphDB(String dbPath, BuildMode mode) {
+        this.dbPath = dbPath;
+        File inputFile = new File(dbPath);
+        File snapshot = snapshotFile(dbPath);
+        try {
+            if (GraphSnapshot.read(this, snapshot, inputFile)) {
+                return;
             }
+        } catch (IOException e) {
+            e.printStackTrace();
         }
 
-        @Override
-        public boolean equals(Object y) {
-            if (y == null) {
-                return false;
-            }
-            if (y == this) {
-                return true;
-            }
-            if (y.getClass() != this.getClass()) {
-                return false;
-            }
-            TrieNode trieNode = (TrieNode) y;
-            return this.placeName.equals((trieNode).placeName);
+        /* A file that cannot be parsed still gives a graph, an empty one, that the server
+         * can answer requests on; it is just not worth a snapshot. */
+        boolean parsed = parse(inputFile, mode == BuildMode.TWO_PASS);
+        if (!parsed) {
+            resetBuild();
         }
-
-        @Override
-        public int hashCode() {
-            return placeName.hashCode();
+        clean();
+        freeze();
+        placeIndex = PlaceIndex.build(places);
+        if (!parsed) {
+            return;
         }
-    }
-
-
-    public class Trie {
-        TrieNode root = new TrieNode("root");
-
-        public Trie() {
+        try {
+            GraphSnapshot.write(this, snapshot, inputFile);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        public void addNode(String placeToAdd, int upToChar, TrieNode parent) {
-            String cleanPlaceToAdd = cleanString(placeToAdd);
-
-
-            if (cleanPlaceToAdd.length() == 0) {
-                return;
-            }
-
-            String curSub = cleanPlaceToAdd.substring(0, upToChar);
-
+    /**
+     * Fills the builder state of a GraphDB from an OSM file.
+     */
+    interface OsmParser {
+        void parse(File inputFile, GraphDB g) throws Exception;
+    }
 
-            TrieNode toAdd = new TrieNode(curSub);
+    /**
+     * Builds the graph of inputFile with parser alone: no snapshot is read or written, and
+     * there is no fallback if parser fails. Lets tests compare the OSM readers.
+     */
+    GraphDB(File inputFile, OsmParser parser) throws Exception {
+        this.dbPath = inputFile.getPath();
+        resetBuild();
+        parser.parse(inputFile, this);
+        clean();
+        freeze();
+        placeIndex = PlaceIndex.build(places);
+    }
 
-            if (upToChar == cleanPlaceToAdd.length()) {
-                if (parent.children != null) {
-                    parent.legitChildren.add(placeToAdd);
-                } else {
-                    toAdd = new TrieNode(curSub);
-                    parent.children.put(curSub, toAdd);
-                    parent.legitChildren.add(placeToAdd);
-                }
-                return;
-            } else if (!parent.children.containsKey(curSub)) {
-                parent.children.put(curSub, toAdd);
-                addNode(placeToAdd, upToChar + 1, toAdd);
-            } else {
-                addNode(placeToAdd, upToChar + 1, parent.children.get(curSub));
+    /**
+     * Fills the builder state from inputFile. Returns false, after printing the error, if
+     * the file could not be parsed.
+     */
+    private boolean parse(File inputFile, boolean twoPass) {
+        resetBuild();
+        if (inputFile.getName().endsWith(".pbf")) {
+            try {
+                OsmPbfReader.read(inputFile, this, twoPass);
+                return true;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
             }
         }
-    }
-
-
-    public LinkedList<String> getAllLegitChildren(String prefix, TrieNode t) {
-
-        if (t.children.size() == 0) {
-            return new LinkedList<>();
+        try {
+            OsmXmlReader.read(inputFile, this, twoPass);
+            return true;
+        } catch (IOException e) {
+            /* The streaming reader only handles the XML that OSM exports contain; let the
+             * full SAX parser deal with anything else. */
+            resetBuild();
         }
-        LinkedList<String> r = new LinkedList<>();
+        try {
+            readSax(inputFile, this);
+            return true;
+        } catch (ParserConfigurationException | SAXException | IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
 
-        for (TrieNode curNode : t.children.values()) {
+    /**
+     * Fills the builder state of g from the OSM XML file inputFile with a SAX parser and
+     * GraphBuildingHandler, in a single pass.
+     */
+    static void readSax(File inputFile, GraphDB g)
+            throws ParserConfigurationException, SAXException, IOException {
+        SAXParserFactory factory = SAXParserFactory.newInstance();
+        SAXParser saxParser = factory.newSAXParser();
+        GraphBuildingHandler gbh = new GraphBuildingHandler(g);
+        saxParser.parse(inputFile, gbh);
+    }
 
-            String currentPlaceName = curNode.placeName;
+    /**
+     * Where the binary snapshot of the OSM file at dbPath is saved.
+     */
+    static File snapshotFile(String dbPath) {
+        return new File(dbPath + ".snapshot");
+    }
 
-            //placeName size <= prefix size
-            if (currentPlaceName.length() <= prefix.length()) {
-                if (prefix.startsWith(currentPlaceName)) {
-                    if (currentPlaceName.length() == prefix.length()) {
-                        r.addAll(curNode.legitChildren);
-                    }
-                    r.addAll(getAllLegitChildren(prefix, curNode));
-                    break;
-                }
-            }
-            //Prefix size > placeName size
-            else {
-                r.addAll(curNode.legitChildren);
-                r.addAll(getAllLegitChildren(prefix, curNode));
-            }
-        }
-        return r;
+    /**
+     * Discards everything added by a partial parse, so that the graph can be built again
+     * from scratch.
+     */
+    private void resetBuild() {
+        nodes = new HashMap<>();
+        currentWay.clear();
+        validWay = false;
+        places.clear();
     }
 
+    /**
+     * Records a named OSM node as a place that can be searched for.
+     */
+    void addLocation(String name, long id, double lon, double lat) {
+        addToPlaces(name, id, lon, lat);
+    }
 
     /**
      * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
@@ -206,30 +234,186 @@ public class GraphDB {
         }
     }
 
+    /**
+     * Freezes the cleaned graph into its compact CSR form and indexes the vertex
+     * coordinates in a k-d tree, so that closest() does not have to scan the whole graph.
+     * The per-node build structures are dropped afterwards.
+     */
+    private void freeze() {
+        int n = nodes.size();
+        long[] ids = new long[n];
+        int i = 0;
+        for (long id : nodes.keySet()) {
+            ids[i] = id;
+            i += 1;
+        }
+        Arrays.sort(ids);
+
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        int[] offsets = new int[n + 1];
+        for (i = 0; i < n; i += 1) {
+            Node node = nodes.get(ids[i]);
+            lons[i] = node.lon;
+            lats[i] = node.lat;
+            offsets[i + 1] = offsets[i] + node.adjacentNodes.size();
+        }
+        int[] targets = new int[offsets[n]];
+        for (i = 0; i < n; i += 1) {
+            int e = offsets[i];
+            for (long w : nodes.get(ids[i]).adjacentNodes.keySet()) {
+                targets[e] = Arrays.binarySearch(ids, w);
+                e += 1;
+            }
+            Arrays.sort(targets, offsets[i], offsets[i + 1]);
+        }
+
+        install(new CompactGraph(ids, lons, lats, offsets, targets));
+    }
+
+    /**
+     * Makes c the graph all queries run on, indexes its vertex coordinates, and drops the
+     * per-node build structures.
+     */
+    void install(CompactGraph c) {
+        compact = c;
+        spatialIndex = new KdTree(c.lons, c.lats);
+        nodes = null;
+    }
+
+    /**
+     * Returns the frozen graph that all queries run on.
+     */
+    CompactGraph compact() {
+        return compact;
+    }
+
+    /**
+     * Where the landmark distance tables for the OSM file at dbPath are saved.
+     */
+    static File landmarksFile(String dbPath) {
+        return new File(dbPath + ".landmarks");
+    }
+
+    /**
+     * Returns the ALT landmarks of this graph, loading them from next to the OSM file or
+     * computing and saving them on first use, and locking only then, like hierarchy().
+     */
+    Landmarks landmarks() {
+        Landmarks result = landmarks;
+        if (result == null) {
+            synchronized (this) {
+                result = landmarks;
+                if (result == null) {
+                    result = loadOrBuildLandmarks();
+                    landmarks = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private Landmarks loadOrBuildLandmarks() {
+        File file = landmarksFile(dbPath);
+        try {
+            Landmarks loaded = Landmarks.load(file, compact, LANDMARK_COUNT);
+            if (loaded != null) {
+                return loaded;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Landmarks built = Landmarks.build(compact, LANDMARK_COUNT);
+        try {
+            built.save(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return built;
+    }
+
+    /**
+     * Where the contraction hierarchy for the OSM file at dbPath is saved.
+     */
+    static File hierarchyFile(String dbPath) {
+        return new File(dbPath + ".ch");
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph. On first use it is loaded from
+     * next to the OSM file if a matching one was saved there (see
+     * ContractionHierarchy.main), and otherwise built and saved. Only that first call
+     * takes a lock; calls made while it runs wait for its result.
+     */
+    ContractionHierarchy hierarchy() {
+        ContractionHierarchy result = hierarchy;
+        if (result == null) {
+            synchronized (this) {
+                result = hierarchy;
+                if (result == null) {
+                    result = loadOrBuildHierarchy();
+                    hierarchy = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    private ContractionHierarchy loadOrBuildHierarchy() {
+        File file = hierarchyFile(dbPath);
+        try {
+            ContractionHierarchy loaded = ContractionHierarchy.load(file, compact);
+            if (loaded != null) {
+                return loaded;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        ContractionHierarchy built = ContractionHierarchy.build(compact);
+        try {
+            built.save(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return built;
+    }
+
     /**
      * Returns an iterable of all vertex IDs in the graph.
      */
     Iterable<Long> vertices() {
-        ArrayList<Long> vertexIds = new ArrayList<>();
-        for (long key : nodes.keySet()) {
-            long k = key;
-            vertexIds.add(k);
+        ArrayList<Long> vertexIds = new ArrayList<>(compact.size());
+        for (long id : compact.ids) {
+            vertexIds.add(id);
         }
-
         return vertexIds;
     }
 
     /**
-     * Returns ids of all vertices adjacent to v.
+     * Returns ids of all vertices adjacent to v. The result is a view over the compact
+     * adjacency arrays rather than a copy.
      */
     Iterable<Long> adjacent(long v) {
-        Node n = nodes.get(v);
-        ArrayList<Long> adjacentVertices = new ArrayList<>();
-        for (long key : n.adjacentNodes.keySet()) {
-            long k = key;
-            adjacentVertices.add(k);
-        }
-        return adjacentVertices;
+        int i = compact.indexOf(v);
+        final int from = compact.offsets[i];
+        final int to = compact.offsets[i + 1];
+        return () -> new Iterator<Long>() {
+            private int e = from;
+
+            @Override
+            public boolean hasNext() {
+                return e < to;
+            }
+
+            @Override
+            public Long next() {
+                if (e >= to) {
+                    throw new NoSuchElementException();
+                }
+                e += 1;
+                return compact.ids[compact.targets[e - 1]];
+            }
+        };
     }
 
     /**
@@ -237,58 +421,61 @@ public class GraphDB {
      * is defined as sqrt( (lonV - lonW)^2 + (latV - latW)^2 ).
      */
     double distance(long v, long w) {
+        return compact.distance(compact.indexOf(v), compact.indexOf(w));
+    }
 
-        Node n1 = nodes.get(v);
-        Node n2 = nodes.get(w);
+    /**
+     * Returns the vertex id closest to the given longitude and latitude.
+     */
+    long closest(double lon, double lat) {
+        int i = spatialIndex.nearest(lon, lat);
+        return i < 0 ? 0 : compact.ids[i];
+    }
 
-        double lonV = lon(v);
-        double lonW = lon(w);
-        double latV = lat(v);
-        double latW = lat(w);
-        double r = Math.sqrt(Math.pow((lonV - lonW), 2.0) + Math.pow(latV - latW, 2.0));
+    /**
+     * Returns the index in the compact graph of the vertex closest to the given longitude
+     * and latitude, or -1 if the graph is empty.
+     */
+    int closestIndex(double lon, double lat) {
+        return spatialIndex.nearest(lon, lat);
+    }
 
-        return r;
+    /**
+     * Returns the ids of the k vertices closest to the given longitude and latitude,
+     * nearest first.
+     */
+    long[] closest(double lon, double lat, int k) {
+        return toIds(spatialIndex.nearest(lon, lat, k));
     }
 
     /**
-     * Returns the vertex id closest to the given longitude and latitude.
+     * Returns the ids of all vertices within radius (in the units of distance()) of the
+     * given longitude and latitude, in no particular order.
      */
-    long closest(double lon, double lat) {
-        Node goal = new Node(0, lon, lat, "");
-        nodes.put((long) 0, goal);
-        long closestNodeId = 0;
-        double closestDistance = Double.MAX_VALUE;
-
-        for (long key : nodes.keySet()) {
-            long keyLong = key;
-            if (keyLong != 0) {
-                double d = distance(0, keyLong);
-                if (d < closestDistance) {
-                    closestDistance = d;
-                    closestNodeId = keyLong;
-                }
-            }
+    long[] withinRadius(double lon, double lat, double radius) {
+        return toIds(spatialIndex.withinRadius(lon, lat, radius));
+    }
+
+    private long[] toIds(int[] indices) {
+        long[] r = new long[indices.length];
+        for (int i = 0; i < indices.length; i += 1) {
+            r[i] = compact.ids[indices[i]];
         }
-        nodes.remove(goal);
-        return closestNodeId;
+        return r;
     }
 
     /**
      * Longitude of vertex v.
      */
     double lon(long v) {
-        Node n = nodes.get(v);
-        double lon = n.lon;
-        return lon;
+        return compact.lons[compact.indexOf(v)];
     }
 
     /**
      * Latitude of vertex v.
      */
     double lat(long v) {
-        Node n = nodes.get(v);
-        double lat = n.lat;
-        return lat;
+        return compact.lats[compact.indexOf(v)];
     }
 
     private class Node {
@@ -310,36 +497,40 @@ public class GraphDB {
     }
 
     public ArrayList<Long> getAdjacentNodeIds(long id) {
-        Node n = nodes.get(id);
         ArrayList<Long> r = new ArrayList<>();
-        for (Long key : n.adjacentNodes.keySet()) {
-            r.add(key);
+        for (long w : adjacent(id)) {
+            r.add(w);
         }
         return r;
     }
 
     public double getNodeLat(long id) {
-        if (nodes.containsKey(id)) {
-            Node n = nodes.get(id);
-            return n.lat;
-        } else {
-            return 0.0;
-        }
+        int v = compact.indexOf(id);
+        return v < 0 ? 0.0 : compact.lats[v];
     }
 
     public double getNodeLon(long id) {
-        if (nodes.containsKey(id)) {
-            Node n = nodes.get(id);
-            return n.lon;
-        } else {
-            return 0.0;
-        }
+        int v = compact.indexOf(id);
+        return v < 0 ? 0.0 : compact.lons[v];
     }
 
     ArrayList<Long> currentWay = new ArrayList<>();
 
     HashMap<Long, Node> nodes = new HashMap<>();
 
+    private final String dbPath;
+    private CompactGraph compact;
+    private KdTree spatialIndex;
+    /* Set once, on first use; volatile so that hierarchy() and landmarks() need no lock
+     * afterwards. */
+    private volatile ContractionHierarchy hierarchy;
+    private volatile Landmarks landmarks;
+
+    /**
+     * Number of landmarks used by the ALT heuristic.
+     */
+    static final int LANDMARK_COUNT = 12;
+
     public void addNode(long id, double lon, double lat) {
         Node n = new Node(id, lon, lat, "");
         nodes.put(id, n);
@@ -357,6 +548,10 @@ public class GraphDB {
         currentWay.add(longId);
     }
 
+    public void addToCurrentWay(long id) {
+        currentWay.add(id);
+    }
+
     public void addCurrentWay() {
         for (int i = 0; i < currentWay.size() - 1; i++) {
             Node n1 = nodes.get(currentWay.get(i));
@@ -0,0 +1,188 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Versioned binary snapshot of a parsed GraphDB, so that the server can start without
+ * parsing the OSM XML again. The file starts with a fixed header:
+ * <pre>
+ *   int magic, int version,
+ *   long source file mtime, long source file length,
+ *   long payload length, long CRC32 of the payload
+ * </pre>
+ * followed by the payload, all big-endian:
+ * <pre>
+ *   int n, int m,
+ *   long[n] ids, double[n] lons, double[n] lats,
+ *   int[n + 1] offsets, int[m] targets, double[m] weights,
+ *   int place count, then per place: name (int length + UTF-8 bytes), long id,
+ *   double lon, double lat,
+ *   the PlaceIndex, as written by PlaceIndex.write
+ * </pre>
+ * Places are written grouped by cleaned name, in the order they were parsed.
+ * <p>
+ * Snapshots are read through a memory-mapped FileChannel. A snapshot is only used if
+ * its version, checksum, and the mtime and length of the source file all match;
+ * otherwise GraphDB falls back to parsing the XML and writes a fresh one.
+ */
+public class GraphSnapshot {
+    private static final int MAGIC = 0x424d4753;
+    private static final int VERSION = 2;
+    private static final int HEADER_BYTES = 4 + 4 + 8 + 8 + 8 + 8;
+
+    /**
+     * Writes a snapshot of g, which was parsed from source. The snapshot is written to a
+     * temporary file first and then moved into place, so a concurrent reader never sees
+     * a half-written one.
+     */
+    static void write(GraphDB g, File snapshot, File source) throws IOException {
+        File tmp = new File(snapshot.getPath() + ".tmp");
+        CompactGraph c = g.compact();
+        try (RandomAccessFile raf = new RandomAccessFile(tmp, "rw")) {
+            raf.setLength(0);
+            raf.seek(HEADER_BYTES);
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(raf.getChannel()), crc),
+                    1 << 16));
+            int n = c.size();
+            int m = c.edgeCount();
+            out.writeInt(n);
+            out.writeInt(m);
+            for (long id : c.ids) {
+                out.writeLong(id);
+            }
+            for (double lon : c.lons) {
+                out.writeDouble(lon);
+            }
+            for (double lat : c.lats) {
+                out.writeDouble(lat);
+            }
+            for (int o : c.offsets) {
+                out.writeInt(o);
+            }
+            for (int t : c.targets) {
+                out.writeInt(t);
+            }
+            for (double w : c.weights) {
+                out.writeDouble(w);
+            }
+
+            int placeCount = 0;
+            for (LinkedList<Map<String, Object>> sameName : g.places.values()) {
+                placeCount += sameName.size();
+            }
+            out.writeInt(placeCount);
+            for (LinkedList<Map<String, Object>> sameName : g.places.values()) {
+                for (Map<String, Object> place : sameName) {
+                    byte[] name = ((String) place.get("name")).getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(name.length);
+                    out.write(name);
+                    out.writeLong((Long) place.get("id"));
+                    out.writeDouble((Double) place.get("lon"));
+                    out.writeDouble((Double) place.get("lat"));
+                }
+            }
+            g.placeIndex.write(out);
+            out.flush();
+
+            raf.seek(0);
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeLong(source.lastModified());
+            raf.writeLong(source.length());
+            raf.writeLong(raf.length() - HEADER_BYTES);
+            raf.writeLong(crc.getValue());
+        }
+        Files.move(tmp.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Loads the snapshot into g if it exists and matches source. Returns false, leaving g
+     * untouched, if the snapshot is missing, stale, of another version or corrupt.
+     */
+    static boolean read(GraphDB g, File snapshot, File source) throws IOException {
+        if (!snapshot.isFile() || !source.isFile()) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(snapshot.toPath(),
+                StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_BYTES) {
+                return false;
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            if (buf.getInt() != MAGIC || buf.getInt() != VERSION
+                    || buf.getLong() != source.lastModified()
+                    || buf.getLong() != source.length()
+                    || buf.getLong() != channel.size() - HEADER_BYTES) {
+                return false;
+            }
+            long expectedCrc = buf.getLong();
+            CRC32 crc = new CRC32();
+            crc.update(buf.duplicate());
+            if (crc.getValue() != expectedCrc) {
+                return false;
+            }
+
+            int n = buf.getInt();
+            int m = buf.getInt();
+            long[] ids = new long[n];
+            double[] lons = new double[n];
+            double[] lats = new double[n];
+            int[] offsets = new int[n + 1];
+            int[] targets = new int[m];
+            double[] weights = new double[m];
+            buf.asLongBuffer().get(ids);
+            skip(buf, 8L * n);
+            buf.asDoubleBuffer().get(lons);
+            skip(buf, 8L * n);
+            buf.asDoubleBuffer().get(lats);
+            skip(buf, 8L * n);
+            buf.asIntBuffer().get(offsets);
+            skip(buf, 4L * (n + 1));
+            buf.asIntBuffer().get(targets);
+            skip(buf, 4L * m);
+            buf.asDoubleBuffer().get(weights);
+            skip(buf, 8L * m);
+
+            int placeCount = buf.getInt();
+            byte[] name = new byte[64];
+            for (int i = 0; i < placeCount; i += 1) {
+                int length = buf.getInt();
+                if (length > name.length) {
+                    name = new byte[Math.max(length, name.length * 2)];
+                }
+                buf.get(name, 0, length);
+                String placeName = new String(name, 0, length, StandardCharsets.UTF_8);
+                long id = buf.getLong();
+                double lon = buf.getDouble();
+                double lat = buf.getDouble();
+                g.addLocation(placeName, id, lon, lat);
+            }
+            g.placeIndex = PlaceIndex.read(buf);
+
+            g.install(new CompactGraph(ids, lons, lats, offsets, targets, weights));
+            return true;
+        }
+    }
+
+    private static void skip(ByteBuffer buf, long bytes) {
+        buf.position(buf.position() + (int) bytes);
+    }
+}
@@ -0,0 +1,13 @@
+/**
+ * A lower bound on the network distance between two vertices of a CompactGraph, used
+ * by Router's A* to decide which vertex to settle next. Implementations must never
+ * overestimate, and must be consistent (h(v) <= weight(v, w) + h(w) for every edge),
+ * for A* to return shortest paths.
+ */
+public interface Heuristic {
+    /**
+     * Returns a lower bound on the distance from the vertex at index v to the vertex at
+     * index target.
+     */
+    double estimate(int v, int target);
+}
@@ -0,0 +1,160 @@
+import java.util.Arrays;
+
+/**
+ * A binary min-heap over the int vertex indices 0 .. capacity - 1, keyed by doubles.
+ * Each vertex can be in the heap at most once; pushing a vertex that is already
+ * present lowers its key in place (decrease-key) instead of adding a duplicate. The
+ * heap never allocates after construction unless it has to grow.
+ */
+public class IndexedMinHeap {
+    private int[] heap;
+    private int[] pos;
+    private double[] keys;
+    private int size;
+
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        pos = new int[capacity];
+        keys = new double[capacity];
+        Arrays.fill(pos, -1);
+    }
+
+    /**
+     * Makes room for vertex indices up to capacity - 1.
+     */
+    public void ensureCapacity(int capacity) {
+        if (capacity <= pos.length) {
+            return;
+        }
+        int old = pos.length;
+        heap = Arrays.copyOf(heap, capacity);
+        pos = Arrays.copyOf(pos, capacity);
+        keys = Arrays.copyOf(keys, capacity);
+        Arrays.fill(pos, old, capacity, -1);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(int v) {
+        return pos[v] >= 0;
+    }
+
+    /**
+     * Key of v, which must currently be in the heap.
+     */
+    public double key(int v) {
+        return keys[v];
+    }
+
+    /**
+     * Vertex with the smallest key. The heap must not be empty.
+     */
+    public int peek() {
+        return heap[0];
+    }
+
+    /**
+     * Smallest key in the heap, or positive infinity if it is empty.
+     */
+    public double minKey() {
+        return size == 0 ? Double.POSITIVE_INFINITY : keys[heap[0]];
+    }
+
+    /**
+     * Inserts v with the given key, or lowers its key if v is already in the heap with a
+     * larger one. Returns false (and changes nothing) if v is present with a key that is
+     * not larger.
+     */
+    public boolean push(int v, double key) {
+        int i = pos[v];
+        if (i < 0) {
+            i = size;
+            size += 1;
+        } else if (key >= keys[v]) {
+            return false;
+        }
+        keys[v] = key;
+        siftUp(v, i);
+        return true;
+    }
+
+    /**
+     * Inserts v with the given key, or moves it to the given key (up or down) if v is
+     * already in the heap.
+     */
+    public void update(int v, double key) {
+        int i = pos[v];
+        if (i < 0 || key < keys[v]) {
+            push(v, key);
+        } else {
+            keys[v] = key;
+            siftDown(v, i);
+        }
+    }
+
+    /**
+     * Removes and returns the vertex with the smallest key. The heap must not be empty.
+     */
+    public int pop() {
+        int min = heap[0];
+        pos[min] = -1;
+        size -= 1;
+        if (size > 0) {
+            siftDown(heap[size], 0);
+        }
+        return min;
+    }
+
+    /**
+     * Empties the heap in time proportional to its current size.
+     */
+    public void clear() {
+        for (int i = 0; i < size; i += 1) {
+            pos[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    private void siftUp(int v, int i) {
+        double key = keys[v];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            int p = heap[parent];
+            if (keys[p] <= key) {
+                break;
+            }
+            heap[i] = p;
+            pos[p] = i;
+            i = parent;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+
+    private void siftDown(int v, int i) {
+        double key = keys[v];
+        int half = size >>> 1;
+        while (i < half) {
+            int child = 2 * i + 1;
+            int c = heap[child];
+            if (child + 1 < size && keys[heap[child + 1]] < keys[c]) {
+                child += 1;
+                c = heap[child];
+            }
+            if (key <= keys[c]) {
+                break;
+            }
+            heap[i] = c;
+            pos[c] = i;
+            i = child;
+        }
+        heap[i] = v;
+        pos[v] = i;
+    }
+}
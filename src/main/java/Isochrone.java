@@ -0,0 +1,108 @@
+import java.util.Arrays;
+
+/**
+ * Finds the part of the road graph within a given network distance of a vertex, for
+ * questions like "what can be reached within X of here". The search is Dijkstra cut off
+ * at the distance, run in a SearchContext, so it settles every reachable vertex once and
+ * scans each of their edges once, and goes no further.
+ */
+public class Isochrone {
+    private static final ThreadLocal<SearchContext> CONTEXTS =
+            ThreadLocal.withInitial(SearchContext::new);
+
+    /**
+     * Returns the indices of the vertices of g whose network distance from start is at
+     * most maxDistance, in order of distance, start first.
+     */
+    static int[] reachable(CompactGraph g, int start, double maxDistance) {
+        return reachable(g, start, maxDistance, CONTEXTS.get());
+    }
+
+    /**
+     * Same as reachable(g, start, maxDistance), run in the caller's own search state.
+     * Afterwards ctx holds the distance of every returned vertex.
+     */
+    static int[] reachable(CompactGraph g, int start, double maxDistance,
+                           SearchContext ctx) {
+        ctx.reset(g.size());
+        int[] reached = new int[16];
+        int count = 0;
+        ctx.relax(start, -1, 0, 0);
+        while (!ctx.heap.isEmpty()) {
+            int v = ctx.settleNext();
+            if (count == reached.length) {
+                reached = Arrays.copyOf(reached, 2 * count);
+            }
+            reached[count] = v;
+            count += 1;
+            double dv = ctx.dist(v);
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e += 1) {
+                int w = g.targets[e];
+                double dw = dv + g.weights[e];
+                if (dw <= maxDistance && !ctx.isSettled(w)) {
+                    ctx.relax(w, v, dw, dw);
+                }
+            }
+        }
+        return Arrays.copyOf(reached, count);
+    }
+
+    /**
+     * Returns the convex hull of the given vertices of g, as {lon, lat} pairs in
+     * counterclockwise order (with latitude pointing up), without repeating the first
+     * point at the end. Fewer than three distinct points are returned as they are.
+     */
+    static double[][] convexHull(CompactGraph g, int[] vertices) {
+        Integer[] sorted = new Integer[vertices.length];
+        for (int i = 0; i < vertices.length; i += 1) {
+            sorted[i] = vertices[i];
+        }
+        Arrays.sort(sorted, (v, w) -> g.lon(v) != g.lon(w)
+                ? Double.compare(g.lon(v), g.lon(w)) : Double.compare(g.lat(v), g.lat(w)));
+
+        /* Andrew's monotone chain: the lower hull left to right, then the upper hull
+         * right to left, dropping points that do not make a left turn. */
+        int[] hull = new int[2 * sorted.length + 1];
+        int size = 0;
+        for (int i = 0; i < sorted.length; i += 1) {
+            size = addToHull(g, hull, size, 0, sorted[i]);
+        }
+        int lowerSize = size;
+        for (int i = sorted.length - 2; i >= 0; i -= 1) {
+            size = addToHull(g, hull, size, lowerSize - 1, sorted[i]);
+        }
+        if (size > 1) {
+            /* The last point is the first one again. */
+            size -= 1;
+        }
+        double[][] points = new double[size][];
+        for (int i = 0; i < size; i += 1) {
+            points[i] = new double[]{g.lon(hull[i]), g.lat(hull[i])};
+        }
+        return points;
+    }
+
+    /**
+     * Pushes v onto the hull of the given size, after popping the points above floor
+     * that v makes a right turn (or no turn) with. Returns the new size.
+     */
+    private static int addToHull(CompactGraph g, int[] hull, int size, int floor, int v) {
+        while (size >= floor + 2 && cross(g, hull[size - 2], hull[size - 1], v) <= 0) {
+            size -= 1;
+        }
+        if (size > 0 && g.lon(hull[size - 1]) == g.lon(v)
+                && g.lat(hull[size - 1]) == g.lat(v)) {
+            return size;
+        }
+        hull[size] = v;
+        return size + 1;
+    }
+
+    /**
+     * Cross product of the vectors a->b and a->c; positive if a, b, c turn left.
+     */
+    private static double cross(CompactGraph g, int a, int b, int c) {
+        return (g.lon(b) - g.lon(a)) * (g.lat(c) - g.lat(a))
+                - (g.lat(b) - g.lat(a)) * (g.lon(c) - g.lon(a));
+    }
+}
@@ -0,0 +1,254 @@
+import java.util.Arrays;
+
+/**
+ * A static 2-d tree over a fixed set of points, used to snap arbitrary coordinates to
+ * the nearest vertex of the road graph. The tree is implicit: points are reordered so
+ * that the median of every range [lo, hi) sits at its midpoint, alternating between
+ * the x (longitude) and y (latitude) axes at each level. No node objects are allocated.
+ * <p>
+ * All queries return positions in the arrays the tree was built from, and measure the
+ * same Euclidean distance in coordinate space that <code>GraphDB.distance</code> uses.
+ */
+public class KdTree {
+    private final double[] xs;
+    private final double[] ys;
+    private final int[] items;
+
+    /**
+     * Builds a tree over the points (x[i], y[i]). The input arrays are not modified.
+     *
+     * @param x x coordinate (longitude) of each point.
+     * @param y y coordinate (latitude) of each point.
+     */
+    public KdTree(double[] x, double[] y) {
+        int n = x.length;
+        items = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            items[i] = i;
+        }
+        build(x, y, 0, n, true);
+        xs = new double[n];
+        ys = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            xs[i] = x[items[i]];
+            ys[i] = y[items[i]];
+        }
+    }
+
+    /**
+     * Number of points in the tree.
+     */
+    public int size() {
+        return items.length;
+    }
+
+    private void build(double[] x, double[] y, int lo, int hi, boolean vertical) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(vertical ? x : y, lo, hi - 1, mid);
+        build(x, y, lo, mid, !vertical);
+        build(x, y, mid + 1, hi, !vertical);
+    }
+
+    /**
+     * Quickselect over items[lo..hi] so that items[k] holds the k-th smallest key.
+     */
+    private void select(double[] key, int lo, int hi, int k) {
+        while (hi > lo) {
+            double pivot = key[items[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key[items[i]] < pivot) {
+                    i += 1;
+                }
+                while (key[items[j]] > pivot) {
+                    j -= 1;
+                }
+                if (i <= j) {
+                    int tmp = items[i];
+                    items[i] = items[j];
+                    items[j] = tmp;
+                    i += 1;
+                    j -= 1;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private double distSq(int pos, double x, double y) {
+        double dx = xs[pos] - x;
+        double dy = ys[pos] - y;
+        return dx * dx + dy * dy;
+    }
+
+    /**
+     * Returns the index of the point closest to (x, y), or -1 if the tree is empty.
+     */
+    public int nearest(double x, double y) {
+        if (items.length == 0) {
+            return -1;
+        }
+        double[] best = {Double.MAX_VALUE, -1};
+        nearest(x, y, 0, items.length, true, best);
+        return items[(int) best[1]];
+    }
+
+    private void nearest(double x, double y, int lo, int hi, boolean vertical, double[] best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double d = distSq(mid, x, y);
+        if (d < best[0]) {
+            best[0] = d;
+            best[1] = mid;
+        }
+        double diff = vertical ? x - xs[mid] : y - ys[mid];
+        if (diff < 0) {
+            nearest(x, y, lo, mid, !vertical, best);
+            if (diff * diff < best[0]) {
+                nearest(x, y, mid + 1, hi, !vertical, best);
+            }
+        } else {
+            nearest(x, y, mid + 1, hi, !vertical, best);
+            if (diff * diff < best[0]) {
+                nearest(x, y, lo, mid, !vertical, best);
+            }
+        }
+    }
+
+    /**
+     * Returns the indices of the k points closest to (x, y), nearest first. Fewer than k
+     * indices are returned if the tree holds fewer than k points.
+     */
+    public int[] nearest(double x, double y, int k) {
+        KNearest heap = new KNearest(Math.min(k, items.length));
+        if (heap.capacity > 0) {
+            nearest(x, y, 0, items.length, true, heap);
+        }
+        return heap.sorted();
+    }
+
+    private void nearest(double x, double y, int lo, int hi, boolean vertical, KNearest heap) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        heap.offer(mid, distSq(mid, x, y));
+        double diff = vertical ? x - xs[mid] : y - ys[mid];
+        int nearLo = diff < 0 ? lo : mid + 1;
+        int nearHi = diff < 0 ? mid : hi;
+        int farLo = diff < 0 ? mid + 1 : lo;
+        int farHi = diff < 0 ? hi : mid;
+        nearest(x, y, nearLo, nearHi, !vertical, heap);
+        if (diff * diff < heap.bound()) {
+            nearest(x, y, farLo, farHi, !vertical, heap);
+        }
+    }
+
+    /**
+     * Returns the indices of every point within radius of (x, y), in no particular order.
+     */
+    public int[] withinRadius(double x, double y, double radius) {
+        int[][] out = {new int[16]};
+        int n = withinRadius(x, y, radius * radius, 0, items.length, true, out, 0);
+        return Arrays.copyOf(out[0], n);
+    }
+
+    private int withinRadius(double x, double y, double r2, int lo, int hi, boolean vertical,
+                             int[][] out, int n) {
+        if (lo >= hi) {
+            return n;
+        }
+        int mid = (lo + hi) >>> 1;
+        if (distSq(mid, x, y) <= r2) {
+            if (n == out[0].length) {
+                out[0] = Arrays.copyOf(out[0], n * 2);
+            }
+            out[0][n] = items[mid];
+            n += 1;
+        }
+        double diff = vertical ? x - xs[mid] : y - ys[mid];
+        if (diff <= 0 || diff * diff <= r2) {
+            n = withinRadius(x, y, r2, lo, mid, !vertical, out, n);
+        }
+        if (diff >= 0 || diff * diff <= r2) {
+            n = withinRadius(x, y, r2, mid + 1, hi, !vertical, out, n);
+        }
+        return n;
+    }
+
+    /**
+     * Bounded max-heap of tree positions keyed by squared distance.
+     */
+    private class KNearest {
+        private final int capacity;
+        private final int[] pos;
+        private final double[] dist;
+        private int size;
+
+        private KNearest(int capacity) {
+            this.capacity = capacity;
+            pos = new int[capacity];
+            dist = new double[capacity];
+        }
+
+        private double bound() {
+            return size < capacity ? Double.MAX_VALUE : dist[0];
+        }
+
+        private void offer(int p, double d) {
+            if (size < capacity) {
+                int i = size;
+                size += 1;
+                while (i > 0 && dist[(i - 1) / 2] < d) {
+                    pos[i] = pos[(i - 1) / 2];
+                    dist[i] = dist[(i - 1) / 2];
+                    i = (i - 1) / 2;
+                }
+                pos[i] = p;
+                dist[i] = d;
+            } else if (d < dist[0]) {
+                siftDown(p, d, size);
+            }
+        }
+
+        /** Replaces the root with (p, d) and restores heap order over the first n slots. */
+        private void siftDown(int p, double d, int n) {
+            int i = 0;
+            while (2 * i + 1 < n) {
+                int c = 2 * i + 1;
+                if (c + 1 < n && dist[c + 1] > dist[c]) {
+                    c += 1;
+                }
+                if (dist[c] <= d) {
+                    break;
+                }
+                pos[i] = pos[c];
+                dist[i] = dist[c];
+                i = c;
+            }
+            pos[i] = p;
+            dist[i] = d;
+        }
+
+        private int[] sorted() {
+            int[] r = new int[size];
+            for (int n = size - 1; n >= 0; n -= 1) {
+                r[n] = items[pos[0]];
+                siftDown(pos[n], dist[n], n);
+            }
+            return r;
+        }
+    }
+}
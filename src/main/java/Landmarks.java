@@ -0,0 +1,180 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * ALT (A*, landmarks and triangle inequality) heuristic. A handful of landmark vertices
+ * are chosen far apart from each other, and the network distance from every landmark
+ * to every vertex is precomputed. By the triangle inequality, for any landmark L,
+ * |d(L, t) - d(L, v)| is a lower bound on d(v, t); the heuristic is the largest such
+ * bound, or the straight-line distance if that is larger.
+ * <p>
+ * The distance table is vertex-major, so the distances of one vertex to all landmarks
+ * are next to each other in memory. Vertices a landmark cannot reach have an infinite
+ * distance and that landmark is skipped for them.
+ */
+public class Landmarks implements Heuristic {
+    private static final int MAGIC = 0x414c5431;
+    private static final int VERSION = 1;
+
+    private final CompactGraph g;
+    private final int[] landmarks;
+    private final double[] dist;
+
+    private Landmarks(CompactGraph g, int[] landmarks, double[] dist) {
+        this.g = g;
+        this.landmarks = landmarks;
+        this.dist = dist;
+    }
+
+    /**
+     * Indices of the landmark vertices, in the order they were chosen.
+     */
+    public int[] landmarks() {
+        return landmarks.clone();
+    }
+
+    /**
+     * Chooses count landmarks with the farthest-first strategy and computes their
+     * distance tables. The first landmark is the vertex farthest from vertex 0; each
+     * next one is the vertex whose distance to the nearest chosen landmark is largest.
+     */
+    public static Landmarks build(CompactGraph g, int count) {
+        int n = g.size();
+        count = Math.min(count, n);
+        int[] chosen = new int[count];
+        double[] dist = new double[n * count];
+        double[] nearest = new double[n];
+        SearchContext ctx = new SearchContext();
+        if (count == 0) {
+            return new Landmarks(g, chosen, dist);
+        }
+
+        dijkstra(g, 0, ctx);
+        int next = farthest(ctx, n);
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        for (int l = 0; l < count; l += 1) {
+            chosen[l] = next;
+            dijkstra(g, next, ctx);
+            int best = -1;
+            for (int v = 0; v < n; v += 1) {
+                double d = ctx.isReached(v) ? ctx.dist(v) : Double.POSITIVE_INFINITY;
+                dist[v * count + l] = d;
+                nearest[v] = Math.min(nearest[v], d);
+                if (best < 0 || nearest[v] > nearest[best]) {
+                    best = v;
+                }
+            }
+            next = best;
+        }
+        return new Landmarks(g, chosen, dist);
+    }
+
+    private static void dijkstra(CompactGraph g, int source, SearchContext ctx) {
+        ctx.reset(g.size());
+        ctx.relax(source, -1, 0, 0);
+        while (!ctx.heap.isEmpty()) {
+            int v = ctx.settleNext();
+            double dv = ctx.dist(v);
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e += 1) {
+                int w = g.targets[e];
+                if (!ctx.isSettled(w)) {
+                    double dw = dv + g.weights[e];
+                    ctx.relax(w, v, dw, dw);
+                }
+            }
+        }
+    }
+
+    /**
+     * Vertex with the largest distance in the finished search in ctx, counting
+     * unreached vertices as infinitely far.
+     */
+    private static int farthest(SearchContext ctx, int n) {
+        int best = 0;
+        double bestDist = -1;
+        for (int v = 0; v < n; v += 1) {
+            double d = ctx.isReached(v) ? ctx.dist(v) : Double.POSITIVE_INFINITY;
+            if (d > bestDist) {
+                bestDist = d;
+                best = v;
+            }
+        }
+        return best;
+    }
+
+    @Override
+    public double estimate(int v, int target) {
+        int count = landmarks.length;
+        double h = g.distance(v, target);
+        int vi = v * count;
+        int ti = target * count;
+        for (int l = 0; l < count; l += 1) {
+            double dv = dist[vi + l];
+            double dt = dist[ti + l];
+            if (dv == Double.POSITIVE_INFINITY || dt == Double.POSITIVE_INFINITY) {
+                continue;
+            }
+            double bound = dt > dv ? dt - dv : dv - dt;
+            if (bound > h) {
+                h = bound;
+            }
+        }
+        return h;
+    }
+
+    /**
+     * Writes the landmarks and their distance tables to file, tagged with the fingerprint
+     * of the graph.
+     */
+    public void save(File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(g.fingerprint());
+            out.writeInt(g.size());
+            out.writeInt(landmarks.length);
+            for (int l : landmarks) {
+                out.writeInt(l);
+            }
+            for (double d : dist) {
+                out.writeDouble(d);
+            }
+        }
+    }
+
+    /**
+     * Reads landmarks written by save() for the graph g. Returns null if the file is
+     * missing, has the wrong format version, was built for a different graph or has a
+     * different number of landmarks than count.
+     */
+    public static Landmarks load(File file, CompactGraph g, int count) throws IOException {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != g.fingerprint() || in.readInt() != g.size()
+                    || in.readInt() != Math.min(count, g.size())) {
+                return null;
+            }
+            int[] landmarks = new int[Math.min(count, g.size())];
+            for (int l = 0; l < landmarks.length; l += 1) {
+                landmarks[l] = in.readInt();
+            }
+            double[] dist = new double[g.size() * landmarks.length];
+            for (int i = 0; i < dist.length; i += 1) {
+                dist[i] = in.readDouble();
+            }
+            return new Landmarks(g, landmarks, dist);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+import java.util.Arrays;
+
+/**
+ * Set of primitive longs, stored in a single open-addressing table with linear probing.
+ * Unlike a HashSet of Long it allocates nothing per element, which matters when it holds
+ * every node id of a regional extract.
+ * <p>
+ * Not thread-safe.
+ */
+public class LongHashSet {
+    /* Marks an empty slot; whether the set contains EMPTY itself is tracked separately. */
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private long[] table;
+    private int mask;
+    private int size;
+    private boolean containsEmpty;
+
+    public LongHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Creates a set that can hold expectedSize elements without growing.
+     */
+    public LongHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        table = new long[capacity];
+        Arrays.fill(table, EMPTY);
+        mask = capacity - 1;
+    }
+
+    /**
+     * Spreads the bits of key over the table index (Fibonacci hashing).
+     */
+    static int slot(long key, int mask) {
+        long h = key * 0x9e3779b97f4a7c15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean contains(long key) {
+        if (key == EMPTY) {
+            return containsEmpty;
+        }
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = table[i];
+            if (k == key) {
+                return true;
+            } else if (k == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Adds key to the set. Returns true if it was not in the set yet.
+     */
+    public boolean add(long key) {
+        if (key == EMPTY) {
+            if (containsEmpty) {
+                return false;
+            }
+            containsEmpty = true;
+            size += 1;
+            return true;
+        }
+        for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+            long k = table[i];
+            if (k == key) {
+                return false;
+            } else if (k == EMPTY) {
+                table[i] = key;
+                size += 1;
+                if (2 * size > table.length) {
+                    grow();
+                }
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Adds every element of other to this set.
+     */
+    public void addAll(LongHashSet other) {
+        if (other.containsEmpty) {
+            add(EMPTY);
+        }
+        for (long k : other.table) {
+            if (k != EMPTY) {
+                add(k);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] old = table;
+        allocate(old.length * 2);
+        for (long k : old) {
+            if (k != EMPTY) {
+                int i = slot(k, mask);
+                while (table[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = k;
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/**
+ * Map from primitive long keys to int values, stored in two parallel open-addressing
+ * arrays with linear probing, like LongHashSet. Lookups neither box the key nor follow
+ * any pointers. Used to translate OSM ids into dense vertex indices.
+ * <p>
+ * Values may be any int; get() returns a caller-chosen default for missing keys. Not
+ * thread-safe for writes, but safe to read from many threads once filled.
+ */
+public class LongIntMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final int MIN_CAPACITY = 16;
+
+    private final int missing;
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean containsEmpty;
+    private int emptyValue;
+
+    /**
+     * Creates a map that can hold expectedSize entries without growing, and whose get()
+     * returns missing for keys that are not in it.
+     */
+    public LongIntMap(int expectedSize, int missing) {
+        this.missing = missing;
+        int capacity = MIN_CAPACITY;
+        while (capacity < 2L * expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        mask = capacity - 1;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the value of key, or the missing value given to the constructor.
+     */
+    public int get(long key) {
+        if (key == EMPTY) {
+            return containsEmpty ? emptyValue : missing;
+        }
+        for (int i = LongHashSet.slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return values[i];
+            } else if (k == EMPTY) {
+                return missing;
+            }
+        }
+    }
+
+    public boolean containsKey(long key) {
+        if (key == EMPTY) {
+            return containsEmpty;
+        }
+        for (int i = LongHashSet.slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                return true;
+            } else if (k == EMPTY) {
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Maps key to value, replacing any earlier value.
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            if (!containsEmpty) {
+                containsEmpty = true;
+                size += 1;
+            }
+            emptyValue = value;
+            return;
+        }
+        for (int i = LongHashSet.slot(key, mask); ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key) {
+                values[i] = value;
+                return;
+            } else if (k == EMPTY) {
+                keys[i] = key;
+                values[i] = value;
+                size += 1;
+                if (2 * size > keys.length) {
+                    grow();
+                }
+                return;
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(oldKeys.length * 2);
+        for (int j = 0; j < oldKeys.length; j += 1) {
+            long k = oldKeys[j];
+            if (k != EMPTY) {
+                int i = LongHashSet.slot(k, mask);
+                while (keys[i] != EMPTY) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = k;
+                values[i] = oldValues[j];
+            }
+        }
+    }
+}
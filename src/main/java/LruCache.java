@@ -0,0 +1,295 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Predicate;
+
+/**
+ * Thread-safe cache that holds values up to a total weight (usually their size in bytes)
+ * and evicts the least recently used ones beyond that. Loads through get(key, loader)
+ * are single-flight: if several threads miss on the same key at once, one of them runs
+ * the loader and the others wait for its result. Optionally, values also expire a fixed
+ * time after they were cached, and are then loaded again.
+ * <p>
+ * Hits, misses (loads actually run), coalesced loads, evictions and expirations are
+ * counted.
+ */
+public class LruCache<K, V> {
+    /**
+     * Weight of a cached value, counted against the capacity of the cache.
+     */
+    public interface Weigher<V> {
+        long weigh(V value);
+    }
+
+    /**
+     * Computes the value of a key that is not in the cache.
+     */
+    public interface Loader<K, V> {
+        V load(K key) throws IOException;
+    }
+
+    /**
+     * A cached value and the time it was cached at.
+     */
+    private static class Entry<V> {
+        final V value;
+        final long written;
+
+        Entry(V value, long written) {
+            this.value = value;
+            this.written = written;
+        }
+    }
+
+    private final long capacity;
+    private final Weigher<V> weigher;
+    private final long ttlNanos;
+    private final LongSupplier nanoTime;
+    /* Guarded by itself; iteration order is least recently used first. */
+    private final LinkedHashMap<K, Entry<V>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long weight;
+    private final ConcurrentHashMap<K, CompletableFuture<V>> loading =
+            new ConcurrentHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong expirations = new AtomicLong();
+
+    /**
+     * Creates a cache holding values of total weight up to capacity. A value heavier than
+     * capacity by itself is never cached.
+     */
+    public LruCache(long capacity, Weigher<V> weigher) {
+        this(capacity, weigher, 0);
+    }
+
+    /**
+     * Same as LruCache(capacity, weigher), but values expire ttlMillis after they were
+     * cached. They never expire if ttlMillis is 0 or less.
+     */
+    public LruCache(long capacity, Weigher<V> weigher, long ttlMillis) {
+        this(capacity, weigher, ttlMillis, System::nanoTime);
+    }
+
+    /**
+     * Same as LruCache(capacity, weigher, ttlMillis), telling time by nanoTime.
+     */
+    LruCache(long capacity, Weigher<V> weigher, long ttlMillis, LongSupplier nanoTime) {
+        this.capacity = capacity;
+        this.weigher = weigher;
+        this.ttlNanos = ttlMillis > 0 ? ttlMillis * 1_000_000 : 0;
+        this.nanoTime = nanoTime;
+    }
+
+    /**
+     * Returns the cached value of key, or null, without loading it.
+     */
+    public V getIfPresent(K key) {
+        V value = lookup(key);
+        if (value != null) {
+            hits.incrementAndGet();
+        }
+        return value;
+    }
+
+    /**
+     * Returns the cached value of key, or null, dropping it if it has expired.
+     */
+    private V lookup(K key) {
+        synchronized (entries) {
+            Entry<V> e = entries.get(key);
+            if (e == null) {
+                return null;
+            }
+            if (ttlNanos > 0 && nanoTime.getAsLong() - e.written >= ttlNanos) {
+                entries.remove(key);
+                weight -= weigher.weigh(e.value);
+                expirations.incrementAndGet();
+                return null;
+            }
+            return e.value;
+        }
+    }
+
+    /**
+     * Returns the value of key, loading and caching it with loader if it is not cached.
+     * A null result of the loader is returned but not cached. If another thread is
+     * already loading key, waits for that load instead of starting a second one.
+     */
+    public V get(K key, Loader<K, V> loader) throws IOException {
+        V value = getIfPresent(key);
+        if (value != null) {
+            return value;
+        }
+        CompletableFuture<V> mine = new CompletableFuture<>();
+        CompletableFuture<V> theirs = loading.putIfAbsent(key, mine);
+        if (theirs != null) {
+            coalesced.incrementAndGet();
+            return await(theirs);
+        }
+        try {
+            /* Another thread may have finished loading key just before we registered. */
+            value = lookup(key);
+            if (value == null) {
+                misses.incrementAndGet();
+                value = loader.load(key);
+                if (value != null) {
+                    put(key, value);
+                }
+            } else {
+                hits.incrementAndGet();
+            }
+            mine.complete(value);
+            return value;
+        } catch (IOException | RuntimeException | Error e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    private static <V> V await(CompletableFuture<V> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a load");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Caches value under key, replacing any earlier value, and evicts the least recently
+     * used values until the cache fits its capacity again.
+     */
+    public void put(K key, V value) {
+        long w = weigher.weigh(value);
+        synchronized (entries) {
+            Entry<V> old = entries.remove(key);
+            if (old != null) {
+                weight -= weigher.weigh(old.value);
+            }
+            if (w > capacity) {
+                return;
+            }
+            entries.put(key, new Entry<>(value, nanoTime.getAsLong()));
+            weight += w;
+            Iterator<Map.Entry<K, Entry<V>>> eldest = entries.entrySet().iterator();
+            while (weight > capacity && eldest.hasNext()) {
+                Map.Entry<K, Entry<V>> e = eldest.next();
+                weight -= weigher.weigh(e.getValue().value);
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            Entry<V> old = entries.remove(key);
+            if (old != null) {
+                weight -= weigher.weigh(old.value);
+            }
+        }
+    }
+
+    /**
+     * Removes all values whose keys match filter.
+     */
+    public void invalidateIf(Predicate<? super K> filter) {
+        synchronized (entries) {
+            Iterator<Map.Entry<K, Entry<V>>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<K, Entry<V>> e = it.next();
+                if (filter.test(e.getKey())) {
+                    weight -= weigher.weigh(e.getValue().value);
+                    it.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+            weight = 0;
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    /**
+     * Total weight of the cached values.
+     */
+    public long weight() {
+        synchronized (entries) {
+            return weight;
+        }
+    }
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    /**
+     * Number of gets that waited for a load another thread had already started.
+     */
+    public long coalesced() {
+        return coalesced.get();
+    }
+
+    public long evictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Number of values dropped because they had been cached for longer than the TTL.
+     */
+    public long expirations() {
+        return expirations.get();
+    }
+
+    /**
+     * Fraction of lookups that did not run a load of their own (hits and coalesced loads),
+     * or 0 before the first lookup.
+     */
+    public double hitRate() {
+        long saved = hits() + coalesced();
+        long total = saved + misses();
+        return total == 0 ? 0 : (double) saved / total;
+    }
+
+    @Override
+    public String toString() {
+        return "size " + size() + ", weight " + weight() + "/" + capacity + ", hits " + hits()
+                + ", misses " + misses() + ", coalesced " + coalesced() + ", evictions "
+                + evictions() + ", expirations " + expirations();
+    }
+}
@@ -4,14 +4,24 @@ import java.awt.BasicStroke;
 import java.awt.Color;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
 import java.awt.image.BufferedImage;
-import javax.imageio.ImageIO;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import java.io.IOException;
 
 
 /* Maven is used to pull in these dependencies. */
 import com.google.gson.Gson;
+import org.eclipse.jetty.server.HttpOutput;
 
 import static spark.Spark.*;
 
@@ -52,6 +62,11 @@ public class MapServer {
      * The tile images are in the IMG_ROOT folder.
      */
     private static final String IMG_ROOT = "img/";
+    /**
+     * The tiles packed into one file by TileArchive. If there is no such file, the tiles
+     * are read from IMG_ROOT.
+     */
+    private static final String TILE_ARCHIVE_PATH = "img.tiles";
     /**
      * The OSM XML file path. Downloaded from <a href="http://download.bbbike.org/osm/">here</a>
      * using custom region selection.
@@ -75,6 +90,12 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_ROUTE_REQUEST_PARAMS = {"start_lat", "start_lon",
             "end_lat", "end_lon"};
+    /**
+     * Each isochrone request has the point to measure from, lon and lat, and the largest
+     * network distance to go from it, distance, in the units of the map.
+     */
+    private static final String[] REQUIRED_ISOCHRONE_REQUEST_PARAMS = {"lon", "lat",
+            "distance"};
 
     /**
      * The result of rastering must be a map containing all of the
@@ -82,10 +103,94 @@ public class MapServer {
      **/
     private static final String[] REQUIRED_RASTER_RESULT_PARAMS = {"render_grid", "raster_ul_lon",
             "raster_ul_lat", "raster_lr_lon", "raster_lr_lat", "depth", "query_success"};
+    /**
+     * Optional request parameter naming the route (as returned by /route) that /raster
+     * should draw and /clear_route should forget.
+     */
+    private static final String ROUTE_ID_PARAM = "route_id";
+    /**
+     * Optional request parameter of /raster; with tiles=true the response leaves out the
+     * image, and the client loads the tiles of the render grid from /tiles itself.
+     */
+    private static final String TILES_PARAM = "tiles";
+    /**
+     * Optional request parameter of /route_geometry: the depth of the tiles the route is
+     * drawn on, for which it is simplified. The route is sent in full otherwise.
+     */
+    private static final String DEPTH_PARAM = "depth";
+    /**
+     * Seconds for which clients may cache tiles from /tiles. Tiles never change while the
+     * server runs, and clients revalidate them with the ETag after that.
+     */
+    private static final int TILE_MAX_AGE_SECONDS = 365 * 24 * 60 * 60;
+    /**
+     * Optional request parameter selecting the Router.Mode a route is searched with,
+     * e.g. mode=ch. Routes use DEFAULT_ROUTING_MODE otherwise.
+     */
+    private static final String ROUTING_MODE_PARAM = "mode";
+    private static final Router.Mode DEFAULT_ROUTING_MODE = Router.Mode.ASTAR;
+    /**
+     * Request parameters of /matrix: the points to measure from and to, each a list of
+     * lon,lat pairs separated by semicolons, e.g. sources=-122.26,37.87;-122.25,37.86.
+     */
+    private static final String MATRIX_SOURCES_PARAM = "sources";
+    private static final String MATRIX_TARGETS_PARAM = "targets";
+    /**
+     * Largest number of entries, sources times targets, that one /matrix table may have.
+     * All requests share MATRIX_POOL, so this bounds how long one of them can hold it.
+     */
+    private static final int MAX_MATRIX_CELLS = 10000;
+    /**
+     * Pool on which /matrix requests search from their sources in parallel.
+     */
+    private static final ForkJoinPool MATRIX_POOL =
+            new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    /**
+     * Optional request parameter of /search giving the number of completions to return;
+     * DEFAULT_SEARCH_LIMIT are returned otherwise.
+     */
+    private static final String SEARCH_LIMIT_PARAM = "limit";
+    private static final int DEFAULT_SEARCH_LIMIT = PlaceIndex.TOP_K;
+    /**
+     * Optional request parameter of /search allowing up to this many typos (1 or 2) in the
+     * search term, e.g. fuzzy=1. Searches are exact otherwise.
+     */
+    private static final String FUZZY_PARAM = "fuzzy";
+    private static final int MAX_FUZZY_EDITS = 2;
+    /**
+     * Number of found routes kept for clients to refer to; older ones are dropped first.
+     */
+    private static final int MAX_STORED_ROUTES = 10000;
+    /**
+     * Bytes of decoded tile pixels kept in memory; 128 MB holds about 500 tiles.
+     */
+    private static final long TILE_CACHE_BYTES = 128L << 20;
+    /**
+     * Bytes of finished /raster images kept in memory, Base64 strings of encoded PNGs.
+     */
+    private static final long RASTER_CACHE_BYTES = 64L << 20;
+    /**
+     * Bytes of found routes kept for repeated /route requests between the same vertices,
+     * and how long each is kept; 16 MB holds tens of thousands of routes.
+     */
+    private static final long ROUTE_CACHE_BYTES = 16L << 20;
+    private static final long ROUTE_CACHE_TTL_MILLIS = 60 * 60 * 1000;
+    /**
+     * Encoder of /raster images. Fastest deflate without row filters takes well under half
+     * the time of ImageIO on map images, for files about 15% larger (see PngBenchmark);
+     * PngEncoder.RAW skips compression altogether where bandwidth is cheap.
+     */
+    private static final PngEncoder PNG_ENCODER =
+            new PngEncoder(Deflater.BEST_SPEED, PngEncoder.Filter.NONE);
 
     private static Rasterer rasterer;
+    private static TileArchive archive;
+    private static TileCache tiles;
+    private static TileCompositor compositor;
+    private static RasterCache rasters;
+    private static RouteCache routeCache;
     private static GraphDB graph;
-    private static LinkedList<Long> route = new LinkedList<>();
+    private static final RouteStore ROUTES = new RouteStore(MAX_STORED_ROUTES);
     /* Define any static variables here. Do not define any instance variables of MapServer. */
 
 
@@ -97,6 +202,23 @@ public class MapServer {
     public static void initialize() {
         graph = new GraphDB(OSM_DB_PATH);
         rasterer = new Rasterer(IMG_ROOT);
+        archive = null;
+        if (new File(TILE_ARCHIVE_PATH).isFile()) {
+            try {
+                archive = new TileArchive(new File(TILE_ARCHIVE_PATH));
+            } catch (IOException e) {
+                System.out.println("Reading tiles from " + IMG_ROOT + ": " + e.getMessage());
+            }
+        }
+        tiles = new TileCache(TILE_CACHE_BYTES, archive);
+        if (compositor != null) {
+            compositor.close();
+        }
+        compositor = new TileCompositor(tiles, TILE_SIZE,
+                Runtime.getRuntime().availableProcessors());
+        rasters = new RasterCache(RASTER_CACHE_BYTES);
+        /* Routes belong to the graph just loaded. */
+        routeCache = new RouteCache(ROUTE_CACHE_BYTES, ROUTE_CACHE_TTL_MILLIS);
     }
 
     public static void main(String[] args) {
@@ -122,9 +244,22 @@ public class MapServer {
 
             boolean rasterSuccess = validateRasteredImgParams(rasteredImgParams);
 
-            if (rasterSuccess) {
-                writeImagesToOutputStream(rasteredImgParams, os);
-                String encodedImage = Base64.getEncoder().encodeToString(os.toByteArray());
+            if (rasterSuccess && Boolean.parseBoolean(req.queryParams(TILES_PARAM))) {
+                String[][] renderGrid = (String[][]) rasteredImgParams.get("render_grid");
+                rasteredImgParams.put("raster_width", renderGrid[0].length * TILE_SIZE);
+                rasteredImgParams.put("raster_height", renderGrid.length * TILE_SIZE);
+            } else if (rasterSuccess) {
+                String[][] renderGrid = (String[][]) rasteredImgParams.get("render_grid");
+                int depth = ((Number) rasteredImgParams.get("depth")).intValue();
+                Long routeId = getRouteId(req);
+                List<Long> route = routeId == null ? null : ROUTES.get(routeId);
+                String encodedImage = rasters.get(renderGrid, depth,
+                        route == null ? RasterCache.NO_ROUTE : routeId, k -> {
+                            writeImagesToOutputStream(rasteredImgParams, route, os);
+                            return Base64.getEncoder().encodeToString(os.toByteArray());
+                        });
+                rasteredImgParams.put("raster_width", renderGrid[0].length * TILE_SIZE);
+                rasteredImgParams.put("raster_height", renderGrid.length * TILE_SIZE);
                 rasteredImgParams.put("b64_encoded_image_data", encodedImage);
             }
 
@@ -133,19 +268,151 @@ public class MapServer {
             return gson.toJson(rasteredImgParams);
         });
 
-        /* Define the routing endpoint for HTTP GET requests. */
+        /* Define the endpoint for single tiles, /tiles/depth/x/y.png, which sends the tile
+         * files as they are, with headers that let clients and proxies cache them. */
+        get("/tiles/:depth/:x/:y", (req, res) -> {
+            String y = req.params(":y");
+            if (!y.endsWith(".png")) {
+                halt(HttpServletResponse.SC_NOT_FOUND);
+            }
+            int depth = parseTileCoordinate(req.params(":depth"));
+            int column = parseTileCoordinate(req.params(":x"));
+            int row = parseTileCoordinate(y.substring(0, y.length() - ".png".length()));
+            if (archive != null) {
+                ByteBuffer tile = archive.tile(depth, column, row);
+                if (tile == null) {
+                    halt(HttpServletResponse.SC_NOT_FOUND);
+                }
+                if (!notModified(req.raw(), res.raw(), archive.lastModified(),
+                        Integer.toHexString(TileArchive.index(depth, column, row)))) {
+                    sendTile(tile, res.raw());
+                }
+            } else {
+                File tile = getTileFile(depth, column, row);
+                if (tile == null) {
+                    halt(HttpServletResponse.SC_NOT_FOUND);
+                }
+                if (!notModified(req.raw(), res.raw(), tile.lastModified(),
+                        Long.toHexString(tile.length()))) {
+                    sendTile(tile, res.raw());
+                }
+            }
+            return "";
+        });
+
+        /* Define the routing endpoint for HTTP GET requests. If a route is found, the
+         * response carries the handle under which it is stored, for use with /raster and
+         * /clear_route; failed queries store nothing, so they cannot push live routes out
+         * of ROUTES. */
         get("/route", (req, res) -> {
             HashMap<String, Double> params =
                     getRequestParams(req, REQUIRED_ROUTE_REQUEST_PARAMS);
-            route = Router.shortestPath(graph, params.get("start_lon"), params.get("start_lat"),
-                    params.get("end_lon"), params.get("end_lat"));
-            //route = findAndSetRoute(params);
-            return !route.isEmpty();
+            Router.Mode mode = getRoutingMode(req);
+            int start = graph.closestIndex(params.get("start_lon"), params.get("start_lat"));
+            int end = graph.closestIndex(params.get("end_lon"), params.get("end_lat"));
+            LinkedList<Long> route = new LinkedList<>();
+            if (start >= 0 && end >= 0) {
+                CompactGraph g = graph.compact();
+                route = RouteCache.toList(routeCache.get(g.id(start), g.id(end),
+                        k -> RouteCache.toArray(Router.shortestPath(graph, start, end, mode))));
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put("found", !route.isEmpty());
+            if (!route.isEmpty()) {
+                result.put(ROUTE_ID_PARAM, ROUTES.put(route));
+            }
+            return new Gson().toJson(result);
+        });
+
+        /* Define the endpoint for tables of network distances between many points. Entry
+         * [i][j] of distances is the length of the shortest path from source i to target j,
+         * or null if there is none. With mode=ch the table is computed from the contraction
+         * hierarchy, and by Dijkstra searches otherwise. */
+        get("/matrix", (req, res) -> {
+            String[] sourcePoints = getPoints(req, MATRIX_SOURCES_PARAM);
+            String[] targetPoints = getPoints(req, MATRIX_TARGETS_PARAM);
+            if ((long) sourcePoints.length * targetPoints.length > MAX_MATRIX_CELLS) {
+                halt(HALT_RESPONSE, "Incorrect parameters - at most " + MAX_MATRIX_CELLS
+                        + " sources times targets.");
+            }
+            int[] sources = getClosestIndices(sourcePoints, MATRIX_SOURCES_PARAM);
+            int[] targets = getClosestIndices(targetPoints, MATRIX_TARGETS_PARAM);
+            CompactGraph g = graph.compact();
+            double[][] table = getRoutingMode(req) == Router.Mode.CH
+                    ? DistanceMatrix.byHierarchy(g, graph.hierarchy(), sources, targets,
+                            MATRIX_POOL)
+                    : DistanceMatrix.byDijkstra(g, sources, targets, MATRIX_POOL);
+            Double[][] distances = new Double[sources.length][targets.length];
+            for (int i = 0; i < sources.length; i += 1) {
+                for (int j = 0; j < targets.length; j += 1) {
+                    if (table[i][j] < Double.POSITIVE_INFINITY) {
+                        distances[i][j] = table[i][j];
+                    }
+                }
+            }
+            Map<String, Object> result = new HashMap<>();
+            result.put(MATRIX_SOURCES_PARAM, ids(g, sources));
+            result.put(MATRIX_TARGETS_PARAM, ids(g, targets));
+            result.put("distances", distances);
+            return new Gson().toJson(result);
+        });
+
+        /* Define the endpoint for the part of the map within a network distance of a
+         * point: the ids of the vertices reached and their convex hull, as lon, lat pairs
+         * in counterclockwise order. */
+        get("/isochrone", (req, res) -> {
+            HashMap<String, Double> params =
+                    getRequestParams(req, REQUIRED_ISOCHRONE_REQUEST_PARAMS);
+            CompactGraph g = graph.compact();
+            int start = graph.closestIndex(params.get("lon"), params.get("lat"));
+            Map<String, Object> result = new HashMap<>();
+            result.put("found", start >= 0);
+            if (start >= 0) {
+                int[] reached = Isochrone.reachable(g, start, params.get("distance"));
+                result.put("start", g.id(start));
+                result.put("vertices", ids(g, reached));
+                result.put("hull", Isochrone.convexHull(g, reached));
+            }
+            return new Gson().toJson(result);
         });
 
-        /* Define the API endpoint for clearing the current route. */
+        /* Define the endpoint for the hit rates of the server's caches. */
+        get("/cache_stats", (req, res) -> {
+            Map<String, Object> routeStats = new HashMap<>();
+            routeStats.put("hits", routeCache.hits());
+            routeStats.put("misses", routeCache.misses());
+            routeStats.put("hit_rate", routeCache.hitRate());
+            routeStats.put("evictions", routeCache.evictions());
+            routeStats.put("expirations", routeCache.expirations());
+            Map<String, Object> rasterStats = new HashMap<>();
+            rasterStats.put("hits", rasters.hits());
+            rasterStats.put("misses", rasters.misses());
+            rasterStats.put("evictions", rasters.evictions());
+            Map<String, Object> result = new HashMap<>();
+            result.put("routes", routeStats);
+            result.put("rasters", rasterStats);
+            return new Gson().toJson(result);
+        });
+
+        /* Define the endpoint for the shape of a stored route, for clients that draw the
+         * route over the map themselves. */
+        get("/route_geometry", (req, res) -> {
+            Long routeId = getRouteId(req);
+            List<Long> route = routeId == null ? null : ROUTES.get(routeId);
+            Map<String, Object> result = new HashMap<>();
+            result.put("found", route != null && !route.isEmpty());
+            if (route != null) {
+                result.put("polyline", RouteGeometry.encode(graph, route, getDepth(req)));
+            }
+            return new Gson().toJson(result);
+        });
+
+        /* Define the API endpoint for clearing a route. */
         get("/clear_route", (req, res) -> {
-            clearRoute();
+            Long routeId = getRouteId(req);
+            if (routeId != null) {
+                clearRoute(routeId);
+            }
             return true;
         });
 
@@ -155,12 +422,17 @@ public class MapServer {
             String term = req.queryParams("term");
             Gson gson = new Gson();
             /* Search for actual location data. */
+            int fuzzy = getFuzzyEdits(req);
             if (reqParams.contains("full")) {
-                List<Map<String, Object>> data = getLocations(term);
+                List<Map<String, Object>> data = fuzzy > 0
+                        ? getLocations(term, fuzzy) : getLocations(term);
                 return gson.toJson(data);
             } else {
-                /* Search for prefix matching strings. */
-                List<String> matches = getLocationsByPrefix(term);
+                /* Search for the best prefix matching strings. */
+                int limit = getSearchLimit(req);
+                List<String> matches = fuzzy > 0
+                        ? getLocationsByPrefix(term, limit, fuzzy)
+                        : getLocationsByPrefix(term, limit);
                 return gson.toJson(matches);
             }
         });
@@ -172,6 +444,83 @@ public class MapServer {
         });
     }
 
+    /**
+     * Parses a depth or coordinate in a /tiles path.
+     */
+    private static int parseTileCoordinate(String s) {
+        try {
+            return Integer.parseInt(s);
+        } catch (NumberFormatException e) {
+            halt(HttpServletResponse.SC_NOT_FOUND);
+            return -1;
+        }
+    }
+
+    /**
+     * Returns the image file of the tile at column x and row y at depth, or null if there
+     * is no such tile.
+     */
+    private static File getTileFile(int depth, int x, int y) {
+        if (!TileNames.exists(depth, x, y)) {
+            return null;
+        }
+        File f = new File(IMG_ROOT + TileNames.name(depth, x, y) + ".png");
+        return f.isFile() ? f : null;
+    }
+
+    /**
+     * Sets the caching headers of a tile response, and answers 304 Not Modified if the
+     * client already has the tile. The ETag combines lastModified with version, which tells
+     * apart the tiles of one file or archive. Returns whether the tile can be left out.
+     */
+    private static boolean notModified(HttpServletRequest req, HttpServletResponse res,
+                                       long lastModified, String version) {
+        String eTag = "\"" + Long.toHexString(lastModified) + "-" + version + "\"";
+        res.setHeader("ETag", eTag);
+        res.setDateHeader("Last-Modified", lastModified);
+        res.setHeader("Cache-Control", "public, max-age=" + TILE_MAX_AGE_SECONDS);
+        String ifNoneMatch = req.getHeader("If-None-Match");
+        long ifModifiedSince = ifNoneMatch == null ? req.getDateHeader("If-Modified-Since") : -1;
+        if (eTag.equals(ifNoneMatch)
+                || (ifModifiedSince >= 0 && lastModified / 1000 <= ifModifiedSince / 1000)) {
+            res.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the tile image file f. The file is sent from its channel through Jetty's own
+     * buffers, without copying it into the heap, unless the server is not Jetty.
+     */
+    private static void sendTile(File f, HttpServletResponse res) throws IOException {
+        res.setContentType("image/png");
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            res.setContentLengthLong(channel.size());
+            ServletOutputStream out = res.getOutputStream();
+            if (out instanceof HttpOutput) {
+                ((HttpOutput) out).sendContent(channel);
+            } else {
+                Files.copy(f.toPath(), out);
+            }
+        }
+    }
+
+    /**
+     * Sends the tile image in png, a slice of the mapped tile archive. Jetty writes it to
+     * the socket straight from the mapping.
+     */
+    private static void sendTile(ByteBuffer png, HttpServletResponse res) throws IOException {
+        res.setContentType("image/png");
+        res.setContentLength(png.remaining());
+        ServletOutputStream out = res.getOutputStream();
+        if (out instanceof HttpOutput) {
+            ((HttpOutput) out).sendContent(png);
+        } else {
+            Channels.newChannel(out).write(png);
+        }
+    }
+
     /**
      * Validate & return a parameter map of the required request parameters.
      * Requires that all input parameters are doubles.
@@ -200,31 +549,153 @@ public class MapServer {
     }
 
     /**
-     * Writes the images corresponding to rasteredImgParams to the output stream.
+     * Returns the points in the request parameter param, a list of lon,lat pairs
+     * separated by semicolons, as unparsed pairs.
+     */
+    private static String[] getPoints(spark.Request req, String param) {
+        String points = req.queryParams(param);
+        if (points == null || points.isEmpty()) {
+            halt(HALT_RESPONSE, "Request failed - parameters missing.");
+        }
+        return points.split(";");
+    }
+
+    /**
+     * Returns the indices of the graph vertices closest to pairs, the points of the
+     * request parameter param. A point has index -1 if the graph is empty.
+     */
+    private static int[] getClosestIndices(String[] pairs, String param) {
+        int[] indices = new int[pairs.length];
+        for (int i = 0; i < pairs.length; i += 1) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                indices[i] = graph.closestIndex(Double.parseDouble(lonLat[0].trim()),
+                        Double.parseDouble(lonLat[1].trim()));
+            } catch (NumberFormatException e) {
+                halt(HALT_RESPONSE, "Incorrect parameters - " + param
+                        + " must be lon,lat pairs separated by semicolons.");
+            }
+        }
+        return indices;
+    }
+
+    /**
+     * Returns the OSM ids of the vertices at indices in g, null for an index of -1.
+     */
+    private static Long[] ids(CompactGraph g, int[] indices) {
+        Long[] ids = new Long[indices.length];
+        for (int i = 0; i < indices.length; i += 1) {
+            ids[i] = indices[i] < 0 ? null : g.id(indices[i]);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the value of the optional route_id request parameter, or null if absent.
+     */
+    private static Long getRouteId(spark.Request req) {
+        String routeId = req.queryParams(ROUTE_ID_PARAM);
+        if (routeId == null || routeId.isEmpty()) {
+            return null;
+        }
+        try {
+            return Long.parseLong(routeId);
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - route_id must be a number.");
+            return null;
+        }
+    }
+
+    /**
+     * Returns the value of the optional depth request parameter, or -1 if absent.
+     */
+    private static int getDepth(spark.Request req) {
+        String depth = req.queryParams(DEPTH_PARAM);
+        if (depth == null || depth.isEmpty()) {
+            return -1;
+        }
+        try {
+            int d = Integer.parseInt(depth);
+            if (d >= 0 && d <= TileNames.MAX_DEPTH) {
+                return d;
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through to the error below. */
+        }
+        halt(HALT_RESPONSE, "Incorrect parameters - depth must be between 0 and "
+                + TileNames.MAX_DEPTH + ".");
+        return -1;
+    }
+
+    /**
+     * Returns the value of the optional limit request parameter of /search.
+     */
+    private static int getSearchLimit(spark.Request req) {
+        String limit = req.queryParams(SEARCH_LIMIT_PARAM);
+        if (limit == null || limit.isEmpty()) {
+            return DEFAULT_SEARCH_LIMIT;
+        }
+        try {
+            return Integer.parseInt(limit);
+        } catch (NumberFormatException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - limit must be a number.");
+            return 0;
+        }
+    }
+
+    /**
+     * Returns the number of typos the optional fuzzy request parameter of /search allows,
+     * or 0 for an exact search.
+     */
+    private static int getFuzzyEdits(spark.Request req) {
+        String fuzzy = req.queryParams(FUZZY_PARAM);
+        if (fuzzy == null || fuzzy.isEmpty()) {
+            return 0;
+        }
+        try {
+            int edits = Integer.parseInt(fuzzy);
+            if (edits >= 0 && edits <= MAX_FUZZY_EDITS) {
+                return edits;
+            }
+        } catch (NumberFormatException e) {
+            /* Fall through to the error below. */
+        }
+        halt(HALT_RESPONSE, "Incorrect parameters - fuzzy must be between 0 and "
+                + MAX_FUZZY_EDITS + ".");
+        return 0;
+    }
+
+    /**
+     * Returns the routing mode named by the optional mode request parameter.
+     */
+    private static Router.Mode getRoutingMode(spark.Request req) {
+        String mode = req.queryParams(ROUTING_MODE_PARAM);
+        if (mode == null || mode.isEmpty()) {
+            return DEFAULT_ROUTING_MODE;
+        }
+        try {
+            return Router.Mode.valueOf(mode.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            halt(HALT_RESPONSE, "Incorrect parameters - unknown routing mode " + mode + ".");
+            return null;
+        }
+    }
+
+    /**
+     * Writes the images corresponding to rasteredImgParams to the output stream,
+     * with the given route (if any) drawn on top.
      * In Spring 2016, students had to do this on their own, but in 2017,
      * we have made this into provided code since it was just a bit too low level.
      */
     private static void writeImagesToOutputStream(Map<String, Object> rasteredImageParams,
+                                                  List<Long> route,
                                                   ByteArrayOutputStream os) {
         String[][] renderGrid = (String[][]) rasteredImageParams.get("render_grid");
-        int numVertTiles = renderGrid.length;
-        int numHorizTiles = renderGrid[0].length;
-
-        BufferedImage img = new BufferedImage(numHorizTiles * MapServer.TILE_SIZE,
-                numVertTiles * MapServer.TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+        BufferedImage img = compositor.composite(renderGrid);
         Graphics graphic = img.getGraphics();
-        int x = 0, y = 0;
-
-        for (int r = 0; r < numVertTiles; r += 1) {
-            for (int c = 0; c < numHorizTiles; c += 1) {
-                graphic.drawImage(getImage(renderGrid[r][c]), x, y, null);
-                x += MapServer.TILE_SIZE;
-                if (x >= img.getWidth()) {
-                    x = 0;
-                    y += MapServer.TILE_SIZE;
-                }
-            }
-        }
 
         /* If there is a route, draw it. */
         double ullon = (double) rasteredImageParams.get("raster_ul_lon"); //tiles.get(0).ulp;
@@ -248,35 +719,22 @@ public class MapServer {
             });
         }
 
-        rasteredImageParams.put("raster_width", img.getWidth());
-        rasteredImageParams.put("raster_height", img.getHeight());
-
         try {
-            ImageIO.write(img, "png", os);
+            PNG_ENCODER.write(img, os);
         } catch (IOException e) {
             e.printStackTrace();
         }
 
     }
 
-    private static BufferedImage getImage(String imgPath) {
-        BufferedImage tileImg = null;
-        if (tileImg == null) {
-            try {
-                File in = new File(imgPath);
-                tileImg = ImageIO.read(in);
-            } catch (IOException | NullPointerException e) {
-                e.printStackTrace();
-            }
-        }
-        return tileImg;
-    }
-
     /**
-     * Clear the current found route, if it exists.
+     * Forget the route stored under the given handle, if it exists.
      */
-    public static void clearRoute() {
-        route = new LinkedList<Long>();
+    public static void clearRoute(long routeId) {
+        ROUTES.remove(routeId);
+        if (rasters != null) {
+            rasters.invalidateRoute(routeId);
+        }
     }
 
     /**
@@ -288,14 +746,26 @@ public class MapServer {
      * cleaned <code>prefix</code>.
      */
     public static List<String> getLocationsByPrefix(String prefix) {
-        GraphDB g = graph;
+        return graph.placeIndex.prefixMatches(prefix);
+    }
 
-        if (prefix.length() > 0) {
-            LinkedList r = g.getAllLegitChildren(prefix, g.t.root);
-            return r;
-        } else {
-            return new LinkedList<>();
-        }
+    /**
+     * Same as above, but only returns the best <code>limit</code> matches, ranked by how many
+     * places carry each name. For limits up to PlaceIndex.TOP_K this takes time linear in the
+     * length of the prefix, however many names match.
+     */
+    public static List<String> getLocationsByPrefix(String prefix, int limit) {
+        return graph.placeIndex.topMatches(prefix, limit);
+    }
+
+    /**
+     * Same as above, but also matches names that start with something up to maxEdits typos
+     * (insertions, deletions or substitutions) away from the prefix. Closer matches come
+     * first. Short prefixes get fewer edits, see PlaceIndex.allowedEdits.
+     */
+    public static List<String> getLocationsByPrefix(String prefix, int limit, int maxEdits) {
+        return graph.placeIndex.fuzzyMatches(prefix, maxEdits,
+                Math.min(limit, PlaceIndex.TOP_K));
     }
 
     /**
@@ -318,6 +788,18 @@ public class MapServer {
         return r;
     }
 
+    /**
+     * Same as above, but returns the locations of every name up to maxEdits typos away
+     * from the cleaned <code>locationName</code>, those of the closest names first.
+     */
+    public static List<Map<String, Object>> getLocations(String locationName, int maxEdits) {
+        List<Map<String, Object>> r = new ArrayList<>();
+        for (String name : graph.placeIndex.fuzzyNames(locationName, maxEdits)) {
+            r.addAll(graph.places.get(name));
+        }
+        return r;
+    }
+
     /**
      * Validates that Rasterer has returned a result that can be rendered.
      *
@@ -0,0 +1,71 @@
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+/**
+ * Runs tasks on a pool with one thread per core and hands their results to a consumer
+ * on the calling thread, in the order the tasks were submitted. At most a few tasks per
+ * thread are in flight at once; submit() blocks on the oldest one beyond that, which
+ * bounds the memory held by finished but unconsumed results.
+ */
+class OrderedPipeline<T> implements AutoCloseable {
+    private static final int TASKS_IN_FLIGHT_PER_THREAD = 4;
+
+    private final ExecutorService pool;
+    private final int maxInFlight;
+    private final ArrayDeque<Future<T>> pending = new ArrayDeque<>();
+    private final Consumer<T> consumer;
+
+    OrderedPipeline(String name, Consumer<T> consumer) {
+        int threads = Runtime.getRuntime().availableProcessors();
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        this.maxInFlight = threads * TASKS_IN_FLIGHT_PER_THREAD;
+        this.consumer = consumer;
+    }
+
+    void submit(Callable<T> task) throws IOException {
+        pending.add(pool.submit(task));
+        if (pending.size() >= maxInFlight) {
+            consumer.accept(take(pending.poll()));
+        }
+    }
+
+    /**
+     * Waits for all submitted tasks and consumes their results. Rethrows the IOException
+     * of the first task that failed.
+     */
+    void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            consumer.accept(take(pending.poll()));
+        }
+    }
+
+    private static <T> T take(Future<T> f) throws IOException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a task");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
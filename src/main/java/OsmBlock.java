@@ -0,0 +1,152 @@
+import java.util.Arrays;
+
+/**
+ * Nodes, places and valid ways read from one part of an OSM file (a chunk of an XML file
+ * or a blob of a PBF file). Parts are parsed in parallel into blocks, and the blocks are
+ * then applied to the GraphDB one by one, in file order, with the same builder calls
+ * GraphBuildingHandler makes.
+ * <p>
+ * A block can be told which nodes to keep. The two-pass build first reads every part
+ * into a ways-only block to find the nodes on roads, and then reads them again keeping
+ * only those nodes; places are kept for all named nodes either way.
+ */
+class OsmBlock {
+    private final boolean keepNodes;
+    private final LongHashSet roadNodes;
+
+    private long[] nodeIds = new long[256];
+    private double[] nodeLons = new double[256];
+    private double[] nodeLats = new double[256];
+    private int nodeCount;
+
+    private String[] placeNames = new String[16];
+    private long[] placeIds = new long[16];
+    private double[] placeLons = new double[16];
+    private double[] placeLats = new double[16];
+    private int placeCount;
+
+    /* The refs of way i are wayRefs[wayStarts[i]] up to wayRefs[wayStarts[i + 1]]. */
+    private long[] wayRefs = new long[256];
+    private int refCount;
+    private int[] wayStarts = new int[16];
+    private int wayCount;
+
+    private OsmBlock(boolean keepNodes, LongHashSet roadNodes) {
+        this.keepNodes = keepNodes;
+        this.roadNodes = roadNodes;
+    }
+
+    /**
+     * A block that keeps every node and place.
+     */
+    static OsmBlock all() {
+        return new OsmBlock(true, null);
+    }
+
+    /**
+     * A block that keeps every place, but only the nodes in roadNodes.
+     */
+    static OsmBlock roads(LongHashSet roadNodes) {
+        return new OsmBlock(true, roadNodes);
+    }
+
+    /**
+     * A block that only keeps ways, for finding the nodes on roads.
+     */
+    static OsmBlock waysOnly() {
+        return new OsmBlock(false, null);
+    }
+
+    /**
+     * Whether nodes and places are kept at all; readers can skip decoding them if not.
+     */
+    boolean keepsNodes() {
+        return keepNodes;
+    }
+
+    void addNode(long id, double lon, double lat) {
+        if (!keepNodes || (roadNodes != null && !roadNodes.contains(id))) {
+            return;
+        }
+        if (nodeCount == nodeIds.length) {
+            nodeIds = Arrays.copyOf(nodeIds, nodeCount * 2);
+            nodeLons = Arrays.copyOf(nodeLons, nodeCount * 2);
+            nodeLats = Arrays.copyOf(nodeLats, nodeCount * 2);
+        }
+        nodeIds[nodeCount] = id;
+        nodeLons[nodeCount] = lon;
+        nodeLats[nodeCount] = lat;
+        nodeCount += 1;
+    }
+
+    void addPlace(String name, long id, double lon, double lat) {
+        if (!keepNodes) {
+            return;
+        }
+        if (placeCount == placeNames.length) {
+            placeNames = Arrays.copyOf(placeNames, placeCount * 2);
+            placeIds = Arrays.copyOf(placeIds, placeCount * 2);
+            placeLons = Arrays.copyOf(placeLons, placeCount * 2);
+            placeLats = Arrays.copyOf(placeLats, placeCount * 2);
+        }
+        placeNames[placeCount] = name;
+        placeIds[placeCount] = id;
+        placeLons[placeCount] = lon;
+        placeLats[placeCount] = lat;
+        placeCount += 1;
+    }
+
+    /**
+     * Adds a node ref to the way being read.
+     */
+    void addRef(long ref) {
+        if (refCount == wayRefs.length) {
+            wayRefs = Arrays.copyOf(wayRefs, refCount * 2);
+        }
+        wayRefs[refCount] = ref;
+        refCount += 1;
+    }
+
+    /**
+     * Ends the way being read, keeping it if it is valid and dropping it otherwise.
+     */
+    void endWay(boolean valid) {
+        if (!valid) {
+            refCount = wayStarts[wayCount];
+            return;
+        }
+        if (wayCount + 1 == wayStarts.length) {
+            wayStarts = Arrays.copyOf(wayStarts, wayStarts.length * 2);
+        }
+        wayCount += 1;
+        wayStarts[wayCount] = refCount;
+    }
+
+    /**
+     * Adds the ids of all nodes on the ways of this block to roadNodes.
+     */
+    void addRoadNodesTo(LongHashSet roadNodes) {
+        for (int r = 0; r < wayStarts[wayCount]; r += 1) {
+            roadNodes.add(wayRefs[r]);
+        }
+    }
+
+    /**
+     * Adds the contents of this block to g. Nodes go first, so that the ways of a block
+     * can use its own nodes.
+     */
+    void apply(GraphDB g) {
+        for (int i = 0; i < nodeCount; i += 1) {
+            g.addNode(nodeIds[i], nodeLons[i], nodeLats[i]);
+        }
+        for (int i = 0; i < placeCount; i += 1) {
+            g.addLocation(placeNames[i], placeIds[i], placeLons[i], placeLats[i]);
+        }
+        for (int w = 0; w < wayCount; w += 1) {
+            for (int r = wayStarts[w]; r < wayStarts[w + 1]; r += 1) {
+                g.addToCurrentWay(wayRefs[r]);
+            }
+            g.addCurrentWay();
+        }
+    }
+}
@@ -0,0 +1,550 @@
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader for OSM PBF files that fills a GraphDB with the same calls GraphBuildingHandler
+ * makes for the equivalent XML: every node is added with addNode, named nodes become
+ * places, and ways with an allowed highway tag are added as edges. See
+ * <a href="http://wiki.openstreetmap.org/wiki/PBF_Format">the PBF format</a>.
+ * <p>
+ * The file is a sequence of blobs, each holding one zlib-compressed PrimitiveBlock. The
+ * calling thread only reads the raw blobs; inflating and decoding each of them into an
+ * OsmBlock runs on an OrderedPipeline, and the blocks are applied to the graph in file
+ * order, so nodes are always added before the ways that use them.
+ * <p>
+ * The protobuf messages are decoded by hand with the small ProtoReader below; only the
+ * fields the graph needs are looked at.
+ */
+public class OsmPbfReader {
+    private static final int MAX_HEADER_SIZE = 64 * 1024;
+    private static final int MAX_BLOB_SIZE = 32 * 1024 * 1024;
+    private static final Set<String> SUPPORTED_FEATURES = new HashSet<>(Arrays.asList(
+            "OsmSchema-V0.6", "DenseNodes"));
+
+    /**
+     * Coordinates are stored in units of granularity nanodegrees. Dividing by this exact
+     * power of ten gives the same double as parsing the decimal degrees from XML.
+     */
+    private static final double NANODEGREES = 1e9;
+
+    /**
+     * Reads the PBF file into g. With twoPass, the file is read twice: first only the ways,
+     * to find the nodes that are on roads, and then everything, keeping only those nodes.
+     * Throws an IOException if the file cannot be read, is malformed or needs a feature
+     * this reader does not support.
+     */
+    static void read(File file, GraphDB g, boolean twoPass) throws IOException {
+        Supplier<OsmBlock> blocks = OsmBlock::all;
+        if (twoPass) {
+            LongHashSet roadNodes = new LongHashSet();
+            try (OrderedPipeline<OsmBlock> pipeline = new OrderedPipeline<>("pbf-decoder",
+                    b -> b.addRoadNodesTo(roadNodes))) {
+                readBlobs(file, pipeline, OsmBlock::waysOnly);
+                pipeline.finish();
+            }
+            blocks = () -> OsmBlock.roads(roadNodes);
+        }
+        try (OrderedPipeline<OsmBlock> pipeline = new OrderedPipeline<>("pbf-decoder",
+                b -> b.apply(g))) {
+            readBlobs(file, pipeline, blocks);
+            pipeline.finish();
+        }
+    }
+
+    /**
+     * Reads the blobs of the file one by one and submits the decoding of each data blob,
+     * into a block from blocks, to the pipeline.
+     */
+    private static void readBlobs(File file, OrderedPipeline<OsmBlock> pipeline,
+                                  Supplier<OsmBlock> blocks) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(file), 1 << 16))) {
+            boolean sawHeader = false;
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = in.readInt();
+                } catch (EOFException e) {
+                    return;
+                }
+                if (headerSize < 0 || headerSize > MAX_HEADER_SIZE) {
+                    throw new IOException("Invalid blob header size " + headerSize);
+                }
+                byte[] header = new byte[headerSize];
+                in.readFully(header);
+                String type = null;
+                int dataSize = -1;
+                ProtoReader h = new ProtoReader(header, 0, headerSize);
+                while (h.hasMore()) {
+                    int tag = h.readTag();
+                    if (tag == ProtoReader.tag(1, ProtoReader.LENGTH_DELIMITED)) {
+                        type = h.readString();
+                    } else if (tag == ProtoReader.tag(3, ProtoReader.VARINT)) {
+                        dataSize = (int) h.readVarint();
+                    } else {
+                        h.skip(tag);
+                    }
+                }
+                if (type == null || dataSize < 0 || dataSize > MAX_BLOB_SIZE) {
+                    throw new IOException("Invalid blob header");
+                }
+                byte[] blob = new byte[dataSize];
+                in.readFully(blob);
+
+                if (type.equals("OSMHeader")) {
+                    checkHeader(inflate(blob));
+                    sawHeader = true;
+                } else if (type.equals("OSMData")) {
+                    if (!sawHeader) {
+                        throw new IOException("OSMData blob before the OSMHeader");
+                    }
+                    pipeline.submit(() -> decode(inflate(blob), blocks.get()));
+                }
+                /* Blobs of unknown types must be skipped, as per the format. */
+            }
+        }
+    }
+
+    /**
+     * Returns the uncompressed contents of a Blob message.
+     */
+    private static byte[] inflate(byte[] blob) throws IOException {
+        ProtoReader r = new ProtoReader(blob, 0, blob.length);
+        int rawSize = -1;
+        int zlibStart = -1;
+        int zlibEnd = -1;
+        while (r.hasMore()) {
+            int tag = r.readTag();
+            if (tag == ProtoReader.tag(1, ProtoReader.LENGTH_DELIMITED)) {
+                int length = r.readLength();
+                return Arrays.copyOfRange(blob, r.pos, r.pos + length);
+            } else if (tag == ProtoReader.tag(2, ProtoReader.VARINT)) {
+                rawSize = (int) r.readVarint();
+            } else if (tag == ProtoReader.tag(3, ProtoReader.LENGTH_DELIMITED)) {
+                int length = r.readLength();
+                zlibStart = r.pos;
+                zlibEnd = r.pos + length;
+                r.pos = zlibEnd;
+            } else if ((tag >>> 3) >= 4 && (tag >>> 3) <= 7) {
+                throw new IOException("Unsupported blob compression (field " + (tag >>> 3)
+                        + ")");
+            } else {
+                r.skip(tag);
+            }
+        }
+        if (zlibStart < 0 || rawSize < 0 || rawSize > MAX_BLOB_SIZE) {
+            throw new IOException("Blob without usable data");
+        }
+        byte[] raw = new byte[rawSize];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, zlibStart, zlibEnd - zlibStart);
+            int n = 0;
+            while (n < rawSize && !inflater.finished()) {
+                int k = inflater.inflate(raw, n, rawSize - n);
+                if (k == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += k;
+            }
+            if (n != rawSize) {
+                throw new IOException("Blob inflated to " + n + " bytes, expected " + rawSize);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+        return raw;
+    }
+
+    private static void checkHeader(byte[] data) throws IOException {
+        ProtoReader r = new ProtoReader(data, 0, data.length);
+        while (r.hasMore()) {
+            int tag = r.readTag();
+            if (tag == ProtoReader.tag(4, ProtoReader.LENGTH_DELIMITED)) {
+                String feature = r.readString();
+                if (!SUPPORTED_FEATURES.contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                r.skip(tag);
+            }
+        }
+    }
+
+    /**
+     * String table of a block, with the entries the graph cares about classified once.
+     */
+    private static class StringTable {
+        String[] strings;
+        boolean[] isName;
+        boolean[] isHighway;
+        boolean[] isAllowedHighway;
+    }
+
+    /**
+     * Decodes a PrimitiveBlock. The granularity and offsets come after the groups in the
+     * encoding, so the groups are only located in a first pass and decoded in a second.
+     */
+    private static OsmBlock decode(byte[] data, OsmBlock b) throws IOException {
+        ProtoReader r = new ProtoReader(data, 0, data.length);
+        int tableStart = 0;
+        int tableEnd = 0;
+        int[] groups = new int[16];
+        int groupCount = 0;
+        long granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        while (r.hasMore()) {
+            int tag = r.readTag();
+            if (tag == ProtoReader.tag(1, ProtoReader.LENGTH_DELIMITED)) {
+                int length = r.readLength();
+                tableStart = r.pos;
+                tableEnd = r.pos + length;
+                r.pos = tableEnd;
+            } else if (tag == ProtoReader.tag(2, ProtoReader.LENGTH_DELIMITED)) {
+                int length = r.readLength();
+                if (groupCount + 2 > groups.length) {
+                    groups = Arrays.copyOf(groups, groups.length * 2);
+                }
+                groups[groupCount] = r.pos;
+                groups[groupCount + 1] = r.pos + length;
+                groupCount += 2;
+                r.pos += length;
+            } else if (tag == ProtoReader.tag(17, ProtoReader.VARINT)) {
+                granularity = r.readVarint();
+            } else if (tag == ProtoReader.tag(19, ProtoReader.VARINT)) {
+                latOffset = r.readVarint();
+            } else if (tag == ProtoReader.tag(20, ProtoReader.VARINT)) {
+                lonOffset = r.readVarint();
+            } else {
+                r.skip(tag);
+            }
+        }
+
+        StringTable table = readStringTable(data, tableStart, tableEnd);
+        Coordinates c = new Coordinates(granularity, latOffset, lonOffset);
+        for (int i = 0; i < groupCount; i += 2) {
+            ProtoReader group = new ProtoReader(data, groups[i], groups[i + 1]);
+            while (group.hasMore()) {
+                int tag = group.readTag();
+                if (tag == ProtoReader.tag(1, ProtoReader.LENGTH_DELIMITED)
+                        && b.keepsNodes()) {
+                    decodeNode(group.message(), table, c, b);
+                } else if (tag == ProtoReader.tag(2, ProtoReader.LENGTH_DELIMITED)
+                        && b.keepsNodes()) {
+                    decodeDenseNodes(group.message(), table, c, b);
+                } else if (tag == ProtoReader.tag(3, ProtoReader.LENGTH_DELIMITED)) {
+                    decodeWay(group.message(), table, b);
+                } else {
+                    group.skip(tag);
+                }
+            }
+        }
+        return b;
+    }
+
+    private static StringTable readStringTable(byte[] data, int start, int end)
+            throws IOException {
+        ProtoReader r = new ProtoReader(data, start, end);
+        String[] strings = new String[256];
+        int count = 0;
+        while (r.hasMore()) {
+            int tag = r.readTag();
+            if (tag == ProtoReader.tag(1, ProtoReader.LENGTH_DELIMITED)) {
+                if (count == strings.length) {
+                    strings = Arrays.copyOf(strings, count * 2);
+                }
+                strings[count] = r.readString();
+                count += 1;
+            } else {
+                r.skip(tag);
+            }
+        }
+        StringTable table = new StringTable();
+        table.strings = Arrays.copyOf(strings, count);
+        table.isName = new boolean[count];
+        table.isHighway = new boolean[count];
+        table.isAllowedHighway = new boolean[count];
+        for (int i = 0; i < count; i += 1) {
+            table.isName[i] = table.strings[i].equals("name");
+            table.isHighway[i] = table.strings[i].equals("highway");
+            table.isAllowedHighway[i] =
+                GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.contains(table.strings[i]);
+        }
+        return table;
+    }
+
+    private static class Coordinates {
+        final long granularity;
+        final long latOffset;
+        final long lonOffset;
+
+        Coordinates(long granularity, long latOffset, long lonOffset) {
+            this.granularity = granularity;
+            this.latOffset = latOffset;
+            this.lonOffset = lonOffset;
+        }
+
+        double lat(long raw) {
+            return (latOffset + granularity * raw) / NANODEGREES;
+        }
+
+        double lon(long raw) {
+            return (lonOffset + granularity * raw) / NANODEGREES;
+        }
+    }
+
+    private static int checkIndex(long i, StringTable table) throws IOException {
+        if (i < 0 || i >= table.strings.length) {
+            throw new IOException("String table index out of range: " + i);
+        }
+        return (int) i;
+    }
+
+    private static void decodeNode(ProtoReader r, StringTable table, Coordinates c, OsmBlock b)
+            throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        ProtoReader keys = null;
+        ProtoReader vals = null;
+        while (r.hasMore()) {
+            int tag = r.readTag();
+            if (tag == ProtoReader.tag(1, ProtoReader.VARINT)) {
+                id = r.readSignedVarint();
+            } else if (tag == ProtoReader.tag(2, ProtoReader.LENGTH_DELIMITED)) {
+                keys = r.message();
+            } else if (tag == ProtoReader.tag(3, ProtoReader.LENGTH_DELIMITED)) {
+                vals = r.message();
+            } else if (tag == ProtoReader.tag(8, ProtoReader.VARINT)) {
+                lat = r.readSignedVarint();
+            } else if (tag == ProtoReader.tag(9, ProtoReader.VARINT)) {
+                lon = r.readSignedVarint();
+            } else {
+                r.skip(tag);
+            }
+        }
+        double lonDegrees = c.lon(lon);
+        double latDegrees = c.lat(lat);
+        b.addNode(id, lonDegrees, latDegrees);
+        if (keys != null && vals != null) {
+            while (keys.hasMore() && vals.hasMore()) {
+                int k = checkIndex(keys.readVarint(), table);
+                int v = checkIndex(vals.readVarint(), table);
+                if (table.isName[k]) {
+                    b.addPlace(table.strings[v], id, lonDegrees, latDegrees);
+                }
+            }
+        }
+    }
+
+    private static void decodeDenseNodes(ProtoReader r, StringTable table, Coordinates c,
+                                         OsmBlock b) throws IOException {
+        ProtoReader ids = null;
+        ProtoReader lats = null;
+        ProtoReader lons = null;
+        ProtoReader keysVals = null;
+        while (r.hasMore()) {
+            int tag = r.readTag();
+            if (tag == ProtoReader.tag(1, ProtoReader.LENGTH_DELIMITED)) {
+                ids = r.message();
+            } else if (tag == ProtoReader.tag(8, ProtoReader.LENGTH_DELIMITED)) {
+                lats = r.message();
+            } else if (tag == ProtoReader.tag(9, ProtoReader.LENGTH_DELIMITED)) {
+                lons = r.message();
+            } else if (tag == ProtoReader.tag(10, ProtoReader.LENGTH_DELIMITED)) {
+                keysVals = r.message();
+            } else {
+                r.skip(tag);
+            }
+        }
+        if (ids == null) {
+            return;
+        }
+        if (lats == null || lons == null) {
+            throw new IOException("DenseNodes without coordinates");
+        }
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        while (ids.hasMore()) {
+            id += ids.readSignedVarint();
+            lat += lats.readSignedVarint();
+            lon += lons.readSignedVarint();
+            double lonDegrees = c.lon(lon);
+            double latDegrees = c.lat(lat);
+            b.addNode(id, lonDegrees, latDegrees);
+            /* Tags of each node are key, value pairs ended by a 0. */
+            if (keysVals != null) {
+                while (keysVals.hasMore()) {
+                    int k = checkIndex(keysVals.readVarint(), table);
+                    if (k == 0) {
+                        break;
+                    }
+                    int v = checkIndex(keysVals.readVarint(), table);
+                    if (table.isName[k]) {
+                        b.addPlace(table.strings[v], id, lonDegrees, latDegrees);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void decodeWay(ProtoReader r, StringTable table, OsmBlock b)
+            throws IOException {
+        ProtoReader keys = null;
+        ProtoReader vals = null;
+        ProtoReader refs = null;
+        while (r.hasMore()) {
+            int tag = r.readTag();
+            if (tag == ProtoReader.tag(2, ProtoReader.LENGTH_DELIMITED)) {
+                keys = r.message();
+            } else if (tag == ProtoReader.tag(3, ProtoReader.LENGTH_DELIMITED)) {
+                vals = r.message();
+            } else if (tag == ProtoReader.tag(8, ProtoReader.LENGTH_DELIMITED)) {
+                refs = r.message();
+            } else {
+                r.skip(tag);
+            }
+        }
+        boolean valid = false;
+        if (keys != null && vals != null) {
+            while (keys.hasMore() && vals.hasMore()) {
+                int k = checkIndex(keys.readVarint(), table);
+                int v = checkIndex(vals.readVarint(), table);
+                if (table.isHighway[k] && table.isAllowedHighway[v]) {
+                    valid = true;
+                }
+            }
+        }
+        if (!valid) {
+            return;
+        }
+        long ref = 0;
+        while (refs != null && refs.hasMore()) {
+            ref += refs.readSignedVarint();
+            b.addRef(ref);
+        }
+        b.endWay(true);
+    }
+
+    /**
+     * Minimal protobuf wire format decoder over a slice of a byte array. Packed repeated
+     * fields are read by calling message() on them and then reading varints until
+     * hasMore() is false.
+     */
+    private static class ProtoReader {
+        static final int VARINT = 0;
+        static final int FIXED64 = 1;
+        static final int LENGTH_DELIMITED = 2;
+        static final int FIXED32 = 5;
+
+        private final byte[] data;
+        private final int end;
+        int pos;
+
+        ProtoReader(byte[] data, int start, int end) {
+            this.data = data;
+            this.pos = start;
+            this.end = end;
+        }
+
+        static int tag(int field, int wireType) {
+            return field << 3 | wireType;
+        }
+
+        boolean hasMore() {
+            return pos < end;
+        }
+
+        int readTag() throws IOException {
+            return (int) readVarint();
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    throw new IOException("Truncated varint");
+                }
+                byte b = data[pos];
+                pos += 1;
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        /**
+         * Reads a zigzag-encoded sint64.
+         */
+        long readSignedVarint() throws IOException {
+            long v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        int readLength() throws IOException {
+            long length = readVarint();
+            if (length < 0 || length > end - pos) {
+                throw new IOException("Length " + length + " past the end of the message");
+            }
+            return (int) length;
+        }
+
+        String readString() throws IOException {
+            int length = readLength();
+            String s = new String(data, pos, length, StandardCharsets.UTF_8);
+            pos += length;
+            return s;
+        }
+
+        /**
+         * Returns a reader over the length-delimited field at the current position and
+         * moves past it.
+         */
+        ProtoReader message() throws IOException {
+            int length = readLength();
+            ProtoReader r = new ProtoReader(data, pos, pos + length);
+            pos += length;
+            return r;
+        }
+
+        void skip(int tag) throws IOException {
+            switch (tag & 7) {
+                case VARINT:
+                    readVarint();
+                    break;
+                case FIXED64:
+                    pos += 8;
+                    break;
+                case LENGTH_DELIMITED:
+                    int length = readLength();
+                    pos += length;
+                    break;
+                case FIXED32:
+                    pos += 4;
+                    break;
+                default:
+                    throw new IOException("Unsupported wire type " + (tag & 7));
+            }
+            if (pos > end) {
+                throw new IOException("Field past the end of the message");
+            }
+        }
+    }
+}
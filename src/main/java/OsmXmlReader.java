@@ -0,0 +1,725 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Streaming reader for OSM XML files that fills a GraphDB the same way GraphBuildingHandler
+ * does, without going through a SAX parser. The file is memory-mapped and scanned byte by
+ * byte: element and attribute names are compared against pre-encoded byte arrays, and ids
+ * and coordinates are parsed straight from the buffer. Strings are only created for place
+ * names and for the few values that need the slow path.
+ * <p>
+ * The file is cut into chunks at the start of &lt;node&gt; and &lt;way&gt; elements, where the
+ * state of GraphBuildingHandler does not depend on anything before. The chunks are parsed
+ * in parallel into OsmBlocks, which are applied to the graph in file order.
+ * <p>
+ * Only the subset of XML found in OSM exports is understood: UTF-8 (or ASCII) input,
+ * comments, processing instructions, CDATA sections and a DOCTYPE without an internal
+ * subset. Anything else, such as a custom entity, makes read() throw an IOException so
+ * that the caller can fall back to the SAX parser. Attribute values are normalized the
+ * way SAX does it, so both readers produce exactly the same graph.
+ */
+public class OsmXmlReader {
+    private static final byte[] NODE = ascii("node");
+    private static final byte[] WAY = ascii("way");
+    private static final byte[] ND = ascii("nd");
+    private static final byte[] TAG = ascii("tag");
+    private static final byte[] ID = ascii("id");
+    private static final byte[] LON = ascii("lon");
+    private static final byte[] LAT = ascii("lat");
+    private static final byte[] REF = ascii("ref");
+    private static final byte[] K = ascii("k");
+    private static final byte[] V = ascii("v");
+    private static final byte[] HIGHWAY = ascii("highway");
+    private static final byte[] NAME = ascii("name");
+    private static final byte[] XML = ascii("xml");
+    private static final byte[][] ALLOWED_HIGHWAY_TYPES;
+
+    static {
+        ALLOWED_HIGHWAY_TYPES = new byte[GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES.size()][];
+        int i = 0;
+        for (String type : GraphBuildingHandler.ALLOWED_HIGHWAY_TYPES) {
+            ALLOWED_HIGHWAY_TYPES[i] = ascii(type);
+            i += 1;
+        }
+    }
+
+    /**
+     * Exact powers of ten; every one of them is representable as a double.
+     */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+    private static final int MAX_ATTRIBUTES = 64;
+    private static final int CHUNK_BYTES = 8 << 20;
+
+    private static final int OTHER = 0;
+    private static final int IN_NODE = 1;
+    private static final int IN_WAY = 2;
+
+    private final MappedByteBuffer buf;
+    private final int limit;
+    private final int chunkStart;
+    private final int chunkEnd;
+    private final OsmBlock block;
+
+    /* Attribute name and value ranges of the element being processed. */
+    private final int[] nameStart = new int[MAX_ATTRIBUTES];
+    private final int[] nameEnd = new int[MAX_ATTRIBUTES];
+    private final int[] valueStart = new int[MAX_ATTRIBUTES];
+    private final int[] valueEnd = new int[MAX_ATTRIBUTES];
+    private int attributeCount;
+
+    /* Same meaning as the activeState and validWay of GraphBuildingHandler. */
+    private int activeState = OTHER;
+    private boolean validWay;
+    private long id;
+    private double lon;
+    private double lat;
+
+    /**
+     * Parser for the elements starting in [chunkStart, chunkEnd) of buf, filling block.
+     */
+    private OsmXmlReader(MappedByteBuffer buf, int chunkStart, int chunkEnd, OsmBlock block) {
+        this.buf = buf;
+        this.limit = buf.limit();
+        this.chunkStart = chunkStart;
+        this.chunkEnd = chunkEnd;
+        this.block = block;
+    }
+
+    /**
+     * Reads the OSM XML file into g. With twoPass, the file is parsed twice: first only
+     * the ways, to find the nodes that are on roads, and then everything, keeping only
+     * those nodes. Throws an IOException if the file cannot be read or uses XML features
+     * this reader does not support; g may then be partially filled.
+     */
+    static void read(File file, GraphDB g, boolean twoPass) throws IOException {
+        read(file, g, twoPass, CHUNK_BYTES);
+    }
+
+    static void read(File file, GraphDB g, boolean twoPass, int chunkBytes)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size());
+            int[] chunks = split(buf, chunkBytes);
+
+            Supplier<OsmBlock> blocks = OsmBlock::all;
+            if (twoPass) {
+                LongHashSet roadNodes = new LongHashSet();
+                readChunks(buf, chunks, OsmBlock::waysOnly, b -> b.addRoadNodesTo(roadNodes));
+                blocks = () -> OsmBlock.roads(roadNodes);
+            }
+            readChunks(buf, chunks, blocks, b -> b.apply(g));
+        }
+    }
+
+    /**
+     * Parses the chunks of buf in parallel and passes their blocks to apply in file order.
+     */
+    private static void readChunks(MappedByteBuffer buf, int[] chunks,
+                                   Supplier<OsmBlock> blocks, Consumer<OsmBlock> apply)
+            throws IOException {
+        Assembler assembler = new Assembler(apply);
+        try (OrderedPipeline<Chunk> pipeline = new OrderedPipeline<>("xml-parser",
+                assembler)) {
+            for (int i = 0; i + 1 < chunks.length; i += 1) {
+                OsmXmlReader reader = new OsmXmlReader(buf, chunks[i], chunks[i + 1],
+                        blocks.get());
+                pipeline.submit(reader::parseChunk);
+            }
+            pipeline.finish();
+        }
+        assembler.finish(buf, blocks);
+    }
+
+    /**
+     * A parsed chunk: where it starts, its block, and where its last piece of markup
+     * ended, or the error that stopped it.
+     */
+    private static class Chunk {
+        final int start;
+        final OsmBlock block;
+        int end;
+        IOException error;
+
+        Chunk(int start, OsmBlock block) {
+            this.start = start;
+            this.block = block;
+        }
+    }
+
+    /**
+     * Takes parsed chunks in file order and applies their blocks, each one only once the
+     * next chunk has been seen to start where it ended.
+     * <p>
+     * split() only looks at a few bytes around a boundary, so one can land on something
+     * like "&lt;node " inside a comment, CDATA section or processing instruction. The chunk
+     * before it then runs past its end to finish that markup, and the chunk after it was
+     * parsed out of context. From the last good boundary on, the chunks are dropped and
+     * the rest of the file is parsed again on the calling thread. A parse error only
+     * counts once the chunk it comes from is known to start at a good boundary.
+     */
+    private static class Assembler implements Consumer<Chunk> {
+        private final Consumer<OsmBlock> apply;
+        private Chunk pending;
+        private int resumeAt = -1;
+        private IOException error;
+
+        Assembler(Consumer<OsmBlock> apply) {
+            this.apply = apply;
+        }
+
+        @Override
+        public void accept(Chunk chunk) {
+            if (resumeAt >= 0 || error != null) {
+                return;
+            }
+            if (pending != null) {
+                if (chunk.start < pending.end) {
+                    resumeAt = pending.start;
+                    pending = null;
+                    return;
+                }
+                apply.accept(pending.block);
+                pending = null;
+            }
+            if (chunk.error != null) {
+                error = chunk.error;
+            } else {
+                pending = chunk;
+            }
+        }
+
+        /**
+         * Applies the last chunk, or parses the rest of the file after a bad boundary, or
+         * throws the error of a chunk.
+         */
+        void finish(MappedByteBuffer buf, Supplier<OsmBlock> blocks) throws IOException {
+            if (error != null) {
+                throw error;
+            }
+            if (resumeAt >= 0) {
+                OsmXmlReader rest = new OsmXmlReader(buf, resumeAt, buf.limit(), blocks.get());
+                rest.parse();
+                apply.accept(rest.block);
+            } else if (pending != null) {
+                apply.accept(pending.block);
+            }
+        }
+    }
+
+    /**
+     * Returns the chunk boundaries for chunks of about chunkBytes each, starting with 0
+     * and ending with the size of buf. Every other boundary is the '<' of what looks like a
+     * &lt;node&gt; or &lt;way&gt; start tag; see Assembler for when it is not one.
+     */
+    static int[] split(MappedByteBuffer buf, int chunkBytes) {
+        int limit = buf.limit();
+        int count = Math.max(1, limit / chunkBytes);
+        int[] chunks = new int[count + 1];
+        int n = 1;
+        for (int i = 1; i < count; i += 1) {
+            int p = Math.max((int) ((long) limit * i / count), chunks[n - 1] + 1);
+            while (p < limit && !isChunkStart(buf, p)) {
+                p += 1;
+            }
+            if (p >= limit) {
+                break;
+            }
+            chunks[n] = p;
+            n += 1;
+        }
+        chunks[n] = limit;
+        return Arrays.copyOf(chunks, n + 1);
+    }
+
+    private static boolean isChunkStart(MappedByteBuffer buf, int p) {
+        if (buf.get(p) != '<') {
+            return false;
+        }
+        int nameLength;
+        if (p + 5 < buf.limit() && buf.get(p + 1) == 'n' && buf.get(p + 2) == 'o'
+                && buf.get(p + 3) == 'd' && buf.get(p + 4) == 'e') {
+            nameLength = 4;
+        } else if (p + 4 < buf.limit() && buf.get(p + 1) == 'w' && buf.get(p + 2) == 'a'
+                && buf.get(p + 3) == 'y') {
+            nameLength = 3;
+        } else {
+            return false;
+        }
+        byte next = buf.get(p + 1 + nameLength);
+        return next == ' ' || next == '\t' || next == '\n' || next == '\r' || next == '>'
+                || next == '/';
+    }
+
+    private Chunk parseChunk() {
+        Chunk chunk = new Chunk(chunkStart, block);
+        try {
+            chunk.end = parse();
+        } catch (IOException e) {
+            chunk.error = e;
+        }
+        return chunk;
+    }
+
+    /**
+     * Parses the elements starting in the chunk into block. Returns where the last piece
+     * of markup ended: chunkEnd, or past it if that markup runs into the next chunk.
+     */
+    private int parse() throws IOException {
+        int p = chunkStart;
+        if (p == 0 && limit >= 3 && (buf.get(0) & 0xff) == 0xef
+                && (buf.get(1) & 0xff) == 0xbb && (buf.get(2) & 0xff) == 0xbf) {
+            p = 3;
+        }
+        while (true) {
+            while (p < chunkEnd && buf.get(p) != '<') {
+                p += 1;
+            }
+            if (p >= chunkEnd) {
+                return p;
+            }
+            p += 1;
+            byte b = byteAt(p);
+            if (b == '?') {
+                p = processingInstruction(p + 1);
+            } else if (b == '!') {
+                p = markupDeclaration(p + 1);
+            } else if (b == '/') {
+                int start = p + 1;
+                int end = nameEnd(start);
+                if (matches(start, end, WAY)) {
+                    endWay();
+                }
+                p = indexOf('>', end) + 1;
+            } else {
+                p = element(p);
+            }
+        }
+    }
+
+    private int processingInstruction(int p) throws IOException {
+        int start = p;
+        int end = nameEnd(start);
+        int close = indexOf('?', end);
+        while (byteAt(close + 1) != '>') {
+            close = indexOf('?', close + 1);
+        }
+        if (matches(start, end, XML)) {
+            String declaration = decode(end, close).toLowerCase();
+            int enc = declaration.indexOf("encoding");
+            if (enc >= 0) {
+                String rest = declaration.substring(enc);
+                if (!rest.matches("encoding\\s*=\\s*[\"'](utf-8|us-ascii)[\"'][\\s\\S]*")) {
+                    throw new IOException("Unsupported encoding: " + rest);
+                }
+            }
+        }
+        return close + 2;
+    }
+
+    private int markupDeclaration(int p) throws IOException {
+        if (startsWith(p, "--")) {
+            int close = indexOf('-', p + 2);
+            while (byteAt(close + 1) != '-' || byteAt(close + 2) != '>') {
+                close = indexOf('-', close + 1);
+            }
+            return close + 3;
+        } else if (startsWith(p, "[CDATA[")) {
+            int close = indexOf(']', p + 7);
+            while (byteAt(close + 1) != ']' || byteAt(close + 2) != '>') {
+                close = indexOf(']', close + 1);
+            }
+            return close + 3;
+        } else if (startsWith(p, "DOCTYPE")) {
+            int close = p;
+            byte quote = 0;
+            for (; ; close += 1) {
+                byte b = byteAt(close);
+                if (quote != 0) {
+                    if (b == quote) {
+                        quote = 0;
+                    }
+                } else if (b == '"' || b == '\'') {
+                    quote = b;
+                } else if (b == '[') {
+                    throw new IOException("DOCTYPE internal subsets are not supported");
+                } else if (b == '>') {
+                    return close + 1;
+                }
+            }
+        }
+        throw new IOException("Unexpected markup at byte " + p);
+    }
+
+    /**
+     * Parses the start tag beginning with the element name at p, dispatches it, and returns
+     * the position just past it.
+     */
+    private int element(int p) throws IOException {
+        int start = p;
+        int end = nameEnd(start);
+        if (end == start) {
+            throw new IOException("Missing element name at byte " + p);
+        }
+        attributeCount = 0;
+        p = end;
+        boolean empty;
+        while (true) {
+            p = skipWhitespace(p);
+            byte b = byteAt(p);
+            if (b == '>') {
+                empty = false;
+                p += 1;
+                break;
+            } else if (b == '/' && byteAt(p + 1) == '>') {
+                empty = true;
+                p += 2;
+                break;
+            }
+            if (attributeCount == MAX_ATTRIBUTES) {
+                throw new IOException("Too many attributes at byte " + p);
+            }
+            nameStart[attributeCount] = p;
+            p = nameEnd(p);
+            if (p == nameStart[attributeCount]) {
+                throw new IOException("Malformed attribute at byte " + p);
+            }
+            nameEnd[attributeCount] = p;
+            p = skipWhitespace(p);
+            if (byteAt(p) != '=') {
+                throw new IOException("Malformed attribute at byte " + p);
+            }
+            p = skipWhitespace(p + 1);
+            byte quote = byteAt(p);
+            if (quote != '"' && quote != '\'') {
+                throw new IOException("Unquoted attribute value at byte " + p);
+            }
+            valueStart[attributeCount] = p + 1;
+            p = indexOf(quote, p + 1);
+            valueEnd[attributeCount] = p;
+            p += 1;
+            attributeCount += 1;
+        }
+
+        startElement(start, end);
+        if (empty && matches(start, end, WAY)) {
+            endWay();
+        }
+        return p;
+    }
+
+    /**
+     * Mirrors GraphBuildingHandler.startElement.
+     */
+    private void startElement(int start, int end) throws IOException {
+        if (matches(start, end, NODE)) {
+            activeState = IN_NODE;
+            if (block.keepsNodes()) {
+                id = parseLong(required(ID));
+                lon = parseDouble(required(LON));
+                lat = parseDouble(required(LAT));
+                block.addNode(id, lon, lat);
+            }
+        } else if (matches(start, end, WAY)) {
+            activeState = IN_WAY;
+        } else if (activeState == IN_WAY && matches(start, end, ND)) {
+            block.addRef(parseLong(required(REF)));
+        } else if (activeState == IN_WAY && matches(start, end, TAG)) {
+            int k = required(K);
+            int v = attribute(V);
+            if (valueEquals(k, HIGHWAY) && v >= 0) {
+                for (byte[] type : ALLOWED_HIGHWAY_TYPES) {
+                    if (valueEquals(v, type)) {
+                        validWay = true;
+                        break;
+                    }
+                }
+            }
+        } else if (activeState == IN_NODE && matches(start, end, TAG)
+                && block.keepsNodes()) {
+            int k = required(K);
+            if (valueEquals(k, NAME)) {
+                block.addPlace(decode(valueStart[required(V)], valueEnd[required(V)]), id,
+                        lon, lat);
+            }
+        }
+    }
+
+    /**
+     * Mirrors GraphBuildingHandler.endElement.
+     */
+    private void endWay() {
+        block.endWay(validWay);
+        validWay = false;
+    }
+
+    /**
+     * Index of the attribute with the given name on the current element, or -1.
+     */
+    private int attribute(byte[] name) {
+        for (int i = 0; i < attributeCount; i += 1) {
+            if (matches(nameStart[i], nameEnd[i], name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Same as attribute, but a missing attribute is an error. GraphBuildingHandler would
+     * fail on it with an unchecked exception, so leave that to the SAX fallback.
+     */
+    private int required(byte[] name) throws IOException {
+        int i = attribute(name);
+        if (i < 0) {
+            throw new IOException("Missing attribute " + new String(name,
+                    StandardCharsets.US_ASCII));
+        }
+        return i;
+    }
+
+    /**
+     * Whether the normalized value of attribute i equals the ASCII string expected.
+     */
+    private boolean valueEquals(int i, byte[] expected) throws IOException {
+        int start = valueStart[i];
+        int end = valueEnd[i];
+        if (containsReference(start, end)) {
+            return decode(start, end).equals(new String(expected, StandardCharsets.US_ASCII));
+        }
+        return matches(start, end, expected);
+    }
+
+    private long parseLong(int i) throws IOException {
+        int start = valueStart[i];
+        int end = valueEnd[i];
+        int p = start;
+        boolean negative = false;
+        if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+            negative = buf.get(p) == '-';
+            p += 1;
+        }
+        if (p == end || end - p > 18) {
+            return Long.parseLong(decode(start, end));
+        }
+        long value = 0;
+        for (; p < end; p += 1) {
+            int d = buf.get(p) - '0';
+            if (d < 0 || d > 9) {
+                return Long.parseLong(decode(start, end));
+            }
+            value = value * 10 + d;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses plain decimals such as <code>-122.2584747</code> as mantissa / 10^k, which is
+     * exactly rounded as long as both the mantissa and the power of ten are exact doubles.
+     * Everything else goes through Double.parseDouble.
+     */
+    private double parseDouble(int i) throws IOException {
+        int start = valueStart[i];
+        int end = valueEnd[i];
+        int p = start;
+        boolean negative = false;
+        if (p < end && (buf.get(p) == '-' || buf.get(p) == '+')) {
+            negative = buf.get(p) == '-';
+            p += 1;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; p < end; p += 1) {
+            byte b = buf.get(p);
+            if (b >= '0' && b <= '9') {
+                if (digits == 18) {
+                    return Double.parseDouble(decode(start, end));
+                }
+                mantissa = mantissa * 10 + (b - '0');
+                digits += 1;
+                if (fractionDigits >= 0) {
+                    fractionDigits += 1;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return Double.parseDouble(decode(start, end));
+            }
+        }
+        if (digits == 0 || mantissa > MAX_EXACT_MANTISSA
+                || fractionDigits >= POWERS_OF_TEN.length) {
+            return Double.parseDouble(decode(start, end));
+        }
+        double value = fractionDigits > 0
+                ? mantissa / POWERS_OF_TEN[fractionDigits] : (double) mantissa;
+        return negative ? -value : value;
+    }
+
+    private boolean containsReference(int start, int end) {
+        for (int p = start; p < end; p += 1) {
+            byte b = buf.get(p);
+            if (b == '&' || b == '\t' || b == '\n' || b == '\r' || b < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Decodes the UTF-8 bytes in [start, end) as an attribute value: literal tabs, line
+     * breaks and carriage returns become spaces, and character and predefined entity
+     * references are resolved.
+     */
+    private String decode(int start, int end) throws IOException {
+        byte[] bytes = new byte[end - start];
+        for (int p = start; p < end; p += 1) {
+            bytes[p - start] = buf.get(p);
+        }
+        String raw = new String(bytes, StandardCharsets.UTF_8);
+        StringBuilder sb = null;
+        for (int i = 0; i < raw.length(); i += 1) {
+            char c = raw.charAt(i);
+            if (c != '&' && c != '\t' && c != '\n' && c != '\r') {
+                if (sb != null) {
+                    sb.append(c);
+                }
+                continue;
+            }
+            if (sb == null) {
+                sb = new StringBuilder(raw.length());
+                sb.append(raw, 0, i);
+            }
+            if (c == '\r') {
+                if (i + 1 < raw.length() && raw.charAt(i + 1) == '\n') {
+                    i += 1;
+                }
+                sb.append(' ');
+            } else if (c != '&') {
+                sb.append(' ');
+            } else {
+                int semicolon = raw.indexOf(';', i);
+                if (semicolon < 0) {
+                    throw new IOException("Unterminated reference: " + raw);
+                }
+                String ref = raw.substring(i + 1, semicolon);
+                i = semicolon;
+                if (ref.startsWith("#x")) {
+                    sb.appendCodePoint(codePoint(ref.substring(2), 16));
+                } else if (ref.startsWith("#")) {
+                    sb.appendCodePoint(codePoint(ref.substring(1), 10));
+                } else if (ref.equals("amp")) {
+                    sb.append('&');
+                } else if (ref.equals("lt")) {
+                    sb.append('<');
+                } else if (ref.equals("gt")) {
+                    sb.append('>');
+                } else if (ref.equals("quot")) {
+                    sb.append('"');
+                } else if (ref.equals("apos")) {
+                    sb.append('\'');
+                } else {
+                    throw new IOException("Unknown entity: &" + ref + ";");
+                }
+            }
+        }
+        return sb == null ? raw : sb.toString();
+    }
+
+    private static int codePoint(String digits, int radix) throws IOException {
+        try {
+            int c = Integer.parseInt(digits, radix);
+            if (!Character.isValidCodePoint(c)) {
+                throw new IOException("Invalid character reference: " + digits);
+            }
+            return c;
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid character reference: " + digits, e);
+        }
+    }
+
+    private boolean matches(int start, int end, byte[] name) {
+        if (end - start != name.length) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i += 1) {
+            if (buf.get(start + i) != name[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean startsWith(int p, String prefix) {
+        if (p + prefix.length() > limit) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i += 1) {
+            if (buf.get(p + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Position just past the XML name starting at p.
+     */
+    private int nameEnd(int p) {
+        while (p < limit) {
+            byte b = buf.get(p);
+            if (b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '>' || b == '/'
+                    || b == '=' || b == '?') {
+                break;
+            }
+            p += 1;
+        }
+        return p;
+    }
+
+    private int skipWhitespace(int p) {
+        while (p < limit) {
+            byte b = buf.get(p);
+            if (b != ' ' && b != '\t' && b != '\n' && b != '\r') {
+                break;
+            }
+            p += 1;
+        }
+        return p;
+    }
+
+    private int indexOf(int b, int p) throws IOException {
+        while (p < limit) {
+            if (buf.get(p) == b) {
+                return p;
+            }
+            p += 1;
+        }
+        throw new IOException("Unexpected end of file looking for '" + (char) b + "'");
+    }
+
+    private byte byteAt(int p) throws IOException {
+        if (p >= limit) {
+            throw new IOException("Unexpected end of file");
+        }
+        return buf.get(p);
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
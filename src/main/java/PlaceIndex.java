@@ -0,0 +1,527 @@
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Autocomplete index over the cleaned place names (see GraphDB.cleanString), built once
+ * all places are known. It is a radix trie stored in flat arrays: the distinct cleaned
+ * names are sorted, so the names below any trie node form a contiguous range of that
+ * array, and each node only stores its edge label (as a slice of one of the names), its
+ * children, its range, and a precomputed list of its TOP_K best names.
+ * <p>
+ * A name ranks higher the more places carry it, with ties broken alphabetically. Finding
+ * the node of a prefix takes O(prefix length) steps, after which the best k completions
+ * are read off its top list, and all completions off its range. Fuzzy lookups walk the
+ * trie with a Levenshtein automaton for the query instead, and only descend into
+ * branches that can still be within the allowed number of edits.
+ */
+public class PlaceIndex {
+    /**
+     * Length of the precomputed top list of every node.
+     */
+    static final int TOP_K = 10;
+
+    /* Distinct cleaned names, sorted; raw names of entry e are raw[rawStart[e]] up to
+     * raw[rawStart[e + 1]], in the order they were first seen. */
+    private final String[] names;
+    private final int[] rawStart;
+    private final String[] raw;
+    /* Position of each entry in the ranking; lower is better. */
+    private final int[] rank;
+
+    /* Node 0 is the root. The edge into node v is the slice [labelStart[v], depth[v]) of
+     * names[rangeStart[v]]; its children are firstChild[v] up to firstChild[v + 1]. */
+    private final int[] depth;
+    private final int[] labelStart;
+    private final int[] firstChild;
+    private final int[] rangeStart;
+    private final int[] rangeEnd;
+    /* The top list of node v is top[topStart[v]] up to top[topStart[v + 1]]. */
+    private final int[] topStart;
+    private final int[] top;
+    private final int longestName;
+
+    private PlaceIndex(String[] names, int[] rawStart, String[] raw, int[] rank, int[] depth,
+                       int[] labelStart, int[] firstChild, int[] rangeStart, int[] rangeEnd,
+                       int[] topStart, int[] top) {
+        this.names = names;
+        this.rawStart = rawStart;
+        this.raw = raw;
+        this.rank = rank;
+        this.depth = depth;
+        this.labelStart = labelStart;
+        this.firstChild = firstChild;
+        this.rangeStart = rangeStart;
+        this.rangeEnd = rangeEnd;
+        this.topStart = topStart;
+        this.top = top;
+        int longest = 0;
+        for (String name : names) {
+            longest = Math.max(longest, name.length());
+        }
+        this.longestName = longest;
+    }
+
+    /**
+     * Builds the index over places, which maps cleaned names to the places carrying them
+     * as GraphDB.places does.
+     */
+    static PlaceIndex build(Map<String, ? extends List<Map<String, Object>>> places) {
+        TreeMap<String, List<Map<String, Object>>> sorted = new TreeMap<>();
+        for (Map.Entry<String, ? extends List<Map<String, Object>>> e : places.entrySet()) {
+            if (!e.getKey().isEmpty()) {
+                sorted.put(e.getKey(), e.getValue());
+            }
+        }
+        int n = sorted.size();
+        String[] names = new String[n];
+        int[] rawStart = new int[n + 1];
+        int[] score = new int[n];
+        ArrayList<String> raw = new ArrayList<>();
+        int e = 0;
+        for (Map.Entry<String, List<Map<String, Object>>> entry : sorted.entrySet()) {
+            names[e] = entry.getKey();
+            LinkedHashSet<String> distinct = new LinkedHashSet<>();
+            for (Map<String, Object> place : entry.getValue()) {
+                distinct.add((String) place.get("name"));
+            }
+            raw.addAll(distinct);
+            rawStart[e + 1] = raw.size();
+            score[e] = entry.getValue().size();
+            e += 1;
+        }
+
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i += 1) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> score[a] != score[b]
+                ? Integer.compare(score[b], score[a]) : Integer.compare(a, b));
+        int[] rank = new int[n];
+        for (int i = 0; i < n; i += 1) {
+            rank[order[i]] = i;
+        }
+
+        Builder b = new Builder(names, rank);
+        b.build();
+        return new PlaceIndex(names, rawStart, raw.toArray(new String[0]), rank,
+                Arrays.copyOf(b.depth, b.nodes), Arrays.copyOf(b.labelStart, b.nodes),
+                Arrays.copyOf(b.firstChild, b.nodes + 1), Arrays.copyOf(b.rangeStart, b.nodes),
+                Arrays.copyOf(b.rangeEnd, b.nodes), b.topStart, b.top);
+    }
+
+    /**
+     * Lays out the trie breadth-first, so the children of every node are adjacent.
+     */
+    private static class Builder {
+        private final String[] names;
+        private final int[] rank;
+        int nodes;
+        int[] depth = new int[16];
+        int[] labelStart = new int[16];
+        int[] firstChild = new int[17];
+        int[] rangeStart = new int[16];
+        int[] rangeEnd = new int[16];
+        int[] topStart;
+        int[] top;
+
+        Builder(String[] names, int[] rank) {
+            this.names = names;
+            this.rank = rank;
+        }
+
+        void build() {
+            addNode(0, 0, 0, names.length);
+            for (int v = 0; v < nodes; v += 1) {
+                firstChild[v] = nodes;
+                int lo = rangeStart[v];
+                int hi = rangeEnd[v];
+                int d = depth[v];
+                if (lo < hi && names[lo].length() == d) {
+                    lo += 1;
+                }
+                while (lo < hi) {
+                    char c = names[lo].charAt(d);
+                    int end = lo + 1;
+                    while (end < hi && names[end].charAt(d) == c) {
+                        end += 1;
+                    }
+                    addNode(d, commonPrefix(names[lo], names[end - 1]), lo, end);
+                    lo = end;
+                }
+            }
+            firstChild[nodes] = nodes;
+
+            /* Top lists bottom-up: children come after their parent in the layout. */
+            int[][] lists = new int[nodes][];
+            int total = 0;
+            for (int v = nodes - 1; v >= 0; v -= 1) {
+                int[] candidates = new int[1 + (firstChild[v + 1] - firstChild[v]) * TOP_K];
+                int count = 0;
+                if (rangeStart[v] < rangeEnd[v] && names[rangeStart[v]].length() == depth[v]) {
+                    candidates[count] = rangeStart[v];
+                    count += 1;
+                }
+                for (int w = firstChild[v]; w < firstChild[v + 1]; w += 1) {
+                    for (int entry : lists[w]) {
+                        candidates[count] = entry;
+                        count += 1;
+                    }
+                }
+                lists[v] = best(candidates, count);
+                total += lists[v].length;
+            }
+            topStart = new int[nodes + 1];
+            top = new int[total];
+            for (int v = 0; v < nodes; v += 1) {
+                topStart[v + 1] = topStart[v] + lists[v].length;
+                System.arraycopy(lists[v], 0, top, topStart[v], lists[v].length);
+            }
+        }
+
+        /**
+         * The at most TOP_K best ranked of the first count candidates, best first.
+         */
+        private int[] best(int[] candidates, int count) {
+            Integer[] sorted = new Integer[count];
+            for (int i = 0; i < count; i += 1) {
+                sorted[i] = candidates[i];
+            }
+            Arrays.sort(sorted, (a, b) -> Integer.compare(rank[a], rank[b]));
+            int[] result = new int[Math.min(TOP_K, count)];
+            for (int i = 0; i < result.length; i += 1) {
+                result[i] = sorted[i];
+            }
+            return result;
+        }
+
+        private void addNode(int parentDepth, int nodeDepth, int lo, int hi) {
+            if (nodes == depth.length) {
+                depth = Arrays.copyOf(depth, nodes * 2);
+                labelStart = Arrays.copyOf(labelStart, nodes * 2);
+                firstChild = Arrays.copyOf(firstChild, nodes * 2 + 1);
+                rangeStart = Arrays.copyOf(rangeStart, nodes * 2);
+                rangeEnd = Arrays.copyOf(rangeEnd, nodes * 2);
+            }
+            labelStart[nodes] = parentDepth;
+            depth[nodes] = nodeDepth;
+            rangeStart[nodes] = lo;
+            rangeEnd[nodes] = hi;
+            nodes += 1;
+        }
+
+        private static int commonPrefix(String a, String b) {
+            int n = Math.min(a.length(), b.length());
+            int i = 0;
+            while (i < n && a.charAt(i) == b.charAt(i)) {
+                i += 1;
+            }
+            return i;
+        }
+    }
+
+    /**
+     * Returns the trie node whose subtree holds exactly the names starting with the
+     * cleaned prefix, or -1 if there are none. A prefix without any letters matches
+     * nothing.
+     */
+    private int find(String prefix) {
+        if (prefix.isEmpty()) {
+            return -1;
+        }
+        int v = 0;
+        int i = 0;
+        while (i < prefix.length()) {
+            char c = prefix.charAt(i);
+            int next = -1;
+            for (int w = firstChild[v]; w < firstChild[v + 1]; w += 1) {
+                if (names[rangeStart[w]].charAt(labelStart[w]) == c) {
+                    next = w;
+                    break;
+                }
+            }
+            if (next < 0) {
+                return -1;
+            }
+            String name = names[rangeStart[next]];
+            int end = Math.min(depth[next], prefix.length());
+            for (; i < end; i += 1) {
+                if (name.charAt(i) != prefix.charAt(i)) {
+                    return -1;
+                }
+            }
+            v = next;
+        }
+        return v;
+    }
+
+    /**
+     * Returns the full names of all places whose cleaned name starts with the cleaned
+     * prefix, in order of their cleaned names.
+     */
+    List<String> prefixMatches(String prefix) {
+        ArrayList<String> result = new ArrayList<>();
+        int v = find(GraphDB.cleanString(prefix));
+        if (v < 0) {
+            return result;
+        }
+        for (int r = rawStart[rangeStart[v]]; r < rawStart[rangeEnd[v]]; r += 1) {
+            result.add(raw[r]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the full names of the at most k best ranked places whose cleaned name starts
+     * with the cleaned prefix, best first. For k up to TOP_K this only reads the
+     * precomputed top list of the prefix; larger k rank all the matches.
+     */
+    List<String> topMatches(String prefix, int k) {
+        ArrayList<String> result = new ArrayList<>();
+        int v = find(GraphDB.cleanString(prefix));
+        if (v < 0 || k <= 0) {
+            return result;
+        }
+        int[] entries;
+        if (k <= TOP_K || rangeEnd[v] - rangeStart[v] <= topStart[v + 1] - topStart[v]) {
+            entries = Arrays.copyOfRange(top, topStart[v], topStart[v + 1]);
+        } else {
+            Integer[] all = new Integer[rangeEnd[v] - rangeStart[v]];
+            for (int i = 0; i < all.length; i += 1) {
+                all[i] = rangeStart[v] + i;
+            }
+            Arrays.sort(all, (a, b) -> Integer.compare(rank[a], rank[b]));
+            entries = new int[all.length];
+            for (int i = 0; i < all.length; i += 1) {
+                entries[i] = all[i];
+            }
+        }
+        for (int e : entries) {
+            for (int r = rawStart[e]; r < rawStart[e + 1] && result.size() < k; r += 1) {
+                result.add(raw[r]);
+            }
+            if (result.size() == k) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Number of edits allowed for a query of the given length: none below 3 letters, and
+     * at most one per 3 letters beyond that, so that short queries do not match
+     * everything.
+     */
+    static int allowedEdits(int queryLength, int maxEdits) {
+        return Math.max(0, Math.min(maxEdits, queryLength / 3));
+    }
+
+    /**
+     * Returns the full names of the at most k best places whose cleaned name starts with
+     * something within allowedEdits(maxEdits) insertions, deletions or substitutions of
+     * the cleaned prefix. Names closer to the prefix come first, and names at the same
+     * distance in ranking order. Candidates are taken from the top lists of the matching
+     * trie nodes, so k should not exceed TOP_K.
+     */
+    List<String> fuzzyMatches(String prefix, int maxEdits, int k) {
+        ArrayList<String> result = new ArrayList<>();
+        String q = GraphDB.cleanString(prefix);
+        if (q.isEmpty() || k <= 0) {
+            return result;
+        }
+        Fuzzy f = new Fuzzy(q, allowedEdits(q.length(), maxEdits));
+        f.search(0);
+        HashMap<Integer, Integer> distance = new HashMap<>();
+        for (int i = 0; i < f.nodeHits.size(); i += 1) {
+            int v = f.nodeHits.get(i);
+            int d = f.nodeHitDistances.get(i);
+            for (int t = topStart[v]; t < topStart[v + 1]; t += 1) {
+                distance.merge(top[t], d, Math::min);
+            }
+        }
+        for (int e : ranked(distance)) {
+            for (int r = rawStart[e]; r < rawStart[e + 1] && result.size() < k; r += 1) {
+                result.add(raw[r]);
+            }
+            if (result.size() == k) {
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the cleaned names within allowedEdits(maxEdits) edits of the cleaned name,
+     * closest first and in ranking order at the same distance.
+     */
+    List<String> fuzzyNames(String name, int maxEdits) {
+        ArrayList<String> result = new ArrayList<>();
+        String q = GraphDB.cleanString(name);
+        if (q.isEmpty()) {
+            return result;
+        }
+        Fuzzy f = new Fuzzy(q, allowedEdits(q.length(), maxEdits));
+        f.search(0);
+        for (int e : ranked(f.nameHits)) {
+            result.add(names[e]);
+        }
+        return result;
+    }
+
+    /**
+     * Entries of distance ordered by distance, then rank.
+     */
+    private List<Integer> ranked(Map<Integer, Integer> distance) {
+        ArrayList<Integer> entries = new ArrayList<>(distance.keySet());
+        entries.sort((a, b) -> {
+            int da = distance.get(a);
+            int db = distance.get(b);
+            return da != db ? Integer.compare(da, db) : Integer.compare(rank[a], rank[b]);
+        });
+        return entries;
+    }
+
+    /**
+     * Depth-first walk of the trie that keeps one row of the Levenshtein table between the
+     * query and the path to the current position per trie depth, which is the state of a
+     * Levenshtein automaton for the query. A branch is abandoned as soon as every cell of
+     * its row exceeds the allowed number of edits.
+     */
+    private class Fuzzy {
+        private final String q;
+        private final int maxEdits;
+        private final int[][] rows;
+        /* Nodes whose path has a prefix within maxEdits of q, with the best distance. */
+        final ArrayList<Integer> nodeHits = new ArrayList<>();
+        final ArrayList<Integer> nodeHitDistances = new ArrayList<>();
+        /* Entries whose whole name is within maxEdits of q, with the distance. */
+        final HashMap<Integer, Integer> nameHits = new HashMap<>();
+
+        Fuzzy(String q, int maxEdits) {
+            this.q = q;
+            this.maxEdits = maxEdits;
+            rows = new int[longestName + 1][q.length() + 1];
+            for (int j = 0; j <= q.length(); j += 1) {
+                rows[0][j] = j;
+            }
+        }
+
+        void search(int v) {
+            int m = q.length();
+            int best = v == 0 ? rows[0][m] : Integer.MAX_VALUE;
+            String label = names[rangeStart[v]];
+            for (int i = labelStart[v]; i < depth[v]; i += 1) {
+                int[] prev = rows[i];
+                int[] row = rows[i + 1];
+                char c = label.charAt(i);
+                row[0] = prev[0] + 1;
+                int min = row[0];
+                for (int j = 1; j <= m; j += 1) {
+                    int cost = prev[j - 1] + (q.charAt(j - 1) == c ? 0 : 1);
+                    row[j] = Math.min(cost, Math.min(prev[j], row[j - 1]) + 1);
+                    min = Math.min(min, row[j]);
+                }
+                if (min > maxEdits) {
+                    /* The path may still have matched partway along the label. */
+                    addNodeHit(v, best);
+                    return;
+                }
+                best = Math.min(best, row[m]);
+            }
+            addNodeHit(v, best);
+            int own = rangeStart[v];
+            if (own < rangeEnd[v] && names[own].length() == depth[v]
+                    && rows[depth[v]][m] <= maxEdits) {
+                nameHits.put(own, rows[depth[v]][m]);
+            }
+            for (int w = firstChild[v]; w < firstChild[v + 1]; w += 1) {
+                search(w);
+            }
+        }
+
+        /**
+         * Records v if the best distance of a prefix of its path is within maxEdits.
+         */
+        private void addNodeHit(int v, int best) {
+            if (best <= maxEdits) {
+                nodeHits.add(v);
+                nodeHitDistances.add(best);
+            }
+        }
+    }
+
+    /**
+     * Writes the index in the format read() expects.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(names.length);
+        for (String name : names) {
+            writeString(out, name);
+        }
+        writeInts(out, rawStart);
+        out.writeInt(raw.length);
+        for (String r : raw) {
+            writeString(out, r);
+        }
+        writeInts(out, rank);
+        writeInts(out, depth);
+        writeInts(out, labelStart);
+        writeInts(out, firstChild);
+        writeInts(out, rangeStart);
+        writeInts(out, rangeEnd);
+        writeInts(out, topStart);
+        writeInts(out, top);
+    }
+
+    /**
+     * Reads an index written by write() from buf, advancing its position.
+     */
+    static PlaceIndex read(ByteBuffer buf) {
+        String[] names = new String[buf.getInt()];
+        for (int i = 0; i < names.length; i += 1) {
+            names[i] = readString(buf);
+        }
+        int[] rawStart = readInts(buf);
+        String[] raw = new String[buf.getInt()];
+        for (int i = 0; i < raw.length; i += 1) {
+            raw[i] = readString(buf);
+        }
+        return new PlaceIndex(names, rawStart, raw, readInts(buf), readInts(buf),
+                readInts(buf), readInts(buf), readInts(buf), readInts(buf), readInts(buf),
+                readInts(buf));
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        byte[] bytes = new byte[buf.getInt()];
+        buf.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeInts(DataOutputStream out, int[] a) throws IOException {
+        out.writeInt(a.length);
+        for (int x : a) {
+            out.writeInt(x);
+        }
+    }
+
+    private static int[] readInts(ByteBuffer buf) {
+        int[] a = new int[buf.getInt()];
+        buf.asIntBuffer().get(a);
+        buf.position(buf.position() + 4 * a.length);
+        return a;
+    }
+}
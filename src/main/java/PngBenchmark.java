@@ -0,0 +1,107 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+/**
+ * This class provides a main method for comparing ways of encoding /raster images as PNG:
+ * ImageIO, and PngEncoder at several compression levels and filters. It prints the median
+ * time and the size of the file for each. The image is put together from the tiles at the
+ * upper left of the map if a tile directory is given, and drawn to look roughly like a map
+ * otherwise. Usage: <code>PngBenchmark [tile directory] [grid side]</code>.
+ */
+public class PngBenchmark {
+    private static final int DEFAULT_SIDE = 4;
+    private static final int DEPTH = 7;
+    private static final int WARMUP_RUNS = 10;
+    private static final int RUNS = 25;
+
+    private interface Encoder {
+        void write(BufferedImage img, ByteArrayOutputStream os) throws IOException;
+    }
+
+    public static void main(String[] args) throws IOException {
+        int side = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_SIDE;
+        BufferedImage img = args.length > 0 ? fromTiles(args[0], side) : drawMap(side);
+        System.out.println(img.getWidth() + "x" + img.getHeight() + " pixels, median of "
+                + RUNS + " runs.");
+
+        run("ImageIO", img, (i, os) -> ImageIO.write(i, "png", os));
+        run("PngEncoder raw", img, PngEncoder.RAW::write);
+        for (int level : new int[]{1, 3, 6}) {
+            for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+                PngEncoder encoder = new PngEncoder(level, filter);
+                run("PngEncoder level " + level + " " + filter.name().toLowerCase(), img,
+                        encoder::write);
+            }
+        }
+    }
+
+    private static void run(String name, BufferedImage img, Encoder encoder)
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        for (int i = 0; i < WARMUP_RUNS; i += 1) {
+            os.reset();
+            encoder.write(img, os);
+        }
+        double[] millis = new double[RUNS];
+        for (int i = 0; i < RUNS; i += 1) {
+            os.reset();
+            long begin = System.nanoTime();
+            encoder.write(img, os);
+            millis[i] = (System.nanoTime() - begin) / 1e6;
+        }
+        Arrays.sort(millis);
+        System.out.printf("%-32s %8.2f ms %8.1f KB%n", name, millis[RUNS / 2],
+                os.size() / 1024.0);
+    }
+
+    private static BufferedImage fromTiles(String dir, int side) {
+        String[][] grid = new String[side][side];
+        for (int r = 0; r < side; r += 1) {
+            for (int c = 0; c < side; c += 1) {
+                grid[r][c] = dir + "/" + TileNames.name(DEPTH, c, r) + ".png";
+            }
+        }
+        try (TileCompositor compositor = new TileCompositor(new TileCache(1L << 30),
+                MapServer.TILE_SIZE, 1)) {
+            return compositor.composite(grid);
+        }
+    }
+
+    /**
+     * Draws blocks, roads and labels on a plain background, like a street map.
+     */
+    private static BufferedImage drawMap(int side) {
+        int size = side * MapServer.TILE_SIZE;
+        BufferedImage img = new BufferedImage(size, size, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = img.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(new Color(242, 239, 233));
+        g.fillRect(0, 0, size, size);
+        Random r = new Random(19);
+        for (int i = 0; i < size / 8; i += 1) {
+            g.setColor(r.nextBoolean() ? new Color(200, 250, 204) : new Color(217, 208, 201));
+            g.fillRect(r.nextInt(size), r.nextInt(size), 20 + r.nextInt(60), 20 + r.nextInt(60));
+        }
+        g.setColor(Color.WHITE);
+        for (int i = 0; i < size / 16; i += 1) {
+            g.setStroke(new BasicStroke(2 + r.nextInt(6)));
+            g.drawLine(r.nextInt(size), r.nextInt(size), r.nextInt(size), r.nextInt(size));
+        }
+        g.setColor(new Color(80, 80, 80));
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 11));
+        for (int i = 0; i < size / 16; i += 1) {
+            g.drawString("Street " + i, r.nextInt(size), r.nextInt(size));
+        }
+        g.dispose();
+        return img;
+    }
+}
@@ -0,0 +1,254 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes images as 8-bit RGB PNG files, faster than ImageIO for the images /raster sends.
+ * The compression level and the row filter are chosen when the encoder is made, so that
+ * interactive requests can trade a somewhat larger file for much less CPU time. Level 0
+ * with no filter (RAW) barely compresses at all, for when bandwidth is cheap.
+ * <p>
+ * Each thread keeps its own Deflater and buffers and reuses them for every image it
+ * encodes, so an encoder can be shared by all threads.
+ */
+public class PngEncoder {
+    /**
+     * How each row of pixels is filtered before compression; see the PNG specification.
+     */
+    public enum Filter {
+        NONE(0), SUB(1), UP(2), AVERAGE(3), PAETH(4),
+        /** Whichever of the others makes the smallest sum of absolute differences. */
+        ADAPTIVE(-1);
+
+        private final int type;
+
+        Filter(int type) {
+            this.type = type;
+        }
+    }
+
+    /**
+     * Stores the pixels nearly as they are, for when CPU time is dearer than bandwidth.
+     */
+    public static final PngEncoder RAW = new PngEncoder(Deflater.NO_COMPRESSION, Filter.NONE);
+
+    private static final byte[] SIGNATURE = {(byte) 137, 'P', 'N', 'G', '\r', '\n', 26, '\n'};
+    private static final byte[] IHDR = {'I', 'H', 'D', 'R'};
+    private static final byte[] IDAT = {'I', 'D', 'A', 'T'};
+    private static final byte[] IEND = {'I', 'E', 'N', 'D'};
+    private static final int BYTES_PER_PIXEL = 3;
+    private static final int IDAT_SIZE = 1 << 16;
+
+    /* The buffers of one thread; the row buffers grow to the widest image encoded. */
+    private static final class State {
+        private final Deflater deflater = new Deflater();
+        private final CRC32 crc = new CRC32();
+        private final byte[] chunk = new byte[IDAT_SIZE];
+        private int chunkLength;
+        private byte[] row = new byte[0];
+        private byte[] previous = new byte[0];
+        /* filtered[t] holds the current row filtered with filter type t. */
+        private final byte[][] filtered = new byte[5][0];
+    }
+
+    private static final ThreadLocal<State> STATE = ThreadLocal.withInitial(State::new);
+
+    private final int level;
+    private final Filter filter;
+
+    /**
+     * Creates an encoder compressing at level (0-9, as for Deflater) with filter.
+     */
+    public PngEncoder(int level, Filter filter) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("Compression level must be 0-9: " + level);
+        }
+        this.level = level;
+        this.filter = filter;
+    }
+
+    /**
+     * Writes img to os as a PNG file. Any alpha channel is left out.
+     */
+    public void write(BufferedImage img, OutputStream os) throws IOException {
+        State s = STATE.get();
+        int width = img.getWidth();
+        int height = img.getHeight();
+        int rowLength = 1 + width * BYTES_PER_PIXEL;
+        if (s.row.length < rowLength) {
+            s.row = new byte[rowLength];
+            s.previous = new byte[rowLength];
+            for (int t = 0; t < s.filtered.length; t += 1) {
+                s.filtered[t] = new byte[rowLength];
+            }
+        }
+
+        os.write(SIGNATURE);
+        byte[] header = new byte[13];
+        putInt(header, 0, width);
+        putInt(header, 4, height);
+        header[8] = 8;                  // Bits per sample.
+        header[9] = 2;                  // Color type RGB.
+        writeChunk(s, os, IHDR, header, header.length);
+
+        int[] pixels = null;
+        if (img.getType() == BufferedImage.TYPE_INT_RGB
+                && img.getRaster().getDataBuffer() instanceof DataBufferInt
+                && img.getRaster().getParent() == null) {
+            pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        }
+        int[] line = pixels == null ? new int[width] : pixels;
+
+        Deflater deflater = s.deflater;
+        deflater.reset();
+        deflater.setLevel(level);
+        s.chunkLength = 0;
+        Arrays.fill(s.previous, 0, rowLength, (byte) 0);
+        for (int y = 0; y < height; y += 1) {
+            byte[] row = s.row;
+            int offset = y * width;
+            if (pixels == null) {
+                img.getRGB(0, y, width, 1, line, 0, width);
+                offset = 0;
+            }
+            for (int x = 0, i = 1; x < width; x += 1, i += BYTES_PER_PIXEL) {
+                int p = line[offset + x];
+                row[i] = (byte) (p >> 16);
+                row[i + 1] = (byte) (p >> 8);
+                row[i + 2] = (byte) p;
+            }
+            byte[] out = filterRow(s, rowLength);
+            deflater.setInput(out, 0, rowLength);
+            while (!deflater.needsInput()) {
+                deflate(s, os);
+            }
+            s.row = s.previous;
+            s.previous = row;
+        }
+        deflater.finish();
+        while (!deflater.finished()) {
+            deflate(s, os);
+        }
+        if (s.chunkLength > 0) {
+            writeChunk(s, os, IDAT, s.chunk, s.chunkLength);
+        }
+        writeChunk(s, os, IEND, s.chunk, 0);
+    }
+
+    /**
+     * Filters s.row against s.previous and returns the buffer holding the filtered row,
+     * with the filter type in its first byte.
+     */
+    private byte[] filterRow(State s, int rowLength) {
+        if (filter == Filter.NONE) {
+            s.row[0] = 0;
+            return s.row;
+        }
+        if (filter != Filter.ADAPTIVE) {
+            return filterRow(s, filter.type, rowLength);
+        }
+        byte[] best = null;
+        long bestSum = Long.MAX_VALUE;
+        for (int t = 0; t < s.filtered.length; t += 1) {
+            byte[] f = t == 0 ? s.row : filterRow(s, t, rowLength);
+            if (t == 0) {
+                f[0] = 0;
+            }
+            long sum = 0;
+            for (int i = 1; i < rowLength && sum < bestSum; i += 1) {
+                sum += Math.abs(f[i]);
+            }
+            if (sum < bestSum) {
+                best = f;
+                bestSum = sum;
+            }
+        }
+        return best;
+    }
+
+    private static byte[] filterRow(State s, int type, int rowLength) {
+        byte[] row = s.row;
+        byte[] up = s.previous;
+        byte[] out = s.filtered[type];
+        out[0] = (byte) type;
+        int bpp = BYTES_PER_PIXEL;
+        switch (type) {
+            case 1:
+                for (int i = 1; i < rowLength; i += 1) {
+                    int left = i > bpp ? row[i - bpp] : 0;
+                    out[i] = (byte) (row[i] - left);
+                }
+                break;
+            case 2:
+                for (int i = 1; i < rowLength; i += 1) {
+                    out[i] = (byte) (row[i] - up[i]);
+                }
+                break;
+            case 3:
+                for (int i = 1; i < rowLength; i += 1) {
+                    int left = i > bpp ? row[i - bpp] & 0xff : 0;
+                    out[i] = (byte) (row[i] - ((left + (up[i] & 0xff)) >> 1));
+                }
+                break;
+            case 4:
+                for (int i = 1; i < rowLength; i += 1) {
+                    int a = i > bpp ? row[i - bpp] & 0xff : 0;
+                    int b = up[i] & 0xff;
+                    int c = i > bpp ? up[i - bpp] & 0xff : 0;
+                    out[i] = (byte) (row[i] - paeth(a, b, c));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown filter type " + type);
+        }
+        return out;
+    }
+
+    private static int paeth(int a, int b, int c) {
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        }
+        return pb <= pc ? b : c;
+    }
+
+    /**
+     * Compresses more of the input into the IDAT buffer, writing it out once it is full.
+     */
+    private static void deflate(State s, OutputStream os) throws IOException {
+        s.chunkLength += s.deflater.deflate(s.chunk, s.chunkLength,
+                s.chunk.length - s.chunkLength);
+        if (s.chunkLength == s.chunk.length) {
+            writeChunk(s, os, IDAT, s.chunk, s.chunkLength);
+            s.chunkLength = 0;
+        }
+    }
+
+    private static void writeChunk(State s, OutputStream os, byte[] type, byte[] data,
+                                   int length) throws IOException {
+        byte[] word = new byte[4];
+        putInt(word, 0, length);
+        os.write(word);
+        os.write(type);
+        os.write(data, 0, length);
+        s.crc.reset();
+        s.crc.update(type);
+        s.crc.update(data, 0, length);
+        putInt(word, 0, (int) s.crc.getValue());
+        os.write(word);
+    }
+
+    private static void putInt(byte[] b, int offset, int v) {
+        b[offset] = (byte) (v >>> 24);
+        b[offset + 1] = (byte) (v >>> 16);
+        b[offset + 2] = (byte) (v >>> 8);
+        b[offset + 3] = (byte) v;
+    }
+}
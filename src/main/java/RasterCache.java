@@ -0,0 +1,97 @@
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Finished /raster images, Base64-encoded PNGs as sent to the client, so that repeated
+ * requests for the same view skip compositing and encoding. An image is determined by its
+ * grid of tiles and the route drawn on it, so that is the key. Routes are stored under
+ * handles that are never reused and never change, so a route id stands for the route; if
+ * the route is cleared, its images are dropped.
+ */
+public class RasterCache {
+    /**
+     * Route id used in keys of images without a route.
+     */
+    public static final long NO_ROUTE = 0;
+
+    private final LruCache<Key, String> images;
+
+    /**
+     * Creates a cache holding at most maxBytes of encoded images.
+     */
+    public RasterCache(long maxBytes) {
+        /* Strings take two bytes per char. */
+        images = new LruCache<>(maxBytes, s -> 2L * s.length());
+    }
+
+    /**
+     * Returns the image of renderGrid at depth with the route with id routeId on it,
+     * rendering it with render if it is not cached.
+     */
+    public String get(String[][] renderGrid, int depth, long routeId,
+                      LruCache.Loader<Key, String> render) throws IOException {
+        return images.get(new Key(renderGrid, depth, routeId), render);
+    }
+
+    /**
+     * Drops all images with the route with id routeId on them.
+     */
+    public void invalidateRoute(long routeId) {
+        images.invalidateIf(k -> k.routeId == routeId);
+    }
+
+    public void clear() {
+        images.clear();
+    }
+
+    public long hits() {
+        return images.hits();
+    }
+
+    public long misses() {
+        return images.misses();
+    }
+
+    public long evictions() {
+        return images.evictions();
+    }
+
+    @Override
+    public String toString() {
+        return images.toString();
+    }
+
+    /**
+     * A grid of tiles, given by its upper left and lower right tiles, with a route.
+     */
+    public static class Key {
+        private final String upperLeft, lowerRight;
+        private final int depth, rows, columns;
+        private final long routeId;
+
+        private Key(String[][] renderGrid, int depth, long routeId) {
+            this.rows = renderGrid.length;
+            this.columns = renderGrid[0].length;
+            this.upperLeft = renderGrid[0][0];
+            this.lowerRight = renderGrid[rows - 1][columns - 1];
+            this.depth = depth;
+            this.routeId = routeId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return depth == k.depth && rows == k.rows && columns == k.columns
+                    && routeId == k.routeId && upperLeft.equals(k.upperLeft)
+                    && lowerRight.equals(k.lowerRight);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(upperLeft, lowerRight, depth, rows, columns, routeId);
+        }
+    }
+}
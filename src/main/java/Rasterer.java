@@ -1,4 +1,3 @@
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -7,139 +6,22 @@ import java.util.Map;
  * a query result. The getMapRaster method must return a Map containing all
  * seven of the required fields, otherwise the front end code will probably
  * not draw the output correctly.
+ * <p>
+ * The tiles form a quadtree over the map, but no tree is kept: the columns and rows of
+ * the tiles a query box touches are computed from the box, and the file names from the
+ * columns and rows (see TileNames). A query takes no memory beyond its result, at any
+ * depth.
  */
 public class Rasterer {
-    // Recommended: QuadTree instance variable. You'll need to make
-    //              your own QuadTree since there is no built-in quadtree in Java.
+    private final String imgRoot;
 
     /**
      * imgRoot is the name of the directory containing the images.
-     * You may not actually need this for your class.
      */
-    QuadTree q;
-
     public Rasterer(String imgRoot) {
-        q = new QuadTree();
-    }
-
-
-    public class QuadTree {
-
-        private Node root = new Node("root", 0);
-
-        public QuadTree() {
-            root.x1 = -122.2998046875;
-            root.y1 = 37.892195547244356;
-            root.x2 = -122.2119140625;
-            root.y2 = 37.82280243352756;
-            fillTree(root);
-        }
-
-
-        public void setTopLeft(Node parent, Node r) {
-            r.x1 = parent.x1;
-            r.y1 = parent.y1;
-
-            r.x2 = (parent.x1 - parent.x2) / 2 + parent.x2;
-            r.y2 = (parent.y1 - parent.y2) / 2 + parent.y2;
-        }
-
-        public void setTopRight(Node parent, Node r) {
-            r.x1 = (parent.x1 - parent.x2) / 2 + parent.x2;
-            r.y1 = parent.y1;
-
-            r.x2 = parent.x2;
-            r.y2 = (parent.y1 - parent.y2) / 2 + parent.y2;
-        }
-
-        public void setBottomLeft(Node parent, Node r) {
-            r.x1 = parent.x1;
-            r.y1 = (parent.y1 - parent.y2) / 2 + parent.y2;
-
-            r.x2 = (parent.x1 - parent.x2) / 2 + parent.x2;
-            r.y2 = parent.y2;
-        }
-
-        public void setBottomRight(Node parent, Node r) {
-            r.x1 = (parent.x1 - parent.x2) / 2 + parent.x2;
-            r.y1 = (parent.y1 - parent.y2) / 2 + parent.y2;
-            r.x2 = parent.x2;
-            r.y2 = parent.y2;
-        }
-
-        public void fillTree(Node r) {
-            if (r.fileName.equals("root")) {
-                Node tl = new Node("1", 1);
-                setTopLeft(root, tl);
-
-                Node tr = new Node("2", 1);
-                setTopRight(root, tr);
-
-                Node bl = new Node("3", 1);
-                setBottomLeft(root, bl);
-
-                Node br = new Node("4", 1);
-                setBottomRight(root, br);
-
-                r.topLeft = tl;
-                r.topRight = tr;
-                r.bottomLeft = bl;
-                r.bottomRight = br;
-
-                fillTree(tl);
-                fillTree(tr);
-                fillTree(bl);
-                fillTree(br);
-
-            } else {
-                int n = Integer.parseInt(r.fileName);
-                if (n < 4444441) {
-                    String currentFile = r.fileName;
-                    Node tl = new Node(currentFile + "1", r.N + 1);
-                    setTopLeft(r, tl);
-                    Node tr = new Node(currentFile + "2", r.N + 1);
-                    setTopRight(r, tr);
-                    Node bl = new Node(currentFile + "3", r.N + 1);
-                    setBottomLeft(r, bl);
-                    Node br = new Node(currentFile + "4", r.N + 1);
-                    setBottomRight(r, br);
-
-                    r.topLeft = tl;
-                    r.topRight = tr;
-                    r.bottomLeft = bl;
-                    r.bottomRight = br;
-
-                    fillTree(tl);
-                    fillTree(tr);
-                    fillTree(bl);
-                    fillTree(br);
-                }
-            }
-        }
-
-
+        this.imgRoot = imgRoot;
     }
 
-    private class Node {
-        private Node topLeft;
-        private Node topRight;
-        private Node bottomLeft;
-        private Node bottomRight;
-        private String fileName;
-        private double x1;
-        private double x2;
-        private double y1;
-        private double y2;
-
-        private int N;
-
-        private Node(String fileName, int N) {
-            this.fileName = fileName;
-            this.N = N;
-        }
-    }
-
-
     public int getGoalDepth(double lonDpp) {
         int digits = 1;
         double tempDpp = 49.1;
@@ -154,124 +36,111 @@ public class Rasterer {
         }
     }
 
-    public boolean validRange(Node c, Node goal) {
-        if (c.x1 > goal.x2 || goal.x1 > c.x2) {
-            return false;
-        }
-        if (c.y1 < goal.y2 || goal.y1 < c.y2) {
-            return false;
-        }
-        return true;
+    /**
+     * Returns the edges of column x at depth, left first in edges[0] and right in edges[1].
+     * Each level halves the span of its parent the same way, (a - b) / 2 + b, so tiles
+     * share their edges exactly with their neighbours and ancestors.
+     */
+    private static void columnEdges(int depth, int x, double[] edges) {
+        split(MapServer.ROOT_ULLON, MapServer.ROOT_LRLON, depth, x, edges);
     }
 
-    public ArrayList<Node> findValidImageNodes(Node c,
-                                               int N, Node goal, ArrayList<Node> validNodes) {
-        if (c == null) {
-            return validNodes;
-        } else {
-            if (c.N == N && (validRange(c, goal))) {
-                validNodes.add(c);
-            }
-            if (c.N < N) {
-                if (validRange(c.topLeft, goal)) {
-                    validNodes.addAll(findValidImageNodes(
-                            c.topLeft, N, goal, new ArrayList<>()));
-                }
-                if (validRange(c.topRight, goal)) {
-                    validNodes.addAll(findValidImageNodes(
-                            c.topRight, N, goal, new ArrayList<>()));
-                }
-                if (validRange(c.bottomLeft, goal)) {
-                    validNodes.addAll(findValidImageNodes(
-                            c.bottomLeft, N, goal, new ArrayList<>()));
-                }
-                if (validRange(c.bottomRight, goal)) {
-                    validNodes.addAll(findValidImageNodes(
-                            c.bottomRight, N, goal, new ArrayList<>()));
-                }
+    /**
+     * Returns the edges of row y at depth, top first in edges[0] and bottom in edges[1].
+     */
+    private static void rowEdges(int depth, int y, double[] edges) {
+        split(MapServer.ROOT_ULLAT, MapServer.ROOT_LRLAT, depth, y, edges);
+    }
+
+    private static void split(double first, double last, int depth, int index,
+                              double[] edges) {
+        for (int bit = depth - 1; bit >= 0; bit -= 1) {
+            double middle = (first - last) / 2 + last;
+            if (((index >> bit) & 1) == 0) {
+                last = middle;
+            } else {
+                first = middle;
             }
-            return validNodes;
         }
+        edges[0] = first;
+        edges[1] = last;
     }
 
-    public String[][] getImageArray(ArrayList<Node> validNodes) {
-
-        int rowSize = 0;
-        int colSize = 0;
-
-        Node n = validNodes.get(0);
-
-        double smallestX = n.x1;
-        double largestY = n.y1;
-
-        double largestX = n.x2;
-        double smallestY = n.y2;
-
-        for (int i = 1; i < validNodes.size(); i++) {
-            double x1 = validNodes.get(i).x1;
-            double x2 = validNodes.get(i).x2;
-            double y1 = validNodes.get(i).y1;
-            double y2 = validNodes.get(i).y2;
-            if (x1 < smallestX) {
-                smallestX = x1;
-            }
-            if (x2 > largestX) {
-                largestX = x2;
-            }
-            if (y1 > largestY) {
-                largestY = y1;
-            }
-            if (y2 < smallestY) {
-                smallestY = y2;
+    /**
+     * Returns the first column at depth whose right edge is at or right of lon, or 2^depth
+     * if there is none.
+     */
+    private static int firstColumnTo(double lon, int depth, double[] edges) {
+        int lo = 0;
+        int hi = 1 << depth;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            columnEdges(depth, mid, edges);
+            if (edges[1] >= lon) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
             }
         }
+        return lo;
+    }
 
-        double w = largestX - smallestX;
-        double h = largestY - smallestY;
-
-
-        double nodeWidth = (validNodes.get(0).x2 - validNodes.get(0).x1);
-        colSize = (int) Math.round(w / nodeWidth);
-
-        double nodeHeight = (validNodes.get(0).y1 - validNodes.get(0).y2);
-        rowSize = (int) Math.round(h / nodeHeight);
-
-        ArrayList<Node> imageArrayList = new ArrayList<>();
-
-        String[][] imageArray = new String[rowSize][colSize];
-        int i = 0;
-        int j = 0;
-        int count = 0;
-        while (validNodes.size() > 0) {
-            double maxHeight = validNodes.get(0).y1;
-            ArrayList<Node> copy = new ArrayList<>();
-            copy.addAll(validNodes);
-            count = 0;
-            for (int k = 0; k < copy.size(); k++) {
-                Node curNode = copy.get(k);
-                if (curNode.y1 == maxHeight) {
-                    count++;
-                    imageArray[i][j] = "img/" + curNode.fileName + ".png";
-                    j += 1;
-                    imageArrayList.add(curNode);
-                    validNodes.remove(curNode);
-                    if (count == colSize) {
-                        i += 1;
-                        j = 0;
-                        break;
-                    }
-                }
+    /**
+     * Returns the last column at depth whose left edge is at or left of lon, or -1 if
+     * there is none.
+     */
+    private static int lastColumnFrom(double lon, int depth, double[] edges) {
+        int lo = -1;
+        int hi = (1 << depth) - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            columnEdges(depth, mid, edges);
+            if (edges[0] <= lon) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
             }
-
-            copy.clear();
-            maxHeight = 0;
         }
+        return lo;
+    }
 
-        validNodes.addAll(imageArrayList);
-
-        return imageArray;
+    /**
+     * Returns the first row at depth whose bottom edge is at or below lat, or 2^depth if
+     * there is none.
+     */
+    private static int firstRowTo(double lat, int depth, double[] edges) {
+        int lo = 0;
+        int hi = 1 << depth;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            rowEdges(depth, mid, edges);
+            if (edges[1] <= lat) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
     }
 
+    /**
+     * Returns the last row at depth whose top edge is at or above lat, or -1 if there is
+     * none.
+     */
+    private static int lastRowFrom(double lat, int depth, double[] edges) {
+        int lo = -1;
+        int hi = (1 << depth) - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            rowEdges(depth, mid, edges);
+            if (edges[0] >= lat) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
 
     /**
      * Takes a user query and finds the grid of images that best matches the query. These
@@ -303,40 +172,60 @@ public class Rasterer {
      * string. <br>
      * "query_success" -> Boolean, whether the query was able to successfully complete. Don't
      * forget to set this to true! <br>
+     * A query box that misses the map altogether fails, with an empty render grid.
      * @see //#REQUIRED_RASTER_REQUEST_PARAMS
      */
-
-
     public Map<String, Object> getMapRaster(Map<String, Double> params) {
         Map<String, Object> results = new HashMap<>();
 
-        Node goal = new Node("GOAL", 0);
-        goal.x1 = params.get("ullon");
-        goal.x2 = params.get("lrlon");
-        goal.y1 = params.get("ullat");
-        goal.y2 = params.get("lrlat");
+        double ullon = params.get("ullon");
+        double lrlon = params.get("lrlon");
+        double ullat = params.get("ullat");
+        double lrlat = params.get("lrlat");
 
         double w = params.get("w");
 
         double sl = 288200;
-        double xDist = goal.x2 - goal.x1;
+        double xDist = lrlon - ullon;
         double widthFeet = xDist * sl;
         double lonDpp = widthFeet / w;
 
         int digits = getGoalDepth(lonDpp);
 
-        ArrayList<Node> validNodes = findValidImageNodes(q.root,
-                digits, goal, new ArrayList<>());
+        /* A tile touches the box if their edges overlap or meet. */
+        double[] edges = new double[2];
+        int x1 = firstColumnTo(ullon, digits, edges);
+        int x2 = lastColumnFrom(lrlon, digits, edges);
+        int y1 = firstRowTo(ullat, digits, edges);
+        int y2 = lastRowFrom(lrlat, digits, edges);
 
+        results.put("depth", digits);
+        if (x1 > x2 || y1 > y2) {
+            results.put("render_grid", new String[0][0]);
+            results.put("raster_ul_lon", ullon);
+            results.put("raster_ul_lat", ullat);
+            results.put("raster_lr_lon", lrlon);
+            results.put("raster_lr_lat", lrlat);
+            results.put("query_success", false);
+            return results;
+        }
 
-        String[][] imageArray = getImageArray(validNodes);
+        String[][] imageArray = new String[y2 - y1 + 1][x2 - x1 + 1];
+        for (int y = y1; y <= y2; y += 1) {
+            for (int x = x1; x <= x2; x += 1) {
+                imageArray[y - y1][x - x1] = imgRoot + TileNames.name(digits, x, y) + ".png";
+            }
+        }
 
         results.put("render_grid", imageArray);
-        results.put("raster_ul_lon", validNodes.get(0).x1);
-        results.put("raster_ul_lat", validNodes.get(0).y1);
-        results.put("raster_lr_lon", validNodes.get(validNodes.size() - 1).x2);
-        results.put("raster_lr_lat", validNodes.get(validNodes.size() - 1).y2);
-        results.put("depth", digits);
+        columnEdges(digits, x1, edges);
+        results.put("raster_ul_lon", edges[0]);
+        rowEdges(digits, y1, edges);
+        results.put("raster_ul_lat", edges[0]);
+        columnEdges(digits, x2, edges);
+        results.put("raster_lr_lon", edges[1]);
+        rowEdges(digits, y2, edges);
+        results.put("raster_lr_lat", edges[1]);
         results.put("query_success", true);
 
         return results;
@@ -0,0 +1,117 @@
+import java.io.IOException;
+import java.util.LinkedList;
+
+/**
+ * Routes recently found by /route, so that repeated requests between the same places
+ * skip the search. Routes are keyed by the OSM ids of the vertices the request's end
+ * points snap to, so requests from nearby points that snap to the same vertices share a
+ * route. Every search mode returns a shortest path, so a route found in one mode also
+ * answers the others. Routes are kept as arrays of OSM ids, and expire after a while.
+ * <p>
+ * A cache belongs to one graph; it must be cleared (or replaced) when the graph is.
+ */
+public class RouteCache {
+    private static final long[] NO_ROUTE = new long[0];
+
+    private final LruCache<Key, long[]> routes;
+
+    /**
+     * Creates a cache holding routes of at most maxBytes in total, each for at most
+     * ttlMillis (or for good, if ttlMillis is 0).
+     */
+    public RouteCache(long maxBytes, long ttlMillis) {
+        /* The array header and the key take about 64 bytes. */
+        routes = new LruCache<>(maxBytes, r -> 64 + 8L * r.length, ttlMillis);
+    }
+
+    /**
+     * Returns the route between the vertices with OSM ids startId and endId, finding it
+     * with route if it is not cached. An empty route (no path) is cached too.
+     */
+    public long[] get(long startId, long endId, LruCache.Loader<Key, long[]> route)
+            throws IOException {
+        return routes.get(new Key(startId, endId), route);
+    }
+
+    /**
+     * Returns route as an array of OSM ids.
+     */
+    public static long[] toArray(LinkedList<Long> route) {
+        if (route.isEmpty()) {
+            return NO_ROUTE;
+        }
+        long[] ids = new long[route.size()];
+        int i = 0;
+        for (long id : route) {
+            ids[i] = id;
+            i += 1;
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the array of OSM ids route as a list.
+     */
+    public static LinkedList<Long> toList(long[] route) {
+        LinkedList<Long> ids = new LinkedList<>();
+        for (long id : route) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    public void clear() {
+        routes.clear();
+    }
+
+    public long hits() {
+        return routes.hits();
+    }
+
+    public long misses() {
+        return routes.misses();
+    }
+
+    public double hitRate() {
+        return routes.hitRate();
+    }
+
+    public long evictions() {
+        return routes.evictions();
+    }
+
+    public long expirations() {
+        return routes.expirations();
+    }
+
+    @Override
+    public String toString() {
+        return routes.toString() + String.format(", hit rate %.3f", hitRate());
+    }
+
+    /**
+     * The ids of the two end vertices of a route.
+     */
+    public static class Key {
+        private final long startId, endId;
+
+        private Key(long startId, long endId) {
+            this.startId = startId;
+            this.endId = endId;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return startId == k.startId && endId == k.endId;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(startId) * 31 + Long.hashCode(endId);
+        }
+    }
+}
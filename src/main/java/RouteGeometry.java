@@ -0,0 +1,138 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The shape of a route for clients that draw it themselves, as an encoded polyline in the
+ * format of the Google Maps APIs: latitudes and longitudes rounded to 1e-5 degrees, each
+ * stored as the difference to the previous point in a few printable characters. A route
+ * across the map takes a few hundred bytes.
+ * <p>
+ * For a given depth, the route is first simplified with the Douglas-Peucker algorithm,
+ * leaving out the points that move it less than half a pixel of the tiles at that depth.
+ */
+public class RouteGeometry {
+    /**
+     * Largest distance, in pixels, by which simplification may move the route.
+     */
+    private static final double TOLERANCE_PX = 0.5;
+    private static final double PRECISION = 1e5;
+
+    /**
+     * Returns the encoded polyline of route, a list of vertex ids of g. If depth is not
+     * negative, the route is simplified for display on tiles of that depth.
+     */
+    public static String encode(GraphDB g, List<Long> route, int depth) {
+        int n = route.size();
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        int i = 0;
+        for (long v : route) {
+            lons[i] = g.lon(v);
+            lats[i] = g.lat(v);
+            i += 1;
+        }
+        boolean[] keep;
+        if (depth < 0) {
+            keep = new boolean[n];
+            Arrays.fill(keep, true);
+        } else {
+            double lonDPP = (MapServer.ROOT_LRLON - MapServer.ROOT_ULLON)
+                    / ((long) MapServer.TILE_SIZE << depth);
+            double latDPP = (MapServer.ROOT_ULLAT - MapServer.ROOT_LRLAT)
+                    / ((long) MapServer.TILE_SIZE << depth);
+            double[] xs = new double[n];
+            double[] ys = new double[n];
+            for (int j = 0; j < n; j += 1) {
+                xs[j] = lons[j] / lonDPP;
+                ys[j] = lats[j] / latDPP;
+            }
+            keep = simplify(xs, ys, TOLERANCE_PX);
+        }
+        return encode(lons, lats, keep);
+    }
+
+    /**
+     * Returns which of the points (xs[i], ys[i]) of a polyline the Douglas-Peucker
+     * algorithm keeps, so that no point left out is further than tolerance from the
+     * polyline through the points kept. The first and last points are always kept.
+     */
+    static boolean[] simplify(double[] xs, double[] ys, double tolerance) {
+        int n = xs.length;
+        boolean[] keep = new boolean[n];
+        if (n == 0) {
+            return keep;
+        }
+        keep[0] = true;
+        keep[n - 1] = true;
+        double maxSquared = tolerance * tolerance;
+        /* Pending segments are disjoint, so there are never more than n of them. */
+        int[] stack = new int[2 * n];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+        while (top > 0) {
+            int b = stack[--top];
+            int a = stack[--top];
+            int farthest = -1;
+            double farthestSquared = maxSquared;
+            for (int i = a + 1; i < b; i += 1) {
+                double d = squaredSegmentDistance(xs[i], ys[i], xs[a], ys[a], xs[b], ys[b]);
+                if (d > farthestSquared) {
+                    farthest = i;
+                    farthestSquared = d;
+                }
+            }
+            if (farthest >= 0) {
+                keep[farthest] = true;
+                stack[top++] = a;
+                stack[top++] = farthest;
+                stack[top++] = farthest;
+                stack[top++] = b;
+            }
+        }
+        return keep;
+    }
+
+    private static double squaredSegmentDistance(double x, double y, double ax, double ay,
+                                                 double bx, double by) {
+        double dx = bx - ax;
+        double dy = by - ay;
+        double lengthSquared = dx * dx + dy * dy;
+        double t = 0;
+        if (lengthSquared > 0) {
+            t = Math.max(0, Math.min(1, ((x - ax) * dx + (y - ay) * dy) / lengthSquared));
+        }
+        double px = ax + t * dx - x;
+        double py = ay + t * dy - y;
+        return px * px + py * py;
+    }
+
+    /**
+     * Returns the encoded polyline through the points (lats[i], lons[i]) with keep[i] set.
+     */
+    static String encode(double[] lons, double[] lats, boolean[] keep) {
+        StringBuilder sb = new StringBuilder();
+        long lastLat = 0, lastLon = 0;
+        for (int i = 0; i < lons.length; i += 1) {
+            if (!keep[i]) {
+                continue;
+            }
+            long lat = Math.round(lats[i] * PRECISION);
+            long lon = Math.round(lons[i] * PRECISION);
+            appendSigned(sb, lat - lastLat);
+            appendSigned(sb, lon - lastLon);
+            lastLat = lat;
+            lastLon = lon;
+        }
+        return sb.toString();
+    }
+
+    private static void appendSigned(StringBuilder sb, long value) {
+        long v = value < 0 ? ~(value << 1) : value << 1;
+        while (v >= 0x20) {
+            sb.append((char) ((0x20 | (v & 0x1f)) + 63));
+            v >>= 5;
+        }
+        sb.append((char) (v + 63));
+    }
+}
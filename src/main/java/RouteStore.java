@@ -0,0 +1,67 @@
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes found by the /route endpoint, each kept under the handle that was returned to
+ * the client. Every client refers to its own route by handle, so concurrent requests
+ * never see or overwrite each other's routes. At most <code>capacity</code> routes are
+ * kept; the least recently used ones are forgotten first.
+ * <p>
+ * Handles are random, so that a client cannot find or clear another client's route by
+ * guessing the handle next to its own.
+ */
+public class RouteStore {
+    /**
+     * Handles have this many random bits: as many as a JavaScript number holds exactly,
+     * since clients read them from JSON.
+     */
+    private static final int HANDLE_BITS = 52;
+
+    private final SecureRandom random = new SecureRandom();
+    private final Map<Long, List<Long>> routes;
+
+    public RouteStore(final int capacity) {
+        routes = Collections.synchronizedMap(new LinkedHashMap<Long, List<Long>>(16, 0.75f,
+                true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, List<Long>> eldest) {
+                return size() > capacity;
+            }
+        });
+    }
+
+    /**
+     * Stores route and returns a new random handle for it, which is never 0 and never the
+     * handle of another stored route.
+     */
+    public long put(List<Long> route) {
+        List<Long> stored = Collections.unmodifiableList(route);
+        while (true) {
+            long id = random.nextLong() >>> (Long.SIZE - HANDLE_BITS);
+            synchronized (routes) {
+                if (id != 0 && !routes.containsKey(id)) {
+                    routes.put(id, stored);
+                    return id;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the route stored under id, or null if there is none (any more).
+     */
+    public List<Long> get(long id) {
+        return routes.get(id);
+    }
+
+    public void remove(long id) {
+        routes.remove(id);
+    }
+
+    public void clear() {
+        routes.clear();
+    }
+}
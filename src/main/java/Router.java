@@ -1,7 +1,4 @@
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.PriorityQueue;
 
 /**
  * This class provides a shortestPath method for finding routes between two points
@@ -10,120 +7,212 @@ import java.util.PriorityQueue;
  * Your code will probably not be fast enough to pass the autograder unless you use A*.
  * The difference between A* and Dijkstra's is only a couple of lines of code, and boils
  * down to the priority you use to order your vertices.
+ * <p>
+ * The search runs on the int vertex indices of the graph's CompactGraph. All of its
+ * state lives in a SearchContext that is kept per thread and reused between calls, so
+ * the search loop itself allocates nothing; only the returned path is built from
+ * objects. Router has no other state, so any number of threads may route concurrently
+ * on the same (read-only) graph.
  */
 public class Router {
 
+    /**
+     * The search algorithms shortestPath can run. All of them return a shortest path.
+     */
+    public enum Mode {
+        /** Unidirectional A* with the straight-line distance heuristic. */
+        ASTAR,
+        /** Unidirectional A* with the graph's ALT landmark heuristic. */
+        ALT,
+        /** Bidirectional upward search over the graph's contraction hierarchy. */
+        CH,
+        /** Bidirectional A* with the average of the two straight-line potentials. */
+        BIDIRECTIONAL
+    }
 
-    private static class Point implements Comparable<Point> {
-        GraphDB g;
-        long id;
-        double distanceFromStart = 0;
-        Point prev;
-
-        double lon;
-        double lat;
+    private static final ThreadLocal<SearchContext> CONTEXTS =
+            ThreadLocal.withInitial(SearchContext::new);
+    private static final ThreadLocal<SearchContext> BACKWARD_CONTEXTS =
+            ThreadLocal.withInitial(SearchContext::new);
 
-        double distance = 0;
-        double priority = 0;
-        ArrayList<Long> adjacentNodeIds = new ArrayList<>();
+    /**
+     * Return a LinkedList of <code>Long</code>s representing the shortest path from st to dest,
+     * where the longs are node IDs.
+     */
+    public static LinkedList<Long> shortestPath(GraphDB g,
+                                                double stlon, double stlat,
+                                                double destlon, double destlat) {
+        return shortestPath(g, stlon, stlat, destlon, destlat, Mode.ASTAR);
+    }
 
+    /**
+     * Same as shortestPath(g, stlon, stlat, destlon, destlat), searching with the given mode.
+     */
+    public static LinkedList<Long> shortestPath(GraphDB g,
+                                                double stlon, double stlat,
+                                                double destlon, double destlat, Mode mode) {
+        return shortestPath(g, g.closestIndex(stlon, stlat), g.closestIndex(destlon, destlat),
+                mode);
+    }
 
-        private Point() {
+    /**
+     * Same as shortestPath(g, stlon, stlat, destlon, destlat, mode), between the vertices
+     * at indices start and end of g.compact(). Returns an empty list if either is -1.
+     */
+    static LinkedList<Long> shortestPath(GraphDB g, int start, int end, Mode mode) {
+        if (start < 0 || end < 0) {
+            return new LinkedList<>();
         }
+        if (mode == Mode.CH) {
+            return g.hierarchy().shortestPath(start, end, CONTEXTS.get(),
+                    BACKWARD_CONTEXTS.get());
+        }
+        if (mode == Mode.BIDIRECTIONAL) {
+            return shortestPath(g.compact(), start, end, euclidean(g.compact()),
+                    CONTEXTS.get(), BACKWARD_CONTEXTS.get());
+        }
+        Heuristic h = mode == Mode.ALT ? g.landmarks() : euclidean(g.compact());
+        return shortestPath(g.compact(), start, end, h, CONTEXTS.get());
+    }
 
+    /**
+     * The straight-line distance heuristic.
+     */
+    static Heuristic euclidean(CompactGraph g) {
+        return g::distance;
+    }
 
-        private Point(GraphDB g, long id, long destinationId,
-                      Point prev, double distanceFromStart) {
-            this.g = g;
-            this.id = id;
-            this.prev = prev;
-            this.distanceFromStart = distanceFromStart;
-
-            this.lon = g.getNodeLat(id);
-            this.lat = g.getNodeLon(id);
+    /**
+     * Runs A* between the vertices at indices start and end of g, and returns the OSM ids
+     * along the shortest path, both ends included. Returns an empty list if end cannot be
+     * reached from start.
+     */
+    static LinkedList<Long> shortestPath(CompactGraph g, int start, int end) {
+        return shortestPath(g, start, end, euclidean(g), CONTEXTS.get());
+    }
 
-            this.distance = g.distance(id, destinationId);
-            this.priority = distanceFromStart + this.distance;
-            this.adjacentNodeIds = g.getAdjacentNodeIds(id);
+    /**
+     * Same as shortestPath(g, start, end), but guided by the heuristic h and run in the
+     * caller's own search state. ctx must not be used by another search until this call
+     * returns.
+     */
+    static LinkedList<Long> shortestPath(CompactGraph g, int start, int end, Heuristic h,
+                                         SearchContext ctx) {
+        if (!search(g, start, end, h, ctx)) {
+            return new LinkedList<>();
         }
+        return getRouteBack(g, ctx, end);
+    }
 
-        @Override
-        public int compareTo(Point o) {
-            if (this.priority > o.priority) {
-                return 1;
-            } else if (this.priority < o.priority) {
-                return -1;
-            } else {
-                return 0;
+    /**
+     * A* from start towards end, guided by the heuristic h. Returns whether end was
+     * settled; if so, ctx holds the parent pointers of the path.
+     */
+    static boolean search(CompactGraph g, int start, int end, Heuristic h,
+                          SearchContext ctx) {
+        ctx.reset(g.size());
+        ctx.relax(start, -1, 0, h.estimate(start, end));
+        while (!ctx.heap.isEmpty()) {
+            int v = ctx.settleNext();
+            if (v == end) {
+                return true;
+            }
+            double dv = ctx.dist(v);
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e += 1) {
+                int w = g.targets[e];
+                if (ctx.isSettled(w)) {
+                    continue;
+                }
+                double dw = dv + g.weights[e];
+                if (!ctx.isReached(w) || dw < ctx.dist(w)) {
+                    ctx.relax(w, v, dw, dw + h.estimate(w, end));
+                }
             }
         }
-
-        public boolean equals(Point o) {
-            return this.id == o.id;
-        }
+        return false;
     }
 
-    public static LinkedList<Long> getRouteBack(Point p) {
-        LinkedList<Long> r = new LinkedList<>();
-        while (p.prev != null) {
-            r.addFirst(p.id);
-            p = p.prev;
+    /**
+     * Same as shortestPath(g, start, end, h, ctx), but searching from both ends at once
+     * with bidirectional A*. forward and backward hold the search state of the two
+     * directions.
+     */
+    static LinkedList<Long> shortestPath(CompactGraph g, int start, int end, Heuristic h,
+                                         SearchContext forward, SearchContext backward) {
+        int meet = search(g, start, end, h, forward, backward);
+        if (meet < 0) {
+            return new LinkedList<>();
+        }
+        LinkedList<Long> r = getRouteBack(g, forward, meet);
+        for (int v = backward.parent(meet); v >= 0; v = backward.parent(v)) {
+            r.addLast(g.id(v));
         }
         return r;
     }
 
-    static PriorityQueue<Point> PQ = new PriorityQueue<>();
-
     /**
-     * Return a LinkedList of <code>Long</code>s representing the shortest path from st to dest,
-     * where the longs are node IDs.
+     * Bidirectional A* between start and end: a forward search from start and a backward
+     * search from end (the graph stores every road in both directions, so both walk the
+     * same adjacency), always advancing the one with the smaller key. Returns the vertex
+     * where the shortest path joins the two searches, or -1 if end cannot be reached.
+     * <p>
+     * Each direction needs a potential that never makes an edge negative, and both need
+     * to agree on the reduced length of every edge, so each side cannot simply use h
+     * towards its own goal. The forward search uses the average
+     * p(v) = (h(v, end) - h(start, v)) / 2 and the backward search -p(v); h must be
+     * symmetric and consistent. Then both are Dijkstra on the same reduced graph, where
+     * the usual rule applies: once the smallest forward and backward keys add up to the
+     * best path found so far, no shorter path is left.
      */
-
-    public static LinkedList<Long> shortestPath(GraphDB g,
-                                                double stlon, double stlat,
-                                                double destlon, double destlat) {
-        PQ.clear();
-        long startId = g.closest(stlon, stlat);
-        long endId = g.closest(destlon, destlat);
-
-        Point start = new Point(g, startId, endId, new Point(), 0);
-        PQ.add(start);
-
-        HashMap<Long, Point> inPQ = new HashMap<>();
-
-        Point best = new Point();
-        while (PQ.size() > 0) {
-            best = PQ.peek();
-            PQ.remove(best);
-
-            if (best.id == endId) {
-                break;
+    static int search(CompactGraph g, int start, int end, Heuristic h,
+                      SearchContext forward, SearchContext backward) {
+        int n = g.size();
+        forward.reset(n);
+        backward.reset(n);
+        forward.relax(start, -1, 0, potential(h, start, end, start));
+        backward.relax(end, -1, 0, -potential(h, start, end, end));
+        double best = start == end ? 0 : Double.POSITIVE_INFINITY;
+        int meet = start == end ? start : -1;
+        while (forward.heap.minKey() + backward.heap.minKey() < best) {
+            boolean isForward = forward.heap.minKey() <= backward.heap.minKey();
+            SearchContext ctx = isForward ? forward : backward;
+            SearchContext other = isForward ? backward : forward;
+            int v = ctx.settleNext();
+            double dv = ctx.dist(v);
+            for (int e = g.offsets[v]; e < g.offsets[v + 1]; e += 1) {
+                int w = g.targets[e];
+                if (ctx.isSettled(w)) {
+                    continue;
+                }
+                double dw = dv + g.weights[e];
+                if (!ctx.isReached(w) || dw < ctx.dist(w)) {
+                    double p = potential(h, start, end, w);
+                    ctx.relax(w, v, dw, dw + (isForward ? p : -p));
+                }
+                if (other.isReached(w) && dw + other.dist(w) < best) {
+                    best = dw + other.dist(w);
+                    meet = w;
+                }
             }
+        }
+        return meet;
+    }
 
-            for (int i = 0; i < best.adjacentNodeIds.size(); i++) {
-                long nodeToAddId = best.adjacentNodeIds.get(i);
-                double distanceFromBest = g.distance(best.id, nodeToAddId);
-                Point temp = new Point(g, nodeToAddId, endId, best,
-                        best.distanceFromStart + distanceFromBest);
+    /**
+     * The forward potential of the vertex v in a bidirectional search from start to end.
+     */
+    private static double potential(Heuristic h, int start, int end, int v) {
+        return (h.estimate(v, end) - h.estimate(start, v)) / 2;
+    }
 
-                //If its not the previous node
-                if (!temp.equals(best.prev)) {
-                    //If a node with the same ID already exists
-                    if (inPQ.containsKey(nodeToAddId)) {
-                        Point pointToCompareTo = inPQ.get(nodeToAddId);
-                        if (temp.compareTo(pointToCompareTo) < 0) {
-                            pointToCompareTo.distanceFromStart = temp.distanceFromStart;
-                            pointToCompareTo.priority = temp.priority;
-                            pointToCompareTo.prev = temp.prev;
-                        }
-                    } else {
-                        PQ.add(temp);
-                        inPQ.put(nodeToAddId, temp);
-                    }
-                }
-            }
+    /**
+     * Follows parent pointers back from end and returns the path as OSM ids.
+     */
+    static LinkedList<Long> getRouteBack(CompactGraph g, SearchContext ctx, int end) {
+        LinkedList<Long> r = new LinkedList<>();
+        for (int v = end; v >= 0; v = ctx.parent(v)) {
+            r.addFirst(g.id(v));
         }
-        LinkedList t = getRouteBack(best);
-        return t;
+        return r;
     }
 }
@@ -0,0 +1,83 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * This class provides a main method for comparing the Router search modes on the same
+ * graph. It routes between a fixed set of random vertex pairs in each mode and prints
+ * the average number of settled vertices along with the mean, median and 99th
+ * percentile latency. Usage: <code>RouterBenchmark [osm file] [queries]</code>.
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "berkeley.osm";
+    private static final int DEFAULT_QUERIES = 2000;
+    private static final int WARMUP_QUERIES = 500;
+
+    private interface Search {
+        /** Runs one query and returns the number of vertices it settled. */
+        int run(int start, int end);
+    }
+
+    public static void main(String[] args) {
+        GraphDB g = new GraphDB(args.length > 0 ? args[0] : OSM_DB_PATH);
+        int queries = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_QUERIES;
+        CompactGraph cg = g.compact();
+        if (cg.size() == 0) {
+            System.out.println("The graph is empty.");
+            return;
+        }
+
+        Random r = new Random(61);
+        int[] starts = new int[queries];
+        int[] ends = new int[queries];
+        for (int i = 0; i < queries; i += 1) {
+            starts[i] = r.nextInt(cg.size());
+            ends[i] = r.nextInt(cg.size());
+        }
+
+        SearchContext forward = new SearchContext();
+        SearchContext backward = new SearchContext();
+        Heuristic euclidean = Router.euclidean(cg);
+        Landmarks landmarks = g.landmarks();
+        ContractionHierarchy hierarchy = g.hierarchy();
+
+        System.out.println(cg.size() + " vertices, " + queries + " random queries per mode.");
+        run("A* (euclidean)", starts, ends, (s, t) -> {
+            Router.search(cg, s, t, euclidean, forward);
+            return forward.settledCount();
+        });
+        run("A* (ALT, " + landmarks.landmarks().length + " landmarks)", starts, ends,
+            (s, t) -> {
+                Router.search(cg, s, t, landmarks, forward);
+                return forward.settledCount();
+            });
+        run("Bidirectional A* (euclidean)", starts, ends, (s, t) -> {
+            Router.search(cg, s, t, euclidean, forward, backward);
+            return forward.settledCount() + backward.settledCount();
+        });
+        run("Contraction hierarchy", starts, ends, (s, t) -> {
+            hierarchy.search(s, t, forward, backward);
+            return forward.settledCount() + backward.settledCount();
+        });
+    }
+
+    private static void run(String name, int[] starts, int[] ends, Search search) {
+        for (int i = 0; i < Math.min(WARMUP_QUERIES, starts.length); i += 1) {
+            search.run(starts[i], ends[i]);
+        }
+        long[] nanos = new long[starts.length];
+        long settled = 0;
+        for (int i = 0; i < starts.length; i += 1) {
+            long begin = System.nanoTime();
+            settled += search.run(starts[i], ends[i]);
+            nanos[i] = System.nanoTime() - begin;
+        }
+        long total = 0;
+        for (long t : nanos) {
+            total += t;
+        }
+        Arrays.sort(nanos);
+        System.out.printf("%-30s settled %8.1f   mean %8.1f us   p50 %8.1f us   p99 %8.1f us%n",
+                name, (double) settled / starts.length, total / 1e3 / starts.length,
+                nanos[nanos.length / 2] / 1e3, nanos[nanos.length * 99 / 100] / 1e3);
+    }
+}
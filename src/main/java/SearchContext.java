@@ -0,0 +1,102 @@
+import java.util.Arrays;
+
+/**
+ * Reusable state for one single-source graph search: tentative distances, parent
+ * pointers and the open set, all in primitive arrays indexed by vertex.
+ * <p>
+ * Instead of clearing the arrays before every search, each vertex carries the
+ * generation in which it was last reached (and settled); a vertex whose stamp is older
+ * than the current generation is treated as untouched. Starting a new search is
+ * therefore O(1) plus the size of the previous open set.
+ */
+public class SearchContext {
+    private double[] dist = new double[0];
+    private int[] parent = new int[0];
+    private int[] reached = new int[0];
+    private int[] settled = new int[0];
+    private int generation;
+    private int settledCount;
+    final IndexedMinHeap heap = new IndexedMinHeap(0);
+
+    /**
+     * Prepares for a new search over a graph with n vertices.
+     */
+    public void reset(int n) {
+        if (reached.length < n) {
+            dist = new double[n];
+            parent = new int[n];
+            reached = new int[n];
+            settled = new int[n];
+            heap.ensureCapacity(n);
+            generation = 0;
+        }
+        heap.clear();
+        settledCount = 0;
+        generation += 1;
+        if (generation == Integer.MAX_VALUE) {
+            Arrays.fill(reached, 0);
+            Arrays.fill(settled, 0);
+            generation = 1;
+        }
+    }
+
+    /**
+     * Whether v has been given a tentative distance in the current search.
+     */
+    public boolean isReached(int v) {
+        return reached[v] == generation;
+    }
+
+    /**
+     * Whether v has been removed from the open set with its final distance.
+     */
+    public boolean isSettled(int v) {
+        return settled[v] == generation;
+    }
+
+    /**
+     * Tentative (or, once settled, final) distance of v. Only meaningful if v is reached.
+     */
+    public double dist(int v) {
+        return dist[v];
+    }
+
+    /**
+     * Vertex v was reached from, or -1 for the source. Only meaningful if v is reached.
+     */
+    public int parent(int v) {
+        return parent[v];
+    }
+
+    /**
+     * Number of vertices settled so far in the current search.
+     */
+    public int settledCount() {
+        return settledCount;
+    }
+
+    /**
+     * Records d as the distance of v via parent p, and queues v with the given priority.
+     * Returns false without changing anything if v already has a distance of d or less.
+     */
+    public boolean relax(int v, int p, double d, double priority) {
+        if (reached[v] == generation && dist[v] <= d) {
+            return false;
+        }
+        reached[v] = generation;
+        dist[v] = d;
+        parent[v] = p;
+        heap.push(v, priority);
+        return true;
+    }
+
+    /**
+     * Removes the vertex with the smallest priority from the open set and marks it settled.
+     */
+    public int settleNext() {
+        int v = heap.pop();
+        settled[v] = generation;
+        settledCount += 1;
+        return v;
+    }
+}
@@ -0,0 +1,192 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * All map tiles packed into one file, which is memory-mapped, so that reading a tile is a
+ * lookup in an index rather than opening one of thousands of small files. Copying the
+ * map means copying one file.
+ * <p>
+ * The file starts with a header: the magic number "BMTA", the format version and the
+ * depth of the deepest tiles, each as a big-endian int. Then comes the index, one entry
+ * per possible tile, depth by depth and within a depth row by row: the offset of the PNG
+ * file of the tile from the start of the archive (a long) and its length (an int, 0 for
+ * a missing tile). The PNG files follow the index.
+ * <p>
+ * Build an archive from a tile directory with
+ * <code>TileArchive [tile directory] [archive file]</code>.
+ */
+public class TileArchive {
+    private static final int MAGIC = 0x424d5441;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 12;
+    private static final int ENTRY_SIZE = 12;
+
+    private final ByteBuffer data;
+    private final int maxDepth;
+    private final long lastModified;
+
+    /**
+     * Opens the archive file f.
+     */
+    public TileArchive(File f) throws IOException {
+        try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException(f + " is too large to map.");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (data.limit() < HEADER_SIZE || data.getInt(0) != MAGIC) {
+            throw new IOException(f + " is not a tile archive.");
+        }
+        if (data.getInt(4) != VERSION) {
+            throw new IOException(f + " has unknown version " + data.getInt(4) + ".");
+        }
+        maxDepth = data.getInt(8);
+        if (maxDepth < 0 || maxDepth > 15
+                || data.limit() < HEADER_SIZE + (long) tileCount(maxDepth) * ENTRY_SIZE) {
+            throw new IOException(f + " is truncated.");
+        }
+        lastModified = f.lastModified();
+    }
+
+    /**
+     * Number of tiles at depths 0 to depth: 1 + 4 + ... + 4^depth.
+     */
+    private static int tileCount(int depth) {
+        return (int) (((1L << (2 * depth + 2)) - 1) / 3);
+    }
+
+    /**
+     * Returns the position in the index of the tile at column x and row y at depth.
+     */
+    static int index(int depth, int x, int y) {
+        return tileCount(depth - 1) + (y << depth) + x;
+    }
+
+    public int maxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Modification time of the archive file, which is that of every tile in it.
+     */
+    public long lastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Returns the PNG file of the tile at column x and row y at depth as a read-only
+     * buffer over the mapped archive, or null if there is no such tile.
+     */
+    public ByteBuffer tile(int depth, int x, int y) {
+        if (depth > maxDepth || !TileNames.exists(depth, x, y)) {
+            return null;
+        }
+        int entry = HEADER_SIZE + index(depth, x, y) * ENTRY_SIZE;
+        long offset = data.getLong(entry);
+        int length = data.getInt(entry + 8);
+        if (length == 0) {
+            return null;
+        }
+        ByteBuffer b = data.duplicate();
+        b.position((int) offset).limit((int) offset + length);
+        return b.slice();
+    }
+
+    /**
+     * Returns the PNG file of the tile with the given name, e.g. "412" or "root", or null
+     * if there is no such tile.
+     */
+    public ByteBuffer tile(String name) {
+        if (!TileNames.isName(name)) {
+            return null;
+        }
+        return tile(TileNames.depth(name), TileNames.x(name), TileNames.y(name));
+    }
+
+    /**
+     * Returns a stream reading the bytes of b, from its position to its limit.
+     */
+    static InputStream stream(ByteBuffer b) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return b.hasRemaining() ? b.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int off, int len) {
+                if (len == 0) {
+                    return 0;
+                }
+                if (!b.hasRemaining()) {
+                    return -1;
+                }
+                len = Math.min(len, b.remaining());
+                b.get(bytes, off, len);
+                return len;
+            }
+
+            @Override
+            public int available() {
+                return b.remaining();
+            }
+        };
+    }
+
+    /**
+     * Packs the tiles up to maxDepth in the directory imgDir, named as in TileNames, into
+     * a new archive file archive. Returns the number of tiles packed.
+     */
+    public static int build(File imgDir, int maxDepth, File archive) throws IOException {
+        int tiles = tileCount(maxDepth);
+        long dataStart = HEADER_SIZE + (long) tiles * ENTRY_SIZE;
+        ByteBuffer header = ByteBuffer.allocate((int) dataStart);
+        header.putInt(MAGIC).putInt(VERSION).putInt(maxDepth);
+        int packed = 0;
+        try (FileChannel out = FileChannel.open(archive.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long offset = dataStart;
+            for (int depth = 0; depth <= maxDepth; depth += 1) {
+                for (int y = 0; y < (1 << depth); y += 1) {
+                    for (int x = 0; x < (1 << depth); x += 1) {
+                        File f = new File(imgDir, TileNames.name(depth, x, y) + ".png");
+                        int length = 0;
+                        if (f.isFile()) {
+                            ByteBuffer png = ByteBuffer.wrap(Files.readAllBytes(f.toPath()));
+                            length = png.remaining();
+                            while (png.hasRemaining()) {
+                                out.write(png, offset + png.position());
+                            }
+                            packed += 1;
+                        }
+                        header.putLong(length == 0 ? 0 : offset).putInt(length);
+                        offset += length;
+                    }
+                }
+            }
+            if (offset > Integer.MAX_VALUE) {
+                throw new IOException("The tiles in " + imgDir + " do not fit in one archive.");
+            }
+            header.flip();
+            while (header.hasRemaining()) {
+                out.write(header, header.position());
+            }
+        }
+        return packed;
+    }
+
+    public static void main(String[] args) throws IOException {
+        File imgDir = new File(args.length > 0 ? args[0] : "img");
+        File archive = new File(args.length > 1 ? args[1] : "img.tiles");
+        long start = System.nanoTime();
+        int packed = build(imgDir, TileNames.MAX_DEPTH, archive);
+        System.out.printf("Packed %d tiles from %s into %s (%d bytes) in %.1f s.%n", packed,
+                imgDir, archive, archive.length(), (System.nanoTime() - start) / 1e9);
+    }
+}
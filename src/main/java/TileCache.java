@@ -0,0 +1,137 @@
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Decoded map tiles, so that /raster does not read and decode every tile PNG again for
+ * every request. Tiles are keyed by their quadtree id (see tileId) and kept up to a
+ * budget of decoded bytes, least recently used first out. Concurrent requests for a tile
+ * that is not cached yet decode it only once.
+ * <p>
+ * Tiles are converted to TYPE_INT_RGB images when they are decoded, so that they can be
+ * copied into a composite image pixel array by pixel array. The cached images are shared
+ * between requests and must not be drawn on.
+ * <p>
+ * Tiles are read from a TileArchive if one is given, and from their files otherwise.
+ */
+public class TileCache {
+    private final LruCache<Long, BufferedImage> tiles;
+    private final TileArchive archive;
+
+    /**
+     * Creates a cache holding at most maxBytes of decoded pixel data, reading tiles from
+     * their files.
+     */
+    public TileCache(long maxBytes) {
+        this(maxBytes, null);
+    }
+
+    /**
+     * Creates a cache holding at most maxBytes of decoded pixel data, reading tiles from
+     * archive where it has them.
+     */
+    public TileCache(long maxBytes, TileArchive archive) {
+        this.tiles = new LruCache<>(maxBytes, TileCache::sizeInBytes);
+        this.archive = archive;
+    }
+
+    /**
+     * Returns the decoded image of the tile file at path, e.g. "img/1423.png", or null if
+     * it is not in a known image format. Files whose names are not quadtree tile names are
+     * decoded on every call.
+     */
+    public BufferedImage get(String path) throws IOException {
+        long id = tileId(path);
+        if (id < 0) {
+            return read(path);
+        }
+        return tiles.get(id, k -> read(path));
+    }
+
+    /**
+     * Reads the image file at path, from the archive if it has it, into a TYPE_INT_RGB
+     * image, the way drawing it on a black TYPE_INT_RGB image would.
+     */
+    private BufferedImage read(String path) throws IOException {
+        ByteBuffer png = null;
+        if (archive != null) {
+            int start = path.lastIndexOf('/') + 1;
+            int end = path.lastIndexOf('.');
+            png = archive.tile(path.substring(start, end < start ? path.length() : end));
+        }
+        BufferedImage img;
+        if (png != null) {
+            img = ImageIO.read(new MemoryCacheImageInputStream(TileArchive.stream(png)));
+        } else {
+            img = ImageIO.read(new File(path));
+        }
+        if (img == null || img.getType() == BufferedImage.TYPE_INT_RGB) {
+            return img;
+        }
+        BufferedImage rgb = new BufferedImage(img.getWidth(), img.getHeight(),
+                BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = rgb.createGraphics();
+        g.drawImage(img, 0, 0, null);
+        g.dispose();
+        return rgb;
+    }
+
+    /**
+     * Returns the id of the tile with the given file path, or -1 if the file name is not a
+     * tile name. Tiles are named after their path from the root of the quadtree: "root"
+     * for the root, and one digit 1-4 (upper left, upper right, lower left, lower right)
+     * per level below it. The id holds the depth in its upper half and the digits, less
+     * one, as two bits each in its lower half, so every tile up to depth 16 has its own id.
+     */
+    static long tileId(String path) {
+        int start = path.lastIndexOf('/') + 1;
+        int end = path.lastIndexOf('.');
+        if (end < start) {
+            end = path.length();
+        }
+        if (path.startsWith(TileNames.ROOT, start) && end - start == TileNames.ROOT.length()) {
+            return 0;
+        }
+        int depth = end - start;
+        if (depth == 0 || depth > 16) {
+            return -1;
+        }
+        long quadrants = 0;
+        for (int i = start; i < end; i += 1) {
+            int d = path.charAt(i) - '1';
+            if (d < 0 || d > 3) {
+                return -1;
+            }
+            quadrants = (quadrants << 2) | d;
+        }
+        return ((long) depth << 32) | quadrants;
+    }
+
+    private static long sizeInBytes(BufferedImage img) {
+        DataBuffer data = img.getRaster().getDataBuffer();
+        return (long) data.getSize() * data.getNumBanks()
+                * DataBuffer.getDataTypeSize(data.getDataType()) / 8;
+    }
+
+    public long hits() {
+        return tiles.hits();
+    }
+
+    public long misses() {
+        return tiles.misses();
+    }
+
+    public long evictions() {
+        return tiles.evictions();
+    }
+
+    @Override
+    public String toString() {
+        return tiles.toString();
+    }
+}
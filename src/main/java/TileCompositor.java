@@ -0,0 +1,104 @@
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Puts together the image of a grid of tiles for /raster. The tiles are fetched from the
+ * TileCache (decoding the ones that are not cached) on a fixed pool of threads shared by
+ * all requests, and each thread copies its tiles' rows straight into the pixel array of
+ * the image. The result is the same as drawing the tiles one by one with drawImage.
+ */
+public class TileCompositor implements AutoCloseable {
+    private final TileCache tiles;
+    private final int tileSize;
+    private final ExecutorService pool;
+
+    /**
+     * Creates a compositor for square tiles of tileSize pixels from tiles, running on the
+     * given number of threads.
+     */
+    public TileCompositor(TileCache tiles, int tileSize, int threads) {
+        this.tiles = tiles;
+        this.tileSize = tileSize;
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "tile-compositor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * Returns the image of the tiles of grid, with grid[r][c] (a tile file path) at row r
+     * and column c. Tiles that cannot be read are left black.
+     */
+    public BufferedImage composite(String[][] grid) {
+        int rows = grid.length;
+        int columns = grid[0].length;
+        BufferedImage img = new BufferedImage(columns * tileSize, rows * tileSize,
+                BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        if (rows * columns == 1) {
+            draw(grid[0][0], pixels, img.getWidth(), img.getHeight(), 0, 0);
+            return img;
+        }
+        List<Future<?>> pending = new ArrayList<>(rows * columns);
+        for (int r = 0; r < rows; r += 1) {
+            for (int c = 0; c < columns; c += 1) {
+                String path = grid[r][c];
+                int x = c * tileSize;
+                int y = r * tileSize;
+                pending.add(pool.submit(() ->
+                        draw(path, pixels, img.getWidth(), img.getHeight(), x, y)));
+            }
+        }
+        for (Future<?> f : pending) {
+            try {
+                f.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                e.getCause().printStackTrace();
+            }
+        }
+        return img;
+    }
+
+    /**
+     * Copies the tile at path into pixels, the RGB pixels of an image of the given width
+     * and height, with its upper left corner at (x, y).
+     */
+    private void draw(String path, int[] pixels, int width, int height, int x, int y) {
+        BufferedImage tile;
+        try {
+            tile = tiles.get(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        if (tile == null) {
+            return;
+        }
+        int w = Math.min(tile.getWidth(), width - x);
+        int h = Math.min(tile.getHeight(), height - y);
+        if (w <= 0 || h <= 0) {
+            return;
+        }
+        /* TileCache hands out plain TYPE_INT_RGB images. */
+        int[] src = ((DataBufferInt) tile.getRaster().getDataBuffer()).getData();
+        for (int row = 0; row < h; row += 1) {
+            System.arraycopy(src, row * tile.getWidth(), pixels, (y + row) * width + x, w);
+        }
+    }
+
+    @Override
+    public void close() {
+        pool.shutdownNow();
+    }
+}
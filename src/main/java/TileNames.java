@@ -0,0 +1,90 @@
+/**
+ * Converts between the names of the map tiles and their positions. Tiles are named after
+ * their path from the root of the quadtree: "root" for the root, and one digit 1-4 (upper
+ * left, upper right, lower left, lower right) per level below it, so "23" is the lower
+ * left quarter of the upper right quarter. The position of a tile is its depth (the
+ * number of digits) and its column x and row y among the 2^depth by 2^depth tiles of that
+ * depth, counted from the upper left corner.
+ */
+public class TileNames {
+    public static final String ROOT = "root";
+    /**
+     * Depth of the deepest tiles there are.
+     */
+    public static final int MAX_DEPTH = 7;
+
+    /**
+     * Returns the name of the tile at column x and row y at depth.
+     */
+    public static String name(int depth, int x, int y) {
+        if (depth == 0) {
+            return ROOT;
+        }
+        char[] digits = new char[depth];
+        for (int i = depth - 1; i >= 0; i -= 1) {
+            digits[i] = (char) ('1' + (x & 1) + 2 * (y & 1));
+            x >>= 1;
+            y >>= 1;
+        }
+        return new String(digits);
+    }
+
+    /**
+     * Whether the tile at column x and row y at depth exists.
+     */
+    public static boolean exists(int depth, int x, int y) {
+        return depth >= 0 && depth <= MAX_DEPTH && x >= 0 && x < (1 << depth)
+                && y >= 0 && y < (1 << depth);
+    }
+
+    /**
+     * Whether name is the name of a tile that exists.
+     */
+    public static boolean isName(String name) {
+        if (name.equals(ROOT)) {
+            return true;
+        }
+        if (name.isEmpty() || name.length() > MAX_DEPTH) {
+            return false;
+        }
+        for (int i = 0; i < name.length(); i += 1) {
+            char c = name.charAt(i);
+            if (c < '1' || c > '4') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the depth of the tile named name.
+     */
+    public static int depth(String name) {
+        return name.equals(ROOT) ? 0 : name.length();
+    }
+
+    /**
+     * Returns the column of the tile named name.
+     */
+    public static int x(String name) {
+        return coordinate(name, 0);
+    }
+
+    /**
+     * Returns the row of the tile named name.
+     */
+    public static int y(String name) {
+        return coordinate(name, 1);
+    }
+
+    private static int coordinate(String name, int bit) {
+        if (name.equals(ROOT)) {
+            return 0;
+        }
+        int c = 0;
+        for (int i = 0; i < name.length(); i += 1) {
+            c = 2 * c + (((name.charAt(i) - '1') >> bit) & 1);
+        }
+        return c;
+    }
+}
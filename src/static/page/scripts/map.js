@@ -28,7 +28,11 @@ $(function() {
     // psueod-lock
     var getInProgress = false;
     var route_params = {};
+    var route_id = null; // handle of our route on the server, from /route
     var map;
+    var tiles; // container of the tile images in tile mode
+    var route_canvas; // overlay the route is drawn on
+    var route_points = null, route_depth; // decoded /route_geometry of our route
     var dest;
     var tx = 0, ty = 0;
     var rtx, rty;
@@ -36,7 +40,7 @@ $(function() {
     var host;
     var ullon_bound, ullat_bound, lrlon_bound, lrlat_bound;
     var img_w, img_h;
-    var constrain, theme;
+    var constrain, theme, tile_mode;
 
     /* Starting hyper-parameters #machinelearning */
     const zoom_delta = 0.04;
@@ -57,6 +61,8 @@ $(function() {
     const route_server = host + '/route';
     const clear_route = host + '/clear_route';
     const search = host + '/search';
+    const tile_server = host + '/tiles';
+    const route_geometry = host + '/route_geometry';
 
     /* ════════════════════════════ ೋღ HELPERS ღೋ ══════════════════════════ */
     /* Compute lat and lon by window size */
@@ -100,6 +106,114 @@ $(function() {
         }
     }
 
+    /* URL of the tile with the given file name in a render grid, e.g. img/412.png.
+       Each digit of the name picks a quadrant: 1 upper left, 2 upper right, 3 lower left
+       and 4 lower right. */
+    function tileUrl(file) {
+        const name = file.substring(file.lastIndexOf('/') + 1, file.lastIndexOf('.'));
+        var depth = 0, x = 0, y = 0;
+        if (name !== 'root') {
+            depth = name.length;
+            for (var i = 0; i < depth; i++) {
+                const q = name.charCodeAt(i) - 49; // '1'
+                x = 2 * x + (q & 1);
+                y = 2 * y + (q >> 1);
+            }
+        }
+        return tile_server + '/' + depth + '/' + x + '/' + y + '.png';
+    }
+
+    /* Tile mode: lay out the tiles of the render grid as separate images, which the
+       browser loads from /tiles and caches. */
+    function showTiles(grid, tileSize) {
+        tiles.empty();
+        for (var r = 0; r < grid.length; r++) {
+            for (var c = 0; c < grid[r].length; c++) {
+                $('<img/>', { src: tileUrl(grid[r][c]), draggable: false }).css({
+                    left: c * tileSize,
+                    top: r * tileSize
+                }).appendTo(tiles);
+            }
+        }
+        map.style.visibility = 'hidden';
+        tiles.show();
+    }
+
+    /* Decode a polyline from /route_geometry into [lat, lon] pairs. */
+    function decodePolyline(str) {
+        var points = [];
+        var lat = 0, lon = 0, i = 0;
+        while (i < str.length) {
+            var deltas = [0, 0];
+            for (var k = 0; k < 2; k++) {
+                var shift = 0, result = 0, b;
+                do {
+                    b = str.charCodeAt(i++) - 63;
+                    result |= (b & 0x1f) << shift;
+                    shift += 5;
+                } while (b >= 0x20);
+                deltas[k] = (result & 1) ? ~(result >> 1) : (result >> 1);
+            }
+            lat += deltas[0];
+            lon += deltas[1];
+            points.push([lat / 1e5, lon / 1e5]);
+        }
+        return points;
+    }
+
+    /* Draw the route over the current raster, which the server sends without it, so that
+       the same raster can be reused for any route. */
+    function drawRoute() {
+        route_canvas.width = img_w;
+        route_canvas.height = img_h;
+        const ctx = route_canvas.getContext('2d');
+        if (route_points === null || route_points.length < 2) {
+            return;
+        }
+        ctx.strokeStyle = 'rgba(108, 181, 230, 0.78)';
+        ctx.lineWidth = 5;
+        ctx.lineCap = 'round';
+        ctx.lineJoin = 'round';
+        ctx.beginPath();
+        for (var i = 0; i < route_points.length; i++) {
+            const x = (route_points[i][1] - ullon_bound) / wdpp;
+            const y = (ullat_bound - route_points[i][0]) / hdpp;
+            if (i === 0) {
+                ctx.moveTo(x, y);
+            } else {
+                ctx.lineTo(x, y);
+            }
+        }
+        ctx.stroke();
+    }
+
+    /* Fetch the shape of our route, simplified for the current depth, unless we have it. */
+    function updateRouteOverlay() {
+        if (route_id === null) {
+            route_points = null;
+            drawRoute();
+        } else if (route_points !== null && route_depth === current_level) {
+            drawRoute();
+        } else {
+            const id = route_id;
+            const depth = current_level;
+            $.get({
+                async: true,
+                url: route_geometry,
+                data: {route_id: id, depth: depth},
+                dataType: 'json',
+                success: function(data) {
+                    if (id !== route_id) {
+                        return;
+                    }
+                    route_points = data.found ? decodePolyline(data.polyline) : null;
+                    route_depth = depth;
+                    drawRoute();
+                },
+            });
+        }
+    }
+
     function updateImg(successCallback) {
         /* Synchronous ajax call for image update.
            Could be async for better experience but then user spam locks up the server.
@@ -110,13 +224,19 @@ $(function() {
         $.get({
             async: true,
             url: raster_server,
-            data: params,
+            data: tile_mode ? $.extend({tiles: true}, params) : params,
             success: function(data) {
                 if (data.query_success) {
                     $loadingStatus.hide();
-                    map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
-                    console.log('Updating map with image length: ' + 
-                                data.b64_encoded_image_data.length);
+                    if (data.b64_encoded_image_data === undefined) {
+                        showTiles(data.render_grid, data.raster_width / data.render_grid[0].length);
+                    } else {
+                        map.src = 'data:image/png;base64,' + data.b64_encoded_image_data;
+                        map.style.visibility = 'visible';
+                        tiles.hide();
+                        console.log('Updating map with image length: ' +
+                                    data.b64_encoded_image_data.length);
+                    }
                     ullon_bound = data.raster_ul_lon;
                     ullat_bound = data.raster_ul_lat;
                     lrlon_bound = data.raster_lr_lon;
@@ -132,6 +252,7 @@ $(function() {
                     rtx = (route_params.end_lon - params.ullon) * (1 / wdpp) - dest.width / 2 - tx;
                     rty = - (route_params.end_lat - params.ullat) * (1 / hdpp) - dest.height - ty;
                     updateMarkers();
+                    updateRouteOverlay();
                     getInProgress = false;
                     if (successCallback) {
                         successCallback();
@@ -153,6 +274,8 @@ $(function() {
 
     function updateT() {
         map.style.transform = 'translateX(' + tx + 'px) translateY(' + ty + 'px)';
+        tiles.css('transform', map.style.transform);
+        route_canvas.style.transform = map.style.transform;
         dest.style.transform = 'translateX(' + (tx+rtx) + 'px) translateY(' + (ty+rty) + 'px)';
         for (var i = 0; i < markers.length; i++) {
             const marker = markers[i];
@@ -169,8 +292,11 @@ $(function() {
             async: true,
             url: route_server,
             data: route_params,
-            success: function() {
-                updateImg();
+            dataType: 'json',
+            success: function(data) {
+                route_id = data.found ? data.route_id : null;
+                route_points = null;
+                updateRouteOverlay();
             },
         });
     }
@@ -262,6 +388,7 @@ $(function() {
         const allcookies = document.cookie.replace(/ /g, '').split(';');
         var foundConstrain = false;
         var foundTheme = false;
+        var foundTiles = false;
         for (var i = 0; i < allcookies.length; i++) {
             const kv = allcookies[i].split('=');
             if (kv[0] === 'constrain') {
@@ -273,6 +400,9 @@ $(function() {
             } else if (kv[0] === 'theme') {
                 theme = kv[1];
                 foundTheme = true;
+            } else if (kv[0] === 'tiles') {
+                tile_mode = (kv[1] === 'true');
+                foundTiles = true;
             }
         }
         if (!foundConstrain) {
@@ -283,6 +413,10 @@ $(function() {
             document.cookie = 'theme=default';
             theme = 'default';
         }
+        if (!foundTiles) {
+            document.cookie = 'tiles=true';
+            tile_mode = true;
+        }
         const date = new Date();
         // Expire 7 days from now
         date.setTime(date.getTime() + 604800000);
@@ -305,6 +439,8 @@ $(function() {
     /* ══════════════════════════════════ ೋღ SETUP ღೋ ════════════════════════════════ */
 
     map = document.getElementById('map');
+    tiles = $('#tiles');
+    route_canvas = document.getElementById('route');
     dest = document.getElementById('dest');
     dest.style.visibility = 'hidden';
     params.lrlon = real_lrlon();
@@ -317,7 +453,16 @@ $(function() {
 
     /* Make search bar do autocomplete things */
     $('#tags').autocomplete({
-          source: search,
+          /* Exact prefix matches first; if there are none, allow for a typo or two. */
+          source: function (request, response) {
+              $.getJSON(search, { term: request.term }, function (data) {
+                  if (data.length > 0) {
+                      response(data);
+                  } else {
+                      $.getJSON(search, { term: request.term, fuzzy: 2 }, response);
+                  }
+              });
+          },
           minLength: 2,
           select: function (event, ui) {
               $.get({
@@ -399,9 +544,11 @@ $(function() {
         $.get({
             async: true,
             url: clear_route,
+            data: route_id === null ? {} : {route_id: route_id},
             success: function() {
+                route_id = null;
                 dest.style.visibility = 'hidden';
-                update();
+                updateRouteOverlay();
             },
         });
     });
@@ -415,6 +562,7 @@ $(function() {
         if (constrain) {
             $('#constrain-input').prop('checked', true);
         }
+        $('#tiles-input').prop('checked', tile_mode);
         $('input[name=theme][value=' + theme + ']').prop('checked', true);
         $('.info').removeClass('active');
     });
@@ -466,6 +614,12 @@ $(function() {
         update();
     });
 
+    $('#tiles-input').change(function() {
+        tile_mode = $(this).is(':checked');
+        setCookie('tiles', tile_mode);
+        update();
+    });
+
     $('input[type=radio][name=theme]').change(function() {
         theme = this.value;
         setCookie('theme', this.value);
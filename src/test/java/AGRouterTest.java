@@ -19,4 +19,34 @@ public class AGRouterTest extends AGMapTest {
                     p.routeResult, studentRouteResult);
         }
     }
+
+    /**
+     * Test that bidirectional A* finds routes exactly as long as the expected ones. Ties
+     * may be broken differently, so only the lengths are compared.
+     */
+    @Test
+    public void testBidirectionalPathCost() throws Exception {
+        for (TestParameters p : params) {
+            LinkedList<Long> route = Router.shortestPath(graph,
+                    p.routeParams.get("start_lon"), p.routeParams.get("start_lat"),
+                    p.routeParams.get("end_lon"), p.routeParams.get("end_lat"),
+                    Router.Mode.BIDIRECTIONAL);
+            assertEquals("Route length differs for input: " + p.routeParams + ".\n",
+                    length(p.routeResult), length(route), 1e-9);
+            assertEquals(p.routeResult.getFirst(), route.getFirst());
+            assertEquals(p.routeResult.getLast(), route.getLast());
+        }
+    }
+
+    private static double length(LinkedList<Long> route) {
+        double length = 0;
+        Long prev = null;
+        for (Long id : route) {
+            if (prev != null) {
+                length += graph.distance(prev, id);
+            }
+            prev = id;
+        }
+        return length;
+    }
 }
@@ -0,0 +1,43 @@
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ContractionHierarchyTest {
+    /**
+     * Paths through the hierarchy must be real paths of the graph, as short as those A*
+     * finds, including between the two components and from a vertex to itself.
+     */
+    @Test
+    public void testMatchesAStar() {
+        for (int seed = 0; seed < 3; seed += 1) {
+            Random r = new Random(50 + seed);
+            CompactGraph g = RouterTest.randomGraph(300 + 100 * seed, r);
+            ContractionHierarchy ch = ContractionHierarchy.build(g);
+            SearchContext forward = new SearchContext();
+            SearchContext backward = new SearchContext();
+            int unreachable = 0;
+            for (int i = 0; i < 400; i += 1) {
+                int s = r.nextInt(g.size());
+                int t = i % 40 == 0 ? s : r.nextInt(g.size());
+                LinkedList<Long> expected = Router.shortestPath(g, s, t);
+                LinkedList<Long> actual = ch.shortestPath(s, t, forward, backward);
+                if (expected.isEmpty()) {
+                    assertTrue(actual.isEmpty());
+                    unreachable += 1;
+                    continue;
+                }
+                assertEquals(g.id(s), (long) actual.getFirst());
+                assertEquals(g.id(t), (long) actual.getLast());
+                if (s == t) {
+                    assertEquals(1, actual.size());
+                }
+                assertEquals(RouterTest.length(g, expected), RouterTest.length(g, actual),
+                        1e-9);
+            }
+            assertTrue(unreachable > 0);
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class DistanceMatrixTest {
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    private static int[] randomVertices(CompactGraph g, int count, Random r) {
+        int[] vertices = new int[count];
+        for (int i = 0; i < count; i += 1) {
+            vertices[i] = r.nextInt(g.size());
+        }
+        return vertices;
+    }
+
+    /**
+     * Returns the table computed by routing every pair separately.
+     */
+    private static double[][] pairwise(CompactGraph g, int[] sources, int[] targets) {
+        SearchContext ctx = new SearchContext();
+        double[][] table = new double[sources.length][targets.length];
+        for (int i = 0; i < sources.length; i += 1) {
+            for (int j = 0; j < targets.length; j += 1) {
+                boolean found = Router.search(g, sources[i], targets[j], Router.euclidean(g),
+                        ctx);
+                table[i][j] = found ? ctx.dist(targets[j]) : Double.POSITIVE_INFINITY;
+            }
+        }
+        return table;
+    }
+
+    private static void assertTablesEqual(double[][] expected, double[][] actual) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i += 1) {
+            assertArrayEquals(expected[i], actual[i], 1e-9);
+        }
+    }
+
+    @Test
+    public void testMatchesPairwiseRoutes() {
+        Random r = new Random(23);
+        CompactGraph g = RouterTest.randomGraph(300, r);
+        ContractionHierarchy ch = ContractionHierarchy.build(g);
+        int[] sources = randomVertices(g, 20, r);
+        int[] targets = randomVertices(g, 30, r);
+        targets[0] = sources[0];
+        targets[1] = targets[2];
+        double[][] expected = pairwise(g, sources, targets);
+        assertEquals(0, expected[0][0], 0);
+
+        assertTablesEqual(expected, DistanceMatrix.byDijkstra(g, sources, targets, POOL));
+        assertTablesEqual(expected, DistanceMatrix.byHierarchy(g, ch, sources, targets, POOL));
+    }
+
+    @Test
+    public void testMissingPoints() {
+        CompactGraph g = RouterTest.randomGraph(50, new Random(24));
+        int[] sources = {-1, 3};
+        int[] targets = {3, -1};
+        double[][] table = DistanceMatrix.byDijkstra(g, sources, targets, POOL);
+        assertEquals(Double.POSITIVE_INFINITY, table[0][0], 0);
+        assertEquals(0, table[1][0], 0);
+        assertEquals(Double.POSITIVE_INFINITY, table[1][1], 0);
+        table = DistanceMatrix.byHierarchy(g, ContractionHierarchy.build(g), sources, targets,
+                POOL);
+        assertEquals(Double.POSITIVE_INFINITY, table[0][0], 0);
+        assertEquals(0, table[1][0], 0);
+        assertEquals(Double.POSITIVE_INFINITY, table[1][1], 0);
+    }
+}
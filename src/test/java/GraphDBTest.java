@@ -0,0 +1,68 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GraphDBTest {
+    /**
+     * Both build modes must give the same graph and places, from XML and from PBF. The
+     * test map has ways after the nodes they use, nodes on ways that are not roads, and
+     * named nodes after all the ways that are places but not on any road.
+     */
+    @Test
+    public void testBuildModesAgree() throws Exception {
+        Random r = new Random(13);
+        OsmTestFiles map = new OsmTestFiles(r, 400);
+        File xml = OsmTestFiles.write(map.toXml(r, ""), ".osm");
+        File pbf = OsmTestFiles.write(OsmPbfReaderTest.toPbf(map, r, "OsmSchema-V0.6"),
+                ".osm.pbf");
+        try {
+            for (File f : new File[]{xml, pbf}) {
+                String singlePass = build(f, GraphDB.BuildMode.SINGLE_PASS);
+                assertEquals(f.getName(), singlePass, build(f, GraphDB.BuildMode.TWO_PASS));
+                for (OsmTestFiles.Node n : map.lateNodes) {
+                    assertTrue(singlePass.contains("{id=" + n.id + ","));
+                    assertFalse(singlePass.contains("\n" + n.id + " "));
+                }
+            }
+        } finally {
+            OsmTestFiles.delete(xml);
+            OsmTestFiles.delete(pbf);
+        }
+    }
+
+    /**
+     * A file that is missing or cannot be parsed must give an empty graph that can still
+     * be queried, and no snapshot.
+     */
+    @Test
+    public void testUnreadableFileGivesEmptyGraph() throws Exception {
+        File garbage = OsmTestFiles.write("<osm><node id=\"1\" lat=", ".osm");
+        File missing = new File(garbage.getPath() + ".missing.osm");
+        try {
+            for (File f : new File[]{missing, garbage}) {
+                GraphDB g = new GraphDB(f.getPath());
+                assertFalse(g.vertices().iterator().hasNext());
+                assertTrue(g.places.isEmpty());
+                assertEquals(-1, g.closestIndex(-122.26, 37.87));
+                assertEquals(0, g.closest(-122.26, 37.87, 3).length);
+                assertTrue(g.placeIndex.prefixMatches("t").isEmpty());
+                assertTrue(g.placeIndex.topMatches("t", 5).isEmpty());
+                assertFalse(GraphDB.snapshotFile(f.getPath()).exists());
+            }
+        } finally {
+            OsmTestFiles.delete(garbage);
+            OsmTestFiles.delete(missing);
+        }
+    }
+
+    /**
+     * Builds the graph of f with mode, from the file itself rather than a snapshot.
+     */
+    private static String build(File f, GraphDB.BuildMode mode) {
+        GraphDB.snapshotFile(f.getPath()).delete();
+        return OsmTestFiles.dump(new GraphDB(f.getPath(), mode));
+    }
+}
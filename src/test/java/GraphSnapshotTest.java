@@ -0,0 +1,114 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class GraphSnapshotTest {
+    /**
+     * A snapshot read back must give the same graph, places and place index as the
+     * GraphDB it was written from.
+     */
+    @Test
+    public void testRoundTrip() throws Exception {
+        Random r = new Random(70);
+        File source = OsmTestFiles.write(new OsmTestFiles(r, 400).toXml(r, ""), ".osm");
+        File snapshot = GraphDB.snapshotFile(source.getPath());
+        try {
+            GraphDB g = new GraphDB(source, GraphDB::readSax);
+            GraphSnapshot.write(g, snapshot, source);
+            GraphDB copy = empty();
+            assertTrue(GraphSnapshot.read(copy, snapshot, source));
+            assertEquals(OsmTestFiles.dump(g), OsmTestFiles.dump(copy));
+            assertArrayEquals(g.compact().weights, copy.compact().weights, 0);
+
+            assertFalse(g.places.isEmpty());
+            for (Map.Entry<String, ? extends List<Map<String, Object>>> e
+                    : g.places.entrySet()) {
+                String name = (String) e.getValue().get(0).get("name");
+                assertEquals(g.placeIndex.fuzzyNames(name, 1),
+                        copy.placeIndex.fuzzyNames(name, 1));
+                for (int length = 0; length <= 3; length += 1) {
+                    String prefix = e.getKey().substring(0, Math.min(length,
+                            e.getKey().length()));
+                    assertEquals(g.placeIndex.prefixMatches(prefix),
+                            copy.placeIndex.prefixMatches(prefix));
+                    assertEquals(g.placeIndex.topMatches(prefix, 5),
+                            copy.placeIndex.topMatches(prefix, 5));
+                    assertEquals(g.placeIndex.fuzzyMatches(prefix, 1, 5),
+                            copy.placeIndex.fuzzyMatches(prefix, 1, 5));
+                }
+            }
+        } finally {
+            OsmTestFiles.delete(source);
+        }
+    }
+
+    /**
+     * A snapshot with a damaged payload, another version, a truncated header, or of a
+     * source file whose mtime or length has changed must be refused without touching
+     * the graph it was to be read into.
+     */
+    @Test
+    public void testRejectsMismatches() throws Exception {
+        Random r = new Random(71);
+        File source = OsmTestFiles.write(new OsmTestFiles(r, 100).toXml(r, ""), ".osm");
+        File snapshot = GraphDB.snapshotFile(source.getPath());
+        try {
+            GraphSnapshot.write(new GraphDB(source, GraphDB::readSax), snapshot, source);
+            byte[] good = Files.readAllBytes(snapshot.toPath());
+            GraphDB target = empty();
+            String emptyDump = OsmTestFiles.dump(target);
+            assertTrue(GraphSnapshot.read(empty(), snapshot, source));
+
+            byte[] corrupt = good.clone();
+            corrupt[corrupt.length / 2] ^= 0x10;
+            assertRefused(target, corrupt, snapshot, source);
+
+            byte[] otherVersion = good.clone();
+            otherVersion[7] += 1;
+            assertRefused(target, otherVersion, snapshot, source);
+
+            assertRefused(target, Arrays.copyOf(good, 20), snapshot, source);
+
+            long mtime = source.lastModified();
+            assertTrue(source.setLastModified(mtime - 60000));
+            assertRefused(target, good, snapshot, source);
+            assertTrue(source.setLastModified(mtime));
+            assertTrue(GraphSnapshot.read(empty(), snapshot, source));
+
+            Files.write(source.toPath(), new byte[]{'\n'}, StandardOpenOption.APPEND);
+            assertTrue(source.setLastModified(mtime));
+            assertRefused(target, good, snapshot, source);
+            assertEquals(emptyDump, OsmTestFiles.dump(target));
+        } finally {
+            OsmTestFiles.delete(source);
+        }
+    }
+
+    private static void assertRefused(GraphDB target, byte[] snapshotBytes, File snapshot,
+                                      File source) throws IOException {
+        Files.write(snapshot.toPath(), snapshotBytes);
+        assertFalse(GraphSnapshot.read(target, snapshot, source));
+    }
+
+    /**
+     * A GraphDB without vertices or places to read snapshots into.
+     */
+    private static GraphDB empty() throws Exception {
+        File f = OsmTestFiles.write("", ".osm");
+        try {
+            return new GraphDB(f, (file, db) -> {
+            });
+        } finally {
+            OsmTestFiles.delete(f);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class IndexedMinHeapTest {
+    /**
+     * Push random keys, lower some of them, and check that pops come out in key order.
+     */
+    @Test
+    public void testPopOrderWithDecreaseKey() {
+        int n = 500;
+        Random r = new Random(5);
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+        double[] expected = new double[n];
+        for (int v = 0; v < n; v += 1) {
+            expected[v] = r.nextDouble();
+            assertTrue(heap.push(v, expected[v]));
+        }
+        for (int v = 0; v < n; v += 3) {
+            assertFalse(heap.push(v, expected[v] + 1));
+            expected[v] /= 2;
+            assertTrue(heap.push(v, expected[v]));
+        }
+        assertEquals(n, heap.size());
+
+        double[] popped = new double[n];
+        for (int i = 0; i < n; i += 1) {
+            double key = heap.minKey();
+            int v = heap.pop();
+            assertFalse(heap.contains(v));
+            assertEquals(expected[v], key, 0);
+            popped[i] = key;
+        }
+        assertTrue(heap.isEmpty());
+        double[] sorted = expected.clone();
+        Arrays.sort(sorted);
+        assertArrayEquals(sorted, popped, 0);
+    }
+
+    @Test
+    public void testClearAndGrow() {
+        IndexedMinHeap heap = new IndexedMinHeap(2);
+        heap.push(0, 2.0);
+        heap.push(1, 1.0);
+        heap.clear();
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(0));
+
+        heap.ensureCapacity(10);
+        heap.push(9, 3.0);
+        heap.push(0, 4.0);
+        assertEquals(9, heap.peek());
+        assertEquals(9, heap.pop());
+        assertEquals(0, heap.pop());
+        assertEquals(Double.POSITIVE_INFINITY, heap.minKey(), 0);
+    }
+}
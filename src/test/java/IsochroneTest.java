@@ -0,0 +1,59 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+public class IsochroneTest {
+    @Test
+    public void testReachable() {
+        Random r = new Random(24);
+        CompactGraph g = RouterTest.randomGraph(300, r);
+        int[] all = new int[g.size()];
+        for (int v = 0; v < all.length; v += 1) {
+            all[v] = v;
+        }
+        for (double maxDistance : new double[]{0, 0.05, 0.2, 10}) {
+            int start = r.nextInt(g.size());
+            double[] dist = DistanceMatrix.byDijkstra(g, new int[]{start}, all,
+                    ForkJoinPool.commonPool())[0];
+            Set<Integer> expected = new HashSet<>();
+            for (int v = 0; v < dist.length; v += 1) {
+                if (dist[v] <= maxDistance) {
+                    expected.add(v);
+                }
+            }
+            int[] reached = Isochrone.reachable(g, start, maxDistance);
+            assertEquals(start, reached[0]);
+            Set<Integer> actual = new HashSet<>();
+            for (int v : reached) {
+                assertTrue(actual.add(v));
+            }
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void testConvexHull() {
+        /* A square with one point inside, one on an edge and one twice. */
+        double[] lons = {0, 1, 1, 0, 0.5, 0.5, 1};
+        double[] lats = {0, 0, 1, 1, 0.5, 0, 1};
+        long[] ids = {1, 2, 3, 4, 5, 6, 7};
+        CompactGraph g = new CompactGraph(ids, lons, lats, new int[8], new int[0]);
+        double[][] hull = Isochrone.convexHull(g, new int[]{4, 2, 0, 6, 5, 3, 1});
+        assertEquals(4, hull.length);
+        assertArrayEquals(new double[]{0, 0}, hull[0], 0);
+        assertArrayEquals(new double[]{1, 0}, hull[1], 0);
+        assertArrayEquals(new double[]{1, 1}, hull[2], 0);
+        assertArrayEquals(new double[]{0, 1}, hull[3], 0);
+
+        assertEquals(1, Isochrone.convexHull(g, new int[]{2, 6}).length);
+        double[][] line = Isochrone.convexHull(g, new int[]{0, 4, 2});
+        assertEquals(2, line.length);
+        assertTrue(Arrays.equals(new double[]{1, 1}, line[1]));
+    }
+}
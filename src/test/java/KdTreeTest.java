@@ -0,0 +1,95 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the k-d tree queries against a brute force scan over random points.
+ */
+public class KdTreeTest {
+    private static final int N = 2000;
+
+    private double[] x = new double[N];
+    private double[] y = new double[N];
+    private KdTree tree;
+
+    public KdTreeTest() {
+        Random r = new Random(61);
+        for (int i = 0; i < N; i += 1) {
+            x[i] = -122.3 + 0.1 * r.nextDouble();
+            /* Snap latitudes to a coarse grid so that the tree has to deal with ties. */
+            y[i] = 37.8 + r.nextInt(40) / 400.0;
+        }
+        tree = new KdTree(x, y);
+    }
+
+    private double distSq(int i, double qx, double qy) {
+        return (x[i] - qx) * (x[i] - qx) + (y[i] - qy) * (y[i] - qy);
+    }
+
+    private double[] sortedDistances(double qx, double qy) {
+        double[] d = new double[N];
+        for (int i = 0; i < N; i += 1) {
+            d[i] = distSq(i, qx, qy);
+        }
+        Arrays.sort(d);
+        return d;
+    }
+
+    @Test
+    public void testNearest() {
+        Random r = new Random(1);
+        for (int q = 0; q < 200; q += 1) {
+            double qx = -122.32 + 0.14 * r.nextDouble();
+            double qy = 37.78 + 0.14 * r.nextDouble();
+            assertEquals(sortedDistances(qx, qy)[0], distSq(tree.nearest(qx, qy), qx, qy), 0);
+        }
+    }
+
+    @Test
+    public void testKNearest() {
+        Random r = new Random(2);
+        for (int q = 0; q < 200; q += 1) {
+            double qx = -122.3 + 0.1 * r.nextDouble();
+            double qy = 37.8 + 0.1 * r.nextDouble();
+            double[] expected = sortedDistances(qx, qy);
+            int[] actual = tree.nearest(qx, qy, 8);
+            assertEquals(8, actual.length);
+            for (int i = 0; i < actual.length; i += 1) {
+                assertEquals(expected[i], distSq(actual[i], qx, qy), 0);
+            }
+        }
+        assertEquals(N, tree.nearest(-122.25, 37.85, N + 10).length);
+    }
+
+    @Test
+    public void testWithinRadius() {
+        Random r = new Random(3);
+        for (int q = 0; q < 200; q += 1) {
+            double qx = -122.3 + 0.1 * r.nextDouble();
+            double qy = 37.8 + 0.1 * r.nextDouble();
+            double radius = 0.02 * r.nextDouble();
+            int expected = 0;
+            for (int i = 0; i < N; i += 1) {
+                if (distSq(i, qx, qy) <= radius * radius) {
+                    expected += 1;
+                }
+            }
+            int[] actual = tree.withinRadius(qx, qy, radius);
+            assertEquals(expected, actual.length);
+            for (int i : actual) {
+                assertTrue(distSq(i, qx, qy) <= radius * radius);
+            }
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        KdTree empty = new KdTree(new double[0], new double[0]);
+        assertEquals(-1, empty.nearest(0, 0));
+        assertEquals(0, empty.nearest(0, 0, 3).length);
+        assertEquals(0, empty.withinRadius(0, 0, 1).length);
+    }
+}
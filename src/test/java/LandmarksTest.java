@@ -0,0 +1,64 @@
+import org.junit.Test;
+
+import java.util.LinkedList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LandmarksTest {
+    /**
+     * The bound must never exceed the network distance (admissible), and must not drop
+     * by more than an edge's weight along that edge (consistent), or A* may settle
+     * vertices too early.
+     */
+    @Test
+    public void testBoundIsAdmissibleAndConsistent() {
+        Random r = new Random(60);
+        CompactGraph g = RouterTest.randomGraph(300, r);
+        Landmarks landmarks = Landmarks.build(g, 6);
+        SearchContext ctx = new SearchContext();
+        for (int i = 0; i < 30; i += 1) {
+            int t = r.nextInt(g.size());
+            Isochrone.reachable(g, t, Double.POSITIVE_INFINITY, ctx);
+            assertEquals(0, landmarks.estimate(t, t), 1e-9);
+            for (int v = 0; v < g.size(); v += 1) {
+                double estimate = landmarks.estimate(v, t);
+                assertTrue(estimate >= 0);
+                if (ctx.isSettled(v)) {
+                    assertTrue(estimate <= ctx.dist(v) + 1e-9);
+                }
+                for (int e = g.offsets[v]; e < g.offsets[v + 1]; e += 1) {
+                    assertTrue(estimate <= g.weights[e]
+                            + landmarks.estimate(g.targets[e], t) + 1e-9);
+                }
+            }
+        }
+    }
+
+    /**
+     * A* with landmarks must find paths as short as A* with the straight-line bound.
+     */
+    @Test
+    public void testMatchesAStar() {
+        Random r = new Random(61);
+        CompactGraph g = RouterTest.randomGraph(400, r);
+        Landmarks landmarks = Landmarks.build(g, 8);
+        SearchContext ctx = new SearchContext();
+        int unreachable = 0;
+        for (int i = 0; i < 400; i += 1) {
+            int s = r.nextInt(g.size());
+            int t = i % 40 == 0 ? s : r.nextInt(g.size());
+            LinkedList<Long> expected = Router.shortestPath(g, s, t);
+            LinkedList<Long> actual = Router.shortestPath(g, s, t, landmarks, ctx);
+            if (expected.isEmpty()) {
+                assertTrue(actual.isEmpty());
+                unreachable += 1;
+                continue;
+            }
+            assertEquals(g.id(s), (long) actual.getFirst());
+            assertEquals(g.id(t), (long) actual.getLast());
+            assertEquals(RouterTest.length(g, expected), RouterTest.length(g, actual), 1e-9);
+        }
+        assertTrue(unreachable > 0);
+    }
+}
@@ -0,0 +1,52 @@
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongHashSetTest {
+    /**
+     * Add random ids, including the ones the table uses internally, and compare against a
+     * HashSet.
+     */
+    @Test
+    public void testAgainstHashSet() {
+        Random r = new Random(10);
+        LongHashSet set = new LongHashSet();
+        HashSet<Long> expected = new HashSet<>();
+        long[] special = {0, -1, Long.MIN_VALUE, Long.MAX_VALUE};
+        for (long id : special) {
+            assertTrue(set.add(id));
+            expected.add(id);
+        }
+        for (int i = 0; i < 20000; i += 1) {
+            long id = r.nextInt(30000) - 1000;
+            assertEquals(expected.add(id), set.add(id));
+        }
+        assertEquals(expected.size(), set.size());
+        for (long id = -2000; id < 31000; id += 1) {
+            assertEquals(expected.contains(id), set.contains(id));
+        }
+        for (long id : special) {
+            assertTrue(set.contains(id));
+            assertFalse(set.add(id));
+        }
+    }
+
+    @Test
+    public void testAddAll() {
+        LongHashSet a = new LongHashSet(4);
+        LongHashSet b = new LongHashSet();
+        for (long id = 0; id < 100; id += 1) {
+            a.add(id);
+            b.add(id + 50);
+        }
+        b.add(Long.MIN_VALUE);
+        a.addAll(b);
+        assertEquals(151, a.size());
+        assertTrue(a.contains(149));
+        assertTrue(a.contains(Long.MIN_VALUE));
+        assertFalse(a.contains(150));
+    }
+}
@@ -0,0 +1,33 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LongIntMapTest {
+    @Test
+    public void testAgainstHashMap() {
+        Random r = new Random(11);
+        LongIntMap map = new LongIntMap(0, -1);
+        HashMap<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 20000; i += 1) {
+            long key = i % 7 == 0 ? Long.MIN_VALUE + r.nextInt(3) : r.nextLong() % 50000;
+            int value = r.nextInt();
+            map.put(key, value);
+            expected.put(key, value);
+        }
+        assertEquals(expected.size(), map.size());
+        for (long key : expected.keySet()) {
+            assertTrue(map.containsKey(key));
+            assertEquals((int) expected.get(key), map.get(key));
+        }
+        for (int i = 0; i < 20000; i += 1) {
+            long key = r.nextLong() % 100000;
+            if (!expected.containsKey(key)) {
+                assertFalse(map.containsKey(key));
+                assertEquals(-1, map.get(key));
+            }
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class LruCacheTest {
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws IOException {
+        LruCache<Integer, String> cache = new LruCache<>(10, String::length);
+        cache.put(1, "aaaa");
+        cache.put(2, "bbbb");
+        assertEquals("aaaa", cache.getIfPresent(1));
+        cache.put(3, "cccc");
+        assertNull(cache.getIfPresent(2));
+        assertEquals("aaaa", cache.getIfPresent(1));
+        assertEquals("cccc", cache.getIfPresent(3));
+        assertEquals(8, cache.weight());
+        assertEquals(1, cache.evictions());
+
+        cache.put(4, "dddddddddddd");
+        assertNull(cache.getIfPresent(4));
+        assertEquals(2, cache.size());
+
+        assertEquals("eeee", cache.get(5, k -> "eeee"));
+        assertEquals("eeee", cache.get(5, k -> "ffff"));
+        assertEquals(1, cache.misses());
+        assertEquals(4, cache.hits());
+
+        cache.invalidateIf(k -> k % 2 == 1);
+        assertNull(cache.getIfPresent(3));
+        assertNull(cache.getIfPresent(5));
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testLoadsOnce() throws Exception {
+        LruCache<Integer, String> cache = new LruCache<>(100, String::length);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i += 1) {
+                results.add(pool.submit(() -> cache.get(7, k -> {
+                    loads.incrementAndGet();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                    return "seven";
+                })));
+            }
+            while (loads.get() == 0) {
+                Thread.sleep(1);
+            }
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<String> f : results) {
+                assertEquals("seven", f.get());
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.misses());
+        assertEquals(8, cache.hits() + cache.misses() + cache.coalesced());
+    }
+
+    @Test
+    public void testExpires() throws IOException {
+        long[] now = {0};
+        LruCache<Integer, String> cache = new LruCache<>(100, String::length, 1000,
+                () -> now[0]);
+        cache.put(1, "one");
+        now[0] = 999_999_999L;
+        assertEquals("one", cache.getIfPresent(1));
+        now[0] = 1_000_000_000L;
+        assertNull(cache.getIfPresent(1));
+        assertEquals(1, cache.expirations());
+        assertEquals(0, cache.weight());
+        assertEquals("uno", cache.get(1, k -> "uno"));
+        assertEquals("uno", cache.get(1, k -> "eins"));
+        assertEquals(2, cache.hits());
+        assertEquals(1, cache.misses());
+        assertEquals(2.0 / 3, cache.hitRate(), 1e-12);
+    }
+
+    @Test
+    public void testRouteCache() throws IOException {
+        RouteCache cache = new RouteCache(1 << 20, 0);
+        LinkedList<Long> route = new LinkedList<>(Arrays.asList(5L, 3L, 9L));
+        long[] found = cache.get(5, 9, k -> RouteCache.toArray(route));
+        assertArrayEquals(new long[]{5, 3, 9}, found);
+        assertSame(found, cache.get(5, 9, k -> null));
+        assertEquals(0, cache.get(9, 5, k -> RouteCache.toArray(new LinkedList<>())).length);
+        assertEquals(0, cache.get(9, 5, k -> null).length);
+        assertEquals(route, RouteCache.toList(found));
+        assertEquals(0.5, cache.hitRate(), 0);
+        cache.clear();
+        assertNull(cache.get(5, 9, k -> null));
+    }
+
+    @Test
+    public void testTileIds() {
+        assertEquals(0, TileCache.tileId("img/root.png"));
+        assertEquals((1L << 32) | 0, TileCache.tileId("img/1.png"));
+        assertEquals((3L << 32) | 0b110001, TileCache.tileId("img/412.png"));
+        assertNotEquals(TileCache.tileId("img/1.png"), TileCache.tileId("img/11.png"));
+        assertEquals(-1, TileCache.tileId("img/405.png"));
+        assertEquals(-1, TileCache.tileId("img/.png"));
+    }
+}
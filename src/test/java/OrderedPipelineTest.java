@@ -0,0 +1,80 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OrderedPipelineTest {
+    /**
+     * Results reach the consumer in submission order, although later tasks mostly finish
+     * first, and there are more tasks than may be in flight at once.
+     */
+    @Test
+    public void testKeepsOrder() throws IOException {
+        Random r = new Random(12);
+        List<Integer> consumed = new ArrayList<>();
+        int count = 40 * Runtime.getRuntime().availableProcessors();
+        try (OrderedPipeline<Integer> pipeline = new OrderedPipeline<>("test",
+                consumed::add)) {
+            for (int i = 0; i < count; i += 1) {
+                int task = i;
+                int delay = (count - i) % 7 + r.nextInt(3);
+                pipeline.submit(() -> {
+                    Thread.sleep(delay);
+                    return task;
+                });
+            }
+            pipeline.finish();
+        }
+        assertEquals(count, consumed.size());
+        for (int i = 0; i < count; i += 1) {
+            assertEquals(i, (int) consumed.get(i));
+        }
+    }
+
+    /**
+     * The IOException of a task is rethrown as it is, after the results before it have
+     * been consumed; any other exception is wrapped in an IOException.
+     */
+    @Test
+    public void testPassesOnExceptions() {
+        List<Integer> consumed = new ArrayList<>();
+        IOException failure = new IOException("task 5 failed");
+        try (OrderedPipeline<Integer> pipeline = new OrderedPipeline<>("test",
+                consumed::add)) {
+            for (int i = 0; i < 10; i += 1) {
+                int task = i;
+                pipeline.submit(() -> {
+                    if (task == 5) {
+                        throw failure;
+                    }
+                    Thread.sleep(10 - task);
+                    return task;
+                });
+            }
+            pipeline.finish();
+            fail("The failure of a task was lost.");
+        } catch (IOException e) {
+            assertSame(failure, e);
+        }
+        assertEquals(5, consumed.size());
+        for (int i = 0; i < 5; i += 1) {
+            assertEquals(i, (int) consumed.get(i));
+        }
+
+        IllegalStateException bug = new IllegalStateException("bug");
+        try (OrderedPipeline<Integer> pipeline = new OrderedPipeline<>("test", x -> {
+        })) {
+            pipeline.submit(() -> {
+                throw bug;
+            });
+            pipeline.finish();
+            fail("The failure of a task was lost.");
+        } catch (IOException e) {
+            assertSame(bug, e.getCause());
+        }
+    }
+}
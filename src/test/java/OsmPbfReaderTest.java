@@ -0,0 +1,295 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.Assert.*;
+
+public class OsmPbfReaderTest {
+    /**
+     * A PBF file of the same map as an XML file must build the same graph and places as
+     * the SAX handler does from the XML, in one pass and in two.
+     */
+    @Test
+    public void testMatchesXml() throws Exception {
+        Random r = new Random(10);
+        OsmTestFiles map = new OsmTestFiles(r, 400);
+        File xml = OsmTestFiles.write(map.toXml(r, ""), ".osm");
+        File pbf = OsmTestFiles.write(toPbf(map, r, "OsmSchema-V0.6"), ".osm.pbf");
+        try {
+            String expected = OsmTestFiles.dump(new GraphDB(xml, GraphDB::readSax));
+            assertTrue(expected.contains("place top dog:"));
+            for (boolean twoPass : new boolean[]{false, true}) {
+                GraphDB g = new GraphDB(pbf, (file, db) -> OsmPbfReader.read(file, db,
+                        twoPass));
+                assertEquals("two passes " + twoPass, expected, OsmTestFiles.dump(g));
+            }
+        } finally {
+            OsmTestFiles.delete(xml);
+            OsmTestFiles.delete(pbf);
+        }
+    }
+
+    @Test
+    public void testRejectsUnsupportedFeature() throws Exception {
+        Random r = new Random(11);
+        File pbf = OsmTestFiles.write(toPbf(new OsmTestFiles(r, 20), r,
+                "HistoricalInformation"), ".osm.pbf");
+        try {
+            new GraphDB(pbf, (file, db) -> OsmPbfReader.read(file, db, false));
+            fail("The reader accepted a file that needs an unsupported feature.");
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("HistoricalInformation"));
+        } finally {
+            OsmTestFiles.delete(pbf);
+        }
+    }
+
+    /**
+     * Encodes the map as a PBF file that needs the given feature besides DenseNodes: the
+     * nodes in blocks of dense or plain nodes, then the ways, a blob of an unknown type
+     * and the late nodes. Blobs are stored raw or compressed, and coordinates with
+     * nanodegree granularity and random offsets.
+     */
+    static byte[] toPbf(OsmTestFiles map, Random r, String feature)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ProtoWriter header = new ProtoWriter();
+        header.string(4, feature);
+        header.string(4, "DenseNodes");
+        writeBlob(out, "OSMHeader", header.toByteArray(), r);
+        for (int i = 0; i < map.nodes.size(); i += 50) {
+            List<OsmTestFiles.Node> nodes = map.nodes.subList(i,
+                    Math.min(i + 50, map.nodes.size()));
+            writeBlob(out, "OSMData", nodeBlock(nodes, r), r);
+        }
+        for (int i = 0; i < map.ways.size(); i += 30) {
+            List<OsmTestFiles.Way> ways = map.ways.subList(i,
+                    Math.min(i + 30, map.ways.size()));
+            writeBlob(out, "OSMData", wayBlock(ways), r);
+        }
+        writeBlob(out, "OSMUnknown", new byte[]{1, 2, 3}, r);
+        writeBlob(out, "OSMData", nodeBlock(map.lateNodes, r), r);
+        return out.toByteArray();
+    }
+
+    private static byte[] nodeBlock(List<OsmTestFiles.Node> nodes, Random r) {
+        Strings strings = new Strings();
+        long lonOffset = r.nextBoolean() ? 0 : -122000000000L;
+        long latOffset = r.nextBoolean() ? 0 : 37000000000L;
+        ProtoWriter group = new ProtoWriter();
+        if (r.nextBoolean()) {
+            ProtoWriter ids = new ProtoWriter();
+            ProtoWriter lats = new ProtoWriter();
+            ProtoWriter lons = new ProtoWriter();
+            ProtoWriter keysVals = new ProtoWriter();
+            long id = 0;
+            long lat = 0;
+            long lon = 0;
+            for (OsmTestFiles.Node n : nodes) {
+                ids.rawVarint(ProtoWriter.zigzag(n.id - id));
+                lats.rawVarint(ProtoWriter.zigzag(nanodegrees(n.lat) - latOffset - lat));
+                lons.rawVarint(ProtoWriter.zigzag(nanodegrees(n.lon) - lonOffset - lon));
+                id = n.id;
+                lat = nanodegrees(n.lat) - latOffset;
+                lon = nanodegrees(n.lon) - lonOffset;
+                if (n.name != null) {
+                    keysVals.rawVarint(strings.get("name"));
+                    keysVals.rawVarint(strings.get(n.name));
+                }
+                keysVals.rawVarint(strings.get("amenity"));
+                keysVals.rawVarint(strings.get("cafe"));
+                keysVals.rawVarint(0);
+            }
+            ProtoWriter dense = new ProtoWriter();
+            dense.message(1, ids);
+            dense.message(8, lats);
+            dense.message(9, lons);
+            dense.message(10, keysVals);
+            group.message(2, dense);
+        } else {
+            for (OsmTestFiles.Node n : nodes) {
+                ProtoWriter keys = new ProtoWriter();
+                ProtoWriter vals = new ProtoWriter();
+                keys.rawVarint(strings.get("amenity"));
+                vals.rawVarint(strings.get("cafe"));
+                if (n.name != null) {
+                    keys.rawVarint(strings.get("name"));
+                    vals.rawVarint(strings.get(n.name));
+                }
+                ProtoWriter node = new ProtoWriter();
+                node.signed(1, n.id);
+                node.message(2, keys);
+                node.message(3, vals);
+                node.signed(8, nanodegrees(n.lat) - latOffset);
+                node.signed(9, nanodegrees(n.lon) - lonOffset);
+                group.message(1, node);
+            }
+        }
+        ProtoWriter block = new ProtoWriter();
+        block.message(1, strings.toMessage());
+        block.message(2, group);
+        block.varint(17, 1);
+        block.varint(19, latOffset);
+        block.varint(20, lonOffset);
+        return block.toByteArray();
+    }
+
+    private static byte[] wayBlock(List<OsmTestFiles.Way> ways) {
+        Strings strings = new Strings();
+        ProtoWriter group = new ProtoWriter();
+        for (OsmTestFiles.Way w : ways) {
+            ProtoWriter keys = new ProtoWriter();
+            ProtoWriter vals = new ProtoWriter();
+            if (w.name != null) {
+                keys.rawVarint(strings.get("name"));
+                vals.rawVarint(strings.get(w.name));
+            }
+            if (w.highway != null) {
+                keys.rawVarint(strings.get("highway"));
+                vals.rawVarint(strings.get(w.highway));
+            }
+            keys.rawVarint(strings.get("maxspeed"));
+            vals.rawVarint(strings.get("25 mph"));
+            ProtoWriter refs = new ProtoWriter();
+            long ref = 0;
+            for (long next : w.refs) {
+                refs.rawVarint(ProtoWriter.zigzag(next - ref));
+                ref = next;
+            }
+            ProtoWriter way = new ProtoWriter();
+            way.varint(1, w.id);
+            way.message(2, keys);
+            way.message(3, vals);
+            way.message(8, refs);
+            group.message(3, way);
+        }
+        ProtoWriter block = new ProtoWriter();
+        block.message(1, strings.toMessage());
+        block.message(2, group);
+        return block.toByteArray();
+    }
+
+    private static void writeBlob(ByteArrayOutputStream out, String type, byte[] data,
+                                  Random r) throws IOException {
+        ProtoWriter blob = new ProtoWriter();
+        if (r.nextInt(3) == 0) {
+            blob.bytes(1, data);
+        } else {
+            Deflater deflater = new Deflater();
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                zlib.write(buffer, 0, deflater.deflate(buffer));
+            }
+            deflater.end();
+            blob.varint(2, data.length);
+            blob.bytes(3, zlib.toByteArray());
+        }
+        byte[] blobBytes = blob.toByteArray();
+        ProtoWriter header = new ProtoWriter();
+        header.string(1, type);
+        header.varint(3, blobBytes.length);
+        byte[] headerBytes = header.toByteArray();
+        DataOutputStream dataOut = new DataOutputStream(out);
+        dataOut.writeInt(headerBytes.length);
+        dataOut.write(headerBytes);
+        dataOut.write(blobBytes);
+    }
+
+    private static long nanodegrees(double degrees) {
+        return Math.round(degrees * 1e9);
+    }
+
+    /**
+     * String table of a block, with the empty string at index 0 as the format requires.
+     */
+    private static class Strings {
+        private final List<String> strings = new ArrayList<>();
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        Strings() {
+            get("");
+        }
+
+        int get(String s) {
+            Integer i = indices.get(s);
+            if (i == null) {
+                i = strings.size();
+                strings.add(s);
+                indices.put(s, i);
+            }
+            return i;
+        }
+
+        ProtoWriter toMessage() {
+            ProtoWriter table = new ProtoWriter();
+            for (String s : strings) {
+                table.string(1, s);
+            }
+            return table;
+        }
+    }
+
+    /**
+     * Minimal protobuf wire format encoder, the counterpart of the reader's ProtoReader.
+     * Packed repeated fields are written with rawVarint into their own writer, which is
+     * then added with message().
+     */
+    private static class ProtoWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        static long zigzag(long v) {
+            return (v << 1) ^ (v >> 63);
+        }
+
+        void rawVarint(long v) {
+            while ((v & ~0x7fL) != 0) {
+                out.write((int) (v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            out.write((int) v);
+        }
+
+        void varint(int field, long v) {
+            rawVarint(field << 3);
+            rawVarint(v);
+        }
+
+        /**
+         * Writes a zigzag-encoded sint64.
+         */
+        void signed(int field, long v) {
+            varint(field, zigzag(v));
+        }
+
+        void bytes(int field, byte[] b) {
+            rawVarint(field << 3 | 2);
+            rawVarint(b.length);
+            out.write(b, 0, b.length);
+        }
+
+        void string(int field, String s) {
+            bytes(field, s.getBytes(StandardCharsets.UTF_8));
+        }
+
+        void message(int field, ProtoWriter m) {
+            bytes(field, m.toByteArray());
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
@@ -0,0 +1,265 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Random OSM test data, and a canonical dump of a GraphDB, for comparing the ways of
+ * building a graph with each other.
+ */
+class OsmTestFiles {
+    private static final String[] HIGHWAYS = {"residential", "primary", "tertiary_link",
+        "living_street", "footway", "service", "cycleway"};
+    private static final String[] NAMES = {"Top Dog", "Caf\u00e9 & Bar", "Joe's <Diner>",
+        "\"Quoted\" Place", "Tab\tand\nnewline", "\u263a Smile", "Peet's Coffee & Tea",
+        "Top Dog"};
+
+    /**
+     * A node of the random map.
+     */
+    static class Node {
+        final long id;
+        final double lon;
+        final double lat;
+        final String name;
+
+        Node(long id, double lon, double lat, String name) {
+            this.id = id;
+            this.lon = lon;
+            this.lat = lat;
+            this.name = name;
+        }
+    }
+
+    /**
+     * A way of the random map.
+     */
+    static class Way {
+        final long id;
+        final long[] refs;
+        final String highway;
+        final String name;
+
+        Way(long id, long[] refs, String highway, String name) {
+            this.id = id;
+            this.refs = refs;
+            this.highway = highway;
+            this.name = name;
+        }
+    }
+
+    final List<Node> nodes = new ArrayList<>();
+    final List<Way> ways = new ArrayList<>();
+    /* Named nodes that come after all the ways and are on no way. */
+    final List<Node> lateNodes = new ArrayList<>();
+
+    /**
+     * Makes a random map of about nodeCount nodes, in no particular id order, and ways
+     * over them: roads of allowed and other highway types, and ways without one.
+     */
+    OsmTestFiles(Random r, int nodeCount) {
+        List<Long> ids = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i += 1) {
+            ids.add(1000L + 3 * i + r.nextInt(3));
+        }
+        Collections.shuffle(ids, r);
+        for (long id : ids) {
+            nodes.add(randomNode(r, id));
+        }
+        for (int i = 0; i < nodeCount / 4; i += 1) {
+            long[] refs = new long[2 + r.nextInt(5)];
+            for (int j = 0; j < refs.length; j += 1) {
+                do {
+                    refs[j] = ids.get(r.nextInt(ids.size()));
+                } while (j > 0 && refs[j] == refs[j - 1]);
+            }
+            String highway = r.nextInt(6) == 0 ? null : HIGHWAYS[r.nextInt(HIGHWAYS.length)];
+            String name = r.nextBoolean() ? NAMES[r.nextInt(NAMES.length)] : null;
+            ways.add(new Way(50000 + i, refs, highway, name));
+        }
+        for (int i = 0; i < 5; i += 1) {
+            double lon = -122.25 + r.nextDouble() / 100;
+            double lat = 37.87 + r.nextDouble() / 100;
+            lateNodes.add(new Node(900000 + i, Double.parseDouble(String.format("%.7f", lon)),
+                    Double.parseDouble(String.format("%.7f", lat)), NAMES[i]));
+        }
+    }
+
+    private static Node randomNode(Random r, long id) {
+        double lon = -122.3 + 0.09 * r.nextDouble();
+        double lat = 37.82 + 0.08 * r.nextDouble();
+        /* Coordinates as OSM writes them, and some with fewer or more digits, up to the
+         * nanodegrees a PBF file can hold. */
+        int digits = r.nextInt(4) == 0 ? r.nextInt(10) : 7;
+        lon = Double.parseDouble(String.format("%." + digits + "f", lon));
+        lat = Double.parseDouble(String.format("%." + digits + "f", lat));
+        String name = r.nextInt(5) == 0 ? NAMES[r.nextInt(NAMES.length)] : null;
+        return new Node(id, lon, lat, name);
+    }
+
+    /**
+     * Writes the map as OSM XML, using as many of the XML forms OSM exports contain as
+     * possible: both quote styles, entity and character references, comments, CDATA, a
+     * DOCTYPE, and tags spread over lines. internalSubset, if not empty, is put in the
+     * DOCTYPE as its internal subset.
+     */
+    String toXml(Random r, String internalSubset) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        sb.append("<!-- generated, with <way> and <node id=\"1\"> in a comment -->\n");
+        sb.append("<!DOCTYPE osm").append(internalSubset.isEmpty() ? ""
+                : " [" + internalSubset + "]").append(">\n");
+        sb.append("<osm version=\"0.6\" generator=\"test\">\n");
+        sb.append(" <bounds minlat=\"37.82\" minlon=\"-122.30\" maxlat=\"37.90\""
+                + " maxlon=\"-122.21\"/>\n");
+        sb.append(" <?note processing instruction?>\n");
+        for (Node n : nodes) {
+            appendNode(sb, r, n);
+        }
+        for (Way w : ways) {
+            sb.append(" <way id=\"").append(w.id).append("\" version=\"2\"");
+            sb.append(r.nextBoolean() ? ">\n" : "\n    >\n");
+            if (r.nextBoolean()) {
+                sb.append("  <![CDATA[ <nd ref=\"1\"/> ]]>\n");
+            }
+            for (long ref : w.refs) {
+                sb.append(r.nextBoolean() ? "  <nd ref=\"" + ref + "\"/>\n"
+                        : "  <nd ref='" + ref + "' />\n");
+            }
+            if (w.highway != null) {
+                sb.append("  <tag k=\"highway\" v=\"").append(w.highway).append("\"/>\n");
+            }
+            if (w.name != null) {
+                appendTag(sb, r, "name", w.name);
+            }
+            sb.append("  <tag k=\"maxspeed\" v=\"25 mph\"/>\n");
+            sb.append(" </way>\n");
+        }
+        for (Node n : lateNodes) {
+            appendNode(sb, r, n);
+        }
+        sb.append(" <relation id=\"7\"><member type=\"way\" ref=\"50000\" role=\"\"/>"
+                + "</relation>\n");
+        sb.append("</osm>\n");
+        return sb.toString();
+    }
+
+    private static void appendNode(StringBuilder sb, Random r, Node n) {
+        String id = "id=\"" + n.id + "\"";
+        String lat = r.nextBoolean() ? "lat=\"" + n.lat + "\"" : "lat='" + n.lat + "'";
+        String lon = "lon=\"" + n.lon + "\"";
+        String[] attributes = r.nextBoolean() ? new String[]{id, lat, lon}
+                : new String[]{lon, id, lat};
+        sb.append(" <node");
+        for (String a : attributes) {
+            sb.append(r.nextInt(4) == 0 ? "\n   " : " ").append(a);
+        }
+        sb.append(" user=\"a &amp; b\"");
+        if (n.name == null && r.nextBoolean()) {
+            sb.append("/>\n");
+            return;
+        }
+        sb.append(">\n");
+        if (n.name != null) {
+            appendTag(sb, r, "name", n.name);
+        }
+        sb.append("  <tag k=\"amenity\" v=\"cafe\"/>\n");
+        sb.append(" </node>\n");
+    }
+
+    private static void appendTag(StringBuilder sb, Random r, String k, String v) {
+        boolean single = r.nextBoolean();
+        char quote = single ? '\'' : '"';
+        sb.append("  <tag k=").append(quote).append(k).append(quote).append(" v=")
+                .append(quote).append(escape(v, single, r)).append(quote).append("/>\n");
+    }
+
+    /**
+     * Escapes v for an attribute value in the given quotes, writing some characters as
+     * character references instead. Control characters always are, as a parser would
+     * turn them into spaces otherwise.
+     */
+    private static String escape(String v, boolean singleQuotes, Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < v.length(); i += 1) {
+            char c = v.charAt(i);
+            if (c == '&') {
+                sb.append("&amp;");
+            } else if (c == '<') {
+                sb.append("&lt;");
+            } else if (c == '"' && !singleQuotes) {
+                sb.append("&quot;");
+            } else if (c == '\'' && singleQuotes) {
+                sb.append("&apos;");
+            } else if (c > 127 || c < ' ' || r.nextInt(8) == 0) {
+                sb.append(r.nextBoolean() ? "&#" + (int) c + ";"
+                        : "&#x" + Integer.toHexString(c) + ";");
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Writes text to a new temporary file with the given suffix, deleted on exit.
+     */
+    static File write(String text, String suffix) throws IOException {
+        return write(text.getBytes(StandardCharsets.UTF_8), suffix);
+    }
+
+    static File write(byte[] bytes, String suffix) throws IOException {
+        File f = File.createTempFile("osm", suffix);
+        f.deleteOnExit();
+        Files.write(f.toPath(), bytes);
+        return f;
+    }
+
+    /**
+     * Deletes f and the snapshot, hierarchy and landmark files GraphDB may have saved
+     * next to it.
+     */
+    static void delete(File f) {
+        String path = f.getPath();
+        for (String suffix : new String[]{"", ".snapshot", ".ch", ".landmarks"}) {
+            new File(path + suffix).delete();
+        }
+    }
+
+    /**
+     * Returns the vertices of g with their coordinates and neighbours, and the places of
+     * g, in a canonical text form, so that two graphs are equal exactly if their dumps
+     * are.
+     */
+    static String dump(GraphDB g) {
+        StringBuilder sb = new StringBuilder();
+        TreeSet<Long> vertices = new TreeSet<>();
+        for (long v : g.vertices()) {
+            vertices.add(v);
+        }
+        for (long v : vertices) {
+            TreeSet<Long> adjacent = new TreeSet<>();
+            for (long w : g.adjacent(v)) {
+                adjacent.add(w);
+            }
+            sb.append(v).append(' ').append(g.lon(v)).append(' ').append(g.lat(v))
+                    .append(' ').append(adjacent).append('\n');
+        }
+        TreeMap<String, List<Map<String, Object>>> places = new TreeMap<>(g.places);
+        for (Map.Entry<String, List<Map<String, Object>>> e : places.entrySet()) {
+            sb.append("place ").append(e.getKey()).append(':');
+            for (Map<String, Object> place : e.getValue()) {
+                sb.append(' ').append(new TreeMap<>(place));
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+}
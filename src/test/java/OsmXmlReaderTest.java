@@ -0,0 +1,60 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class OsmXmlReaderTest {
+    /**
+     * The streaming reader must build the same graph and places as the SAX handler, also
+     * when the file is cut into chunks so small that most cuts fall inside elements.
+     */
+    @Test
+    public void testMatchesSax() throws Exception {
+        Random r = new Random(8);
+        File f = OsmTestFiles.write(new OsmTestFiles(r, 400).toXml(r, ""), ".osm");
+        try {
+            String expected = OsmTestFiles.dump(new GraphDB(f, GraphDB::readSax));
+            assertTrue(expected.contains("place top dog:"));
+            for (int chunkBytes : new int[]{17, 64, 300, 4096, 1 << 20}) {
+                for (boolean twoPass : new boolean[]{false, true}) {
+                    GraphDB g = new GraphDB(f, (file, db) -> OsmXmlReader.read(file, db,
+                            twoPass, chunkBytes));
+                    assertEquals("chunks of " + chunkBytes + ", two passes " + twoPass,
+                            expected, OsmTestFiles.dump(g));
+                }
+            }
+        } finally {
+            OsmTestFiles.delete(f);
+        }
+    }
+
+    /**
+     * A DOCTYPE with an internal subset, here declaring an entity, is left to SAX: the
+     * reader refuses it, and GraphDB falls back to the SAX handler.
+     */
+    @Test
+    public void testFallsBackToSax() throws Exception {
+        Random r = new Random(9);
+        String xml = new OsmTestFiles(r, 100).toXml(r,
+                "<!ENTITY cafe \"Caf&#233;\">")
+                .replace("<tag k=\"amenity\" v=\"cafe\"/>", "<tag k=\"name\" v=\"&cafe; Roma\"/>");
+        File f = OsmTestFiles.write(xml, ".osm");
+        try {
+            try {
+                OsmXmlReader.read(f, new GraphDB(OsmTestFiles.write("", ".osm"), (file, db) -> {
+                }), false);
+                fail("The reader accepted an internal DTD subset.");
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("DOCTYPE"));
+            }
+            String expected = OsmTestFiles.dump(new GraphDB(f, GraphDB::readSax));
+            assertTrue(expected.contains("place caf roma:"));
+            assertEquals(expected, OsmTestFiles.dump(new GraphDB(f.getPath())));
+        } finally {
+            OsmTestFiles.delete(f);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PlaceIndexTest {
+    private static HashMap<String, LinkedList<Map<String, Object>>> randomPlaces(Random r) {
+        return randomPlaces(r, 3000, 6);
+    }
+
+    /**
+     * Returns count random places, named with 1 to maxLength of the letters a to d.
+     */
+    private static HashMap<String, LinkedList<Map<String, Object>>> randomPlaces(Random r,
+            int count, int maxLength) {
+        HashMap<String, LinkedList<Map<String, Object>>> places = new HashMap<>();
+        for (int i = 0; i < count; i += 1) {
+            StringBuilder name = new StringBuilder();
+            int length = 1 + r.nextInt(maxLength);
+            for (int j = 0; j < length; j += 1) {
+                name.append((char) ('a' + r.nextInt(4)));
+            }
+            String raw = r.nextBoolean() ? name.toString().toUpperCase() : name + "!";
+            HashMap<String, Object> place = new HashMap<>();
+            place.put("name", raw);
+            places.computeIfAbsent(GraphDB.cleanString(raw), k -> new LinkedList<>()).add(place);
+        }
+        return places;
+    }
+
+    /**
+     * Compare prefix matches against a scan over all names, for every short prefix.
+     */
+    @Test
+    public void testPrefixMatches() {
+        HashMap<String, LinkedList<Map<String, Object>>> places = randomPlaces(new Random(12));
+        PlaceIndex index = PlaceIndex.build(places);
+        String[] prefixes = {"a", "B", "ab", "abC", "dcba", "dddddd", "abcdabc", "e", "a-b"};
+        for (String prefix : prefixes) {
+            String cleaned = GraphDB.cleanString(prefix);
+            HashSet<String> expected = new HashSet<>();
+            for (LinkedList<Map<String, Object>> sameName : places.values()) {
+                for (Map<String, Object> place : sameName) {
+                    String raw = (String) place.get("name");
+                    if (GraphDB.cleanString(raw).startsWith(cleaned)) {
+                        expected.add(raw);
+                    }
+                }
+            }
+            List<String> matches = index.prefixMatches(prefix);
+            assertEquals(expected.size(), matches.size());
+            assertEquals(expected, new HashSet<>(matches));
+        }
+        assertTrue(index.prefixMatches("").isEmpty());
+    }
+
+    /**
+     * The top list of a prefix must hold the names carried by the most places.
+     */
+    @Test
+    public void testTopMatches() {
+        HashMap<String, LinkedList<Map<String, Object>>> places = randomPlaces(new Random(13));
+        PlaceIndex index = PlaceIndex.build(places);
+        for (String prefix : new String[]{"a", "bc", "cab", "d"}) {
+            for (int k : new int[]{1, 5, PlaceIndex.TOP_K, 50}) {
+                List<String> top = index.topMatches(prefix, k);
+                assertTrue(top.size() <= k);
+                int previous = Integer.MAX_VALUE;
+                for (String raw : top) {
+                    int count = places.get(GraphDB.cleanString(raw)).size();
+                    assertTrue(count <= previous);
+                    previous = count;
+                }
+                int best = 0;
+                for (Map.Entry<String, LinkedList<Map<String, Object>>> e : places.entrySet()) {
+                    if (e.getKey().startsWith(prefix)) {
+                        best = Math.max(best, e.getValue().size());
+                    }
+                }
+                assertEquals(best, places.get(GraphDB.cleanString(top.get(0))).size());
+            }
+        }
+    }
+
+    @Test
+    public void testWriteAndRead() throws Exception {
+        PlaceIndex index = PlaceIndex.build(randomPlaces(new Random(14)));
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.write(new DataOutputStream(bytes));
+        PlaceIndex copy = PlaceIndex.read(ByteBuffer.wrap(bytes.toByteArray()));
+        for (String prefix : new String[]{"a", "ab", "dd", "ccc"}) {
+            assertEquals(index.prefixMatches(prefix), copy.prefixMatches(prefix));
+            assertEquals(index.topMatches(prefix, 7), copy.topMatches(prefix, 7));
+        }
+        assertEquals(new ArrayList<String>(), copy.topMatches("x", 3));
+    }
+
+    private static int levenshtein(String a, String b) {
+        int[] prev = new int[b.length() + 1];
+        int[] row = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j += 1) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i += 1) {
+            row[0] = i;
+            for (int j = 1; j <= b.length(); j += 1) {
+                int cost = prev[j - 1] + (a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1);
+                row[j] = Math.min(cost, Math.min(prev[j], row[j - 1]) + 1);
+            }
+            int[] t = prev;
+            prev = row;
+            row = t;
+        }
+        return prev[b.length()];
+    }
+
+    /**
+     * Compare fuzzy full-name and prefix matches against brute force edit distances.
+     */
+    @Test
+    public void testFuzzy() {
+        HashMap<String, LinkedList<Map<String, Object>>> places = randomPlaces(new Random(15));
+        PlaceIndex index = PlaceIndex.build(places);
+        for (String query : new String[]{"abcd", "dacbad", "bbbbbb", "cad", "ab"}) {
+            int edits = PlaceIndex.allowedEdits(query.length(), 2);
+            List<String> names = index.fuzzyNames(query, 2);
+            HashSet<String> expected = new HashSet<>();
+            for (String name : places.keySet()) {
+                if (levenshtein(name, query) <= edits) {
+                    expected.add(name);
+                }
+            }
+            assertEquals(expected, new HashSet<>(names));
+            for (int i = 1; i < names.size(); i += 1) {
+                assertTrue(levenshtein(names.get(i - 1), query)
+                        <= levenshtein(names.get(i), query));
+            }
+
+            List<String> matches = index.fuzzyMatches(query, 2, PlaceIndex.TOP_K);
+            int previous = 0;
+            for (String raw : matches) {
+                String cleaned = GraphDB.cleanString(raw);
+                int best = Integer.MAX_VALUE;
+                for (int end = 0; end <= cleaned.length(); end += 1) {
+                    best = Math.min(best, levenshtein(cleaned.substring(0, end), query));
+                }
+                assertTrue(best <= edits);
+                assertTrue(best >= previous);
+                previous = best;
+            }
+        }
+        assertEquals(index.topMatches("abc", 5), index.fuzzyMatches("abc", 0, 5));
+    }
+
+    /**
+     * Returns the smallest edit distance between query and a prefix of name.
+     */
+    private static int prefixDistance(String name, String query) {
+        int best = Integer.MAX_VALUE;
+        for (int end = 0; end <= name.length(); end += 1) {
+            best = Math.min(best, levenshtein(name.substring(0, end), query));
+        }
+        return best;
+    }
+
+    /**
+     * Every name with a prefix close enough to the query must be found, up to k, also when
+     * the names run on well past the query, so that trie labels end beyond it. If there
+     * are more than k, the ones left out must be no closer than the ones returned.
+     */
+    @Test
+    public void testFuzzyFindsAllPrefixMatches() {
+        HashMap<String, LinkedList<Map<String, Object>>> places =
+                randomPlaces(new Random(16), 400, 14);
+        PlaceIndex index = PlaceIndex.build(places);
+        for (String query : new String[]{"abcd", "dacbad", "bbbb", "cad", "ab", "abcdabc"}) {
+            for (int maxEdits = 0; maxEdits <= 2; maxEdits += 1) {
+                int edits = PlaceIndex.allowedEdits(query.length(), maxEdits);
+                HashSet<String> expected = new HashSet<>();
+                for (String name : places.keySet()) {
+                    if (prefixDistance(name, query) <= edits) {
+                        expected.add(name);
+                    }
+                }
+                for (int k : new int[]{5, PlaceIndex.TOP_K}) {
+                    HashSet<String> found = new HashSet<>();
+                    int farthest = 0;
+                    List<String> matches = index.fuzzyMatches(query, maxEdits, k);
+                    for (String raw : matches) {
+                        String name = GraphDB.cleanString(raw);
+                        assertTrue(expected.contains(name));
+                        found.add(name);
+                        farthest = Math.max(farthest, prefixDistance(name, query));
+                    }
+                    if (matches.size() < k) {
+                        assertEquals(query + " within " + edits, expected, found);
+                    }
+                    for (String name : expected) {
+                        assertTrue(query + " missed " + name, found.contains(name)
+                                || prefixDistance(name, query) >= farthest);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testFuzzyPrefixOfLongLabel() {
+        HashMap<String, LinkedList<Map<String, Object>>> places = new HashMap<>();
+        for (String name : new String[]{"Abcdefgh", "Xyz"}) {
+            HashMap<String, Object> place = new HashMap<>();
+            place.put("name", name);
+            places.computeIfAbsent(GraphDB.cleanString(name), k -> new LinkedList<>())
+                    .add(place);
+        }
+        PlaceIndex index = PlaceIndex.build(places);
+        List<String> expected = Collections.singletonList("Abcdefgh");
+        assertEquals(expected, index.topMatches("abc", 5));
+        assertEquals(expected, index.fuzzyMatches("abc", 1, 5));
+        assertEquals(expected, index.fuzzyMatches("abcd", 1, 5));
+        assertEquals(expected, index.fuzzyMatches("abcdef", 0, 5));
+        assertEquals(expected, index.fuzzyMatches("abxdef", 1, 5));
+        assertTrue(index.fuzzyMatches("qqqq", 1, 5).isEmpty());
+    }
+}
@@ -0,0 +1,57 @@
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class PngEncoderTest {
+    private static BufferedImage image(int width, int height, int type, long seed) {
+        Random r = new Random(seed);
+        BufferedImage img = new BufferedImage(width, height, type);
+        for (int y = 0; y < height; y += 1) {
+            for (int x = 0; x < width; x += 1) {
+                int rgb = r.nextInt(8) == 0 ? r.nextInt() : x * 0x030201 + y * 0x010203;
+                img.setRGB(x, y, rgb);
+            }
+        }
+        return img;
+    }
+
+    private static void assertRoundTrip(PngEncoder encoder, BufferedImage img)
+            throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        encoder.write(img, os);
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(os.toByteArray()));
+        int w = img.getWidth();
+        int h = img.getHeight();
+        assertEquals(w, decoded.getWidth());
+        assertEquals(h, decoded.getHeight());
+        assertArrayEquals(img.getRGB(0, 0, w, h, null, 0, w),
+                decoded.getRGB(0, 0, w, h, null, 0, w));
+    }
+
+    @Test
+    public void testAllFiltersAndLevels() throws IOException {
+        BufferedImage img = image(123, 77, BufferedImage.TYPE_INT_RGB, 19);
+        for (PngEncoder.Filter filter : PngEncoder.Filter.values()) {
+            for (int level : new int[]{0, 1, 6, 9}) {
+                assertRoundTrip(new PngEncoder(level, filter), img);
+            }
+        }
+        assertRoundTrip(PngEncoder.RAW, img);
+    }
+
+    @Test
+    public void testOtherImageTypesAndSizes() throws IOException {
+        PngEncoder encoder = new PngEncoder(1, PngEncoder.Filter.ADAPTIVE);
+        assertRoundTrip(encoder, image(5, 3, BufferedImage.TYPE_3BYTE_BGR, 1));
+        /* Large enough for several IDAT chunks, and wider than the image before. */
+        assertRoundTrip(encoder, image(700, 400, BufferedImage.TYPE_INT_RGB, 2));
+        assertRoundTrip(encoder, image(1, 1, BufferedImage.TYPE_INT_RGB, 3));
+    }
+}
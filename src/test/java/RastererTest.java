@@ -0,0 +1,58 @@
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class RastererTest {
+    private static Map<String, Double> query(double ullon, double ullat, double lrlon,
+                                             double lrlat, double w, double h) {
+        Map<String, Double> params = new HashMap<>();
+        params.put("ullon", ullon);
+        params.put("ullat", ullat);
+        params.put("lrlon", lrlon);
+        params.put("lrlat", lrlat);
+        params.put("w", w);
+        params.put("h", h);
+        return params;
+    }
+
+    @Test
+    public void testWholeMap() {
+        Rasterer rasterer = new Rasterer("img/");
+        Map<String, Object> result = rasterer.getMapRaster(query(MapServer.ROOT_ULLON,
+                MapServer.ROOT_ULLAT, MapServer.ROOT_LRLON, MapServer.ROOT_LRLAT, 1024, 1024));
+        assertEquals(true, result.get("query_success"));
+        assertEquals(2, result.get("depth"));
+        String[][] grid = (String[][]) result.get("render_grid");
+        assertEquals(4, grid.length);
+        assertArrayEquals(new String[]{"img/11.png", "img/12.png", "img/21.png", "img/22.png"},
+                grid[0]);
+        assertArrayEquals(new String[]{"img/33.png", "img/34.png", "img/43.png", "img/44.png"},
+                grid[3]);
+        assertEquals(MapServer.ROOT_ULLON, (double) result.get("raster_ul_lon"), 0);
+        assertEquals(MapServer.ROOT_LRLAT, (double) result.get("raster_lr_lat"), 0);
+    }
+
+    @Test
+    public void testTouchingEdges() {
+        Rasterer rasterer = new Rasterer("img/");
+        double midLon = (MapServer.ROOT_ULLON - MapServer.ROOT_LRLON) / 2 + MapServer.ROOT_LRLON;
+        /* A box whose right edge is the left edge of the right half also gets that half. */
+        Map<String, Object> result = rasterer.getMapRaster(query(MapServer.ROOT_ULLON,
+                MapServer.ROOT_ULLAT, midLon, MapServer.ROOT_LRLAT, 1, 1));
+        String[][] grid = (String[][]) result.get("render_grid");
+        assertArrayEquals(new String[]{"img/1.png", "img/2.png"}, grid[0]);
+        assertArrayEquals(new String[]{"img/3.png", "img/4.png"}, grid[1]);
+    }
+
+    @Test
+    public void testOutsideMap() {
+        Rasterer rasterer = new Rasterer("img/");
+        Map<String, Object> result = rasterer.getMapRaster(query(-123, 37.5, -122.9, 37.4,
+                512, 512));
+        assertEquals(false, result.get("query_success"));
+        assertEquals(0, ((String[][]) result.get("render_grid")).length);
+    }
+}
@@ -0,0 +1,27 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RouteGeometryTest {
+    @Test
+    public void testEncode() {
+        /* The example of the Google Maps polyline documentation. */
+        double[] lats = {38.5, 40.7, 43.252};
+        double[] lons = {-120.2, -120.95, -126.453};
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@",
+                RouteGeometry.encode(lons, lats, new boolean[]{true, true, true}));
+        assertEquals("_p~iF~ps|U_c_\\fhde@",
+                RouteGeometry.encode(lons, lats, new boolean[]{true, false, true}));
+    }
+
+    @Test
+    public void testSimplify() {
+        double[] xs = {0, 1, 2, 3, 4, 5, 6};
+        double[] ys = {0, 0.1, -0.1, 5, 0.1, 0, 0};
+        boolean[] keep = RouteGeometry.simplify(xs, ys, 0.5);
+        assertArrayEquals(new boolean[]{true, false, true, true, true, false, true}, keep);
+        keep = RouteGeometry.simplify(xs, ys, 10);
+        assertArrayEquals(new boolean[]{true, false, false, false, false, false, true}, keep);
+        assertEquals(1, RouteGeometry.simplify(new double[]{1}, new double[]{2}, 1).length);
+    }
+}
@@ -0,0 +1,43 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class RouteStoreTest {
+    @Test
+    public void testHandles() {
+        RouteStore store = new RouteStore(100);
+        Set<Long> handles = new HashSet<>();
+        long previous = -1;
+        int consecutive = 0;
+        for (int i = 0; i < 1000; i += 1) {
+            long handle = store.put(Arrays.asList((long) i));
+            assertTrue(handle > 0 && handle < 1L << 53);
+            assertTrue(handles.add(handle));
+            if (handle == previous + 1) {
+                consecutive += 1;
+            }
+            previous = handle;
+        }
+        assertTrue(consecutive < 5);
+    }
+
+    @Test
+    public void testKeepsMostRecentlyUsed() {
+        RouteStore store = new RouteStore(2);
+        List<Long> a = Arrays.asList(1L, 2L);
+        long first = store.put(a);
+        long second = store.put(Arrays.asList(3L));
+        assertEquals(a, store.get(first));
+        long third = store.put(Arrays.asList(4L));
+        assertEquals(a, store.get(first));
+        assertNull(store.get(second));
+        assertNotNull(store.get(third));
+        store.remove(first);
+        assertNull(store.get(first));
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RouterTest {
+    /**
+     * Builds a graph of n random points, each joined in both directions to its nearest
+     * few neighbours. Points left of x = 0.5 are never joined to points right of it, so
+     * the graph has at least two components.
+     */
+    static CompactGraph randomGraph(int n, Random r) {
+        long[] ids = new long[n];
+        double[] lons = new double[n];
+        double[] lats = new double[n];
+        for (int v = 0; v < n; v += 1) {
+            ids[v] = 1000 + 7 * v;
+            lons[v] = r.nextDouble();
+            lats[v] = r.nextDouble();
+        }
+        List<List<Integer>> adj = new ArrayList<>();
+        for (int v = 0; v < n; v += 1) {
+            adj.add(new ArrayList<>());
+        }
+        for (int v = 0; v < n; v += 1) {
+            for (int k = 0; k < 3; k += 1) {
+                int nearest = -1;
+                for (int w = 0; w < n; w += 1) {
+                    if (w != v && !adj.get(v).contains(w) && (lons[v] < 0.5) == (lons[w] < 0.5)
+                            && (nearest < 0 || CompactGraph.distance(lons[v], lats[v], lons[w],
+                            lats[w]) < CompactGraph.distance(lons[v], lats[v], lons[nearest],
+                            lats[nearest]))) {
+                        nearest = w;
+                    }
+                }
+                if (nearest >= 0) {
+                    adj.get(v).add(nearest);
+                    adj.get(nearest).add(v);
+                }
+            }
+        }
+        int[] offsets = new int[n + 1];
+        for (int v = 0; v < n; v += 1) {
+            offsets[v + 1] = offsets[v] + adj.get(v).size();
+        }
+        int[] targets = new int[offsets[n]];
+        for (int v = 0; v < n; v += 1) {
+            for (int i = 0; i < adj.get(v).size(); i += 1) {
+                targets[offsets[v] + i] = adj.get(v).get(i);
+            }
+        }
+        return new CompactGraph(ids, lons, lats, offsets, targets);
+    }
+
+    /**
+     * Returns the length of route in g, asserting that each step of it is an edge.
+     */
+    static double length(CompactGraph g, LinkedList<Long> route) {
+        double length = 0;
+        int prev = -1;
+        for (long id : route) {
+            int v = g.indexOf(id);
+            if (prev >= 0) {
+                boolean joined = false;
+                for (int e = g.offsets[prev]; e < g.offsets[prev + 1]; e += 1) {
+                    joined |= g.targets[e] == v;
+                }
+                assertTrue(joined);
+                length += g.distance(prev, v);
+            }
+            prev = v;
+        }
+        return length;
+    }
+
+    @Test
+    public void testBidirectionalMatchesAStar() {
+        Random r = new Random(22);
+        CompactGraph g = randomGraph(400, r);
+        Heuristic h = Router.euclidean(g);
+        SearchContext forward = new SearchContext();
+        SearchContext backward = new SearchContext();
+        SearchContext single = new SearchContext();
+        int unreachable = 0;
+        for (int i = 0; i < 500; i += 1) {
+            int s = r.nextInt(g.size());
+            int t = i % 50 == 0 ? s : r.nextInt(g.size());
+            LinkedList<Long> expected = Router.shortestPath(g, s, t, h, single);
+            LinkedList<Long> actual = Router.shortestPath(g, s, t, h, forward, backward);
+            if (expected.isEmpty()) {
+                assertTrue(actual.isEmpty());
+                unreachable += 1;
+                continue;
+            }
+            assertEquals(g.id(s), (long) actual.getFirst());
+            assertEquals(g.id(t), (long) actual.getLast());
+            assertEquals(length(g, expected), length(g, actual), 1e-9);
+        }
+        assertTrue(unreachable > 0);
+    }
+}
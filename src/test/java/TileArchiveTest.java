@@ -0,0 +1,66 @@
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.*;
+
+public class TileArchiveTest {
+    private static byte[] bytes(ByteBuffer b) {
+        byte[] bytes = new byte[b.remaining()];
+        b.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void testBuildAndRead() throws IOException {
+        Path dir = Files.createTempDirectory("tiles");
+        File archive = dir.resolve("img.tiles").toFile();
+        try {
+            byte[] root = {1, 2, 3};
+            byte[] upperRight = {4, 5};
+            byte[] deep = {6, 7, 8, 9};
+            Files.write(dir.resolve("root.png"), root);
+            Files.write(dir.resolve("2.png"), upperRight);
+            Files.write(dir.resolve("412.png"), deep);
+
+            assertEquals(3, TileArchive.build(dir.toFile(), 3, archive));
+            TileArchive tiles = new TileArchive(archive);
+            assertEquals(3, tiles.maxDepth());
+            assertArrayEquals(root, bytes(tiles.tile(0, 0, 0)));
+            assertArrayEquals(upperRight, bytes(tiles.tile(1, 1, 0)));
+            assertArrayEquals(deep, bytes(tiles.tile("412")));
+            assertArrayEquals(deep, bytes(tiles.tile(3, TileNames.x("412"),
+                    TileNames.y("412"))));
+            assertNull(tiles.tile("1"));
+            assertNull(tiles.tile("4121"));
+            assertNull(tiles.tile("5"));
+            assertNull(tiles.tile(1, 2, 0));
+        } finally {
+            for (File f : dir.toFile().listFiles()) {
+                f.delete();
+            }
+            dir.toFile().delete();
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFiles() throws IOException {
+        File f = File.createTempFile("tiles", ".png");
+        try {
+            Files.write(f.toPath(), new byte[]{(byte) 0x89, 'P', 'N', 'G', 0, 0, 0, 0, 0, 0,
+                0, 0});
+            try {
+                new TileArchive(f);
+                fail();
+            } catch (IOException e) {
+                assertTrue(e.getMessage().contains("not a tile archive"));
+            }
+        } finally {
+            f.delete();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+import org.junit.Test;
+
+import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+import static org.junit.Assert.*;
+
+public class TileCompositorTest {
+    private static final int SIZE = 32;
+
+    /**
+     * The compositor must give exactly the pixels of drawing the tiles one by one, for a
+     * single tile and for odd grids, with tiles of both PNG kinds TileCache converts, a
+     * missing tile, and edge tiles that are smaller or larger than the tile size.
+     */
+    @Test
+    public void testMatchesDrawImage() throws IOException {
+        Path dir = Files.createTempDirectory("tiles");
+        Random random = new Random(18);
+        try (TileCompositor compositor = new TileCompositor(new TileCache(1L << 24), SIZE,
+                3)) {
+            int[][] shapes = {{1, 1}, {1, 5}, {3, 1}, {3, 5}, {5, 3}, {7, 7}};
+            for (int[] shape : shapes) {
+                String[][] grid = makeTiles(dir, shape[0], shape[1], random);
+                BufferedImage expected = drawOneByOne(grid);
+                assertPixelsEqual(shape[0] + "x" + shape[1], expected,
+                        compositor.composite(grid));
+                /* Again, now with every tile cached. */
+                assertPixelsEqual(shape[0] + "x" + shape[1] + " cached", expected,
+                        compositor.composite(grid));
+            }
+        } finally {
+            for (File f : dir.toFile().listFiles()) {
+                f.delete();
+            }
+            dir.toFile().delete();
+        }
+    }
+
+    /**
+     * Writes random tiles for a grid of the given shape into dir, under names of their
+     * own, and returns the grid of their paths. Tiles in the last column are narrower or
+     * wider than SIZE, and those in the last row shorter or taller; with more than one
+     * tile, one of them is never written.
+     */
+    private static String[][] makeTiles(Path dir, int rows, int columns, Random random)
+            throws IOException {
+        String[][] grid = new String[rows][columns];
+        String prefix = rows + "x" + columns + "_";
+        int missing = rows * columns > 1 ? random.nextInt(rows * columns) : -1;
+        for (int r = 0; r < rows; r += 1) {
+            for (int c = 0; c < columns; c += 1) {
+                File f = dir.resolve(prefix + r + "_" + c + ".png").toFile();
+                grid[r][c] = f.getPath();
+                if (r * columns + c == missing) {
+                    continue;
+                }
+                int width = c == columns - 1 ? SIZE + random.nextInt(9) - 4 : SIZE;
+                int height = r == rows - 1 ? SIZE + random.nextInt(9) - 4 : SIZE;
+                int type = (r + c) % 2 == 0 ? BufferedImage.TYPE_3BYTE_BGR
+                        : BufferedImage.TYPE_BYTE_INDEXED;
+                BufferedImage tile = new BufferedImage(width, height, type);
+                for (int y = 0; y < height; y += 1) {
+                    for (int x = 0; x < width; x += 1) {
+                        tile.setRGB(x, y, random.nextInt(0x1000000));
+                    }
+                }
+                ImageIO.write(tile, "png", f);
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Puts the tiles together the way /raster used to, reading and drawing one at a time,
+     * and leaving missing tiles black.
+     */
+    private static BufferedImage drawOneByOne(String[][] grid) throws IOException {
+        BufferedImage img = new BufferedImage(grid[0].length * SIZE, grid.length * SIZE,
+                BufferedImage.TYPE_INT_RGB);
+        Graphics graphic = img.getGraphics();
+        for (int r = 0; r < grid.length; r += 1) {
+            for (int c = 0; c < grid[0].length; c += 1) {
+                File f = new File(grid[r][c]);
+                if (f.exists()) {
+                    graphic.drawImage(ImageIO.read(f), c * SIZE, r * SIZE, null);
+                }
+            }
+        }
+        return img;
+    }
+
+    private static void assertPixelsEqual(String message, BufferedImage expected,
+                                          BufferedImage actual) {
+        int w = expected.getWidth();
+        int h = expected.getHeight();
+        assertEquals(message, w, actual.getWidth());
+        assertEquals(message, h, actual.getHeight());
+        assertArrayEquals(message, expected.getRGB(0, 0, w, h, null, 0, w),
+                actual.getRGB(0, 0, w, h, null, 0, w));
+    }
+}
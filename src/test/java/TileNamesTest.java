@@ -0,0 +1,32 @@
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TileNamesTest {
+    @Test
+    public void testNames() {
+        assertEquals("root", TileNames.name(0, 0, 0));
+        assertEquals("1", TileNames.name(1, 0, 0));
+        assertEquals("4", TileNames.name(1, 1, 1));
+        assertEquals("412", TileNames.name(3, 5, 4));
+        assertEquals(5, TileNames.x("412"));
+        assertEquals(4, TileNames.y("412"));
+        assertEquals(3, TileNames.depth("412"));
+        assertFalse(TileNames.exists(3, 8, 0));
+        assertFalse(TileNames.exists(8, 0, 0));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        for (int depth = 0; depth <= TileNames.MAX_DEPTH; depth += 1) {
+            for (int x = 0; x < (1 << depth); x += 1) {
+                for (int y = 0; y < (1 << depth); y += 1) {
+                    String name = TileNames.name(depth, x, y);
+                    assertEquals(depth, TileNames.depth(name));
+                    assertEquals(x, TileNames.x(name));
+                    assertEquals(y, TileNames.y(name));
+                }
+            }
+        }
+    }
+}